@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load generator that plays every guest as an independent actor
+ * Each guest joins the queue of a random ride with addVisitorToQueue, blocks
+ * until an operator thread boards them with runOneCycle, optionally walks for
+ * a while, and moves on to the next ride. Queue waits go into a histogram
+ * Guests run one per virtual thread when the JVM has them (Java 21+), found
+ * by reflection so the code still builds on Java 17; otherwise they share a
+ * fixed pool of platform threads, which bounds how many wait at once
+ * While running, the generator replaces the rides' event sinks so it can see
+ * RIDER_BOARDED events; the previous sinks are restored afterwards
+ */
+public class AdmissionLoadGenerator {
+    private static final int FALLBACK_POOL_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 20_000;
+
+    private final List<ConcurrentRide> rides;
+    private int ridesPerGuest;
+    private long walkMillis;
+    private boolean allowVirtualThreads;
+    // Operators run while true
+    private volatile boolean running;
+
+    /**
+     * Creates a generator with no rides, one ride per guest and no walking time
+     */
+    public AdmissionLoadGenerator() {
+        this.rides = new ArrayList<>();
+        this.ridesPerGuest = 1;
+        this.allowVirtualThreads = true;
+    }
+
+    /**
+     * Adds a ride for guests to queue at; it needs an operator and must be operational
+     * @param ride A thread-safe ride
+     */
+    public void addRide(ConcurrentRide ride) {
+        if (ride == null) {
+            throw new IllegalArgumentException("ride must not be null");
+        }
+        rides.add(ride);
+    }
+
+    /**
+     * Sets what each guest does
+     * @param ridesPerGuest Number of rides each guest queues for in turn
+     * @param walkMillis Time a guest sleeps between rides
+     */
+    public void setGuestBehaviour(int ridesPerGuest, long walkMillis) {
+        if (ridesPerGuest <= 0 || walkMillis < 0) {
+            throw new IllegalArgumentException("ridesPerGuest must be positive and walkMillis non-negative");
+        }
+        this.ridesPerGuest = ridesPerGuest;
+        this.walkMillis = walkMillis;
+    }
+
+    /**
+     * Chooses whether guests may run on virtual threads when they are available
+     * @param allowVirtualThreads false to always use the platform thread pool
+     */
+    public void setAllowVirtualThreads(boolean allowVirtualThreads) {
+        this.allowVirtualThreads = allowVirtualThreads;
+    }
+
+    /**
+     * Checks whether this JVM can start virtual threads
+     * @return true on Java 21 and later
+     */
+    public static boolean virtualThreadsAvailable() {
+        return newVirtualThreadExecutor() != null;
+    }
+
+    /**
+     * Runs the given number of guests to completion
+     * @param guests Number of guest actors to start
+     * @return Admission rate and queue wait percentiles
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public LoadReport run(int guests) throws InterruptedException {
+        if (rides.isEmpty()) {
+            throw new IllegalStateException("Add at least one ride before running");
+        }
+        ConcurrentHashMap<String, Waiter> waiting = new ConcurrentHashMap<>();
+        LatencyHistogram waits = new LatencyHistogram();
+        LongAdder admissions = new LongAdder();
+        RideEventSink boardingSink = new BoardingSink(waiting);
+
+        List<RideEventSink> previousSinks = new ArrayList<>(rides.size());
+        for (ConcurrentRide ride : rides) {
+            previousSinks.add(ride.getEventSink());
+            ride.setEventSink(boardingSink);
+        }
+        ExecutorService executor = allowVirtualThreads ? newVirtualThreadExecutor() : null;
+        boolean virtual = executor != null;
+        if (executor == null) executor = Executors.newFixedThreadPool(FALLBACK_POOL_SIZE);
+
+        running = true;
+        List<Thread> operators = new ArrayList<>(rides.size());
+        for (ConcurrentRide ride : rides) {
+            Thread operator = new Thread(() -> operate(ride), "operator-" + ride.getRideName());
+            operator.setDaemon(true);
+            operator.start();
+            operators.add(operator);
+        }
+
+        long start = System.nanoTime();
+        try {
+            for (int g = 0; g < guests; g++) {
+                Visitor visitor = new Visitor("Load Guest " + g, 30, "Female", "LG" + g, "Standard", false, false);
+                executor.execute(() -> visit(visitor, waiting, waits, admissions));
+            }
+            executor.shutdown();
+            // Guests finish once operators have boarded them on every ride
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            executor.shutdownNow();
+            running = false;
+            for (Thread operator : operators) {
+                operator.join();
+            }
+            for (int i = 0; i < rides.size(); i++) {
+                rides.get(i).setEventSink(previousSinks.get(i));
+            }
+        }
+        return new LoadReport(guests, admissions.sum(), System.nanoTime() - start, virtual, waits);
+    }
+
+    /**
+     * One guest: queue, wait to be boarded, walk, repeat
+     */
+    private void visit(Visitor visitor, ConcurrentHashMap<String, Waiter> waiting,
+                       LatencyHistogram waits, LongAdder admissions) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < ridesPerGuest; i++) {
+            ConcurrentRide ride = rides.get(random.nextInt(rides.size()));
+            Waiter waiter = new Waiter(Thread.currentThread());
+            // Registered before joining, so the boarding event always finds it
+            waiting.put(visitor.getVisitorId(), waiter);
+            waiter.enqueuedAt = System.nanoTime();
+            ride.addVisitorToQueue(visitor);
+            admissions.increment();
+            while (!waiter.boarded) {
+                LockSupport.park(waiter);
+                if (Thread.interrupted()) return;
+            }
+            waits.record(waiter.boardedAt - waiter.enqueuedAt);
+            if (walkMillis > 0) {
+                try {
+                    Thread.sleep(walkMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Operator loop for one ride: run a cycle whenever someone is waiting
+     */
+    private void operate(ConcurrentRide ride) {
+        while (running) {
+            if (ride.getWaitingQueue().isEmpty()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            } else {
+                ride.runOneCycle();
+            }
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A guest blocked in a queue
+     */
+    private static final class Waiter {
+        final Thread thread;
+        long enqueuedAt;
+        long boardedAt;
+        volatile boolean boarded;
+
+        Waiter(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+    /**
+     * Wakes the guest behind every RIDER_BOARDED event and ignores everything else
+     */
+    private static final class BoardingSink implements RideEventSink {
+        private final ConcurrentHashMap<String, Waiter> waiting;
+
+        BoardingSink(ConcurrentHashMap<String, Waiter> waiting) {
+            this.waiting = waiting;
+        }
+
+        @Override
+        public boolean isEnabled(RideEvent.Type type) {
+            return type == RideEvent.Type.RIDER_BOARDED;
+        }
+
+        @Override
+        public void onEvent(RideEvent event) {
+            Waiter waiter = waiting.remove(event.getVisitor().getVisitorId());
+            if (waiter == null) return;
+            waiter.boardedAt = System.nanoTime();
+            waiter.boarded = true;
+            LockSupport.unpark(waiter.thread);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Boarding time and queue wait of every ride in a RideHistory, in boarding order
+ * Two longs per ride stored in fixed-size primitive chunks, so there is no
+ * object per entry. Rides added without going through the queue (imports,
+ * addVisitorToHistory) are untimed and read as 0; while no timed ride has
+ * been logged they are only counted, so a history filled by imports costs nothing
+ * Sorting the history does not reorder the log
+ */
+public class BoardingLog {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // Leading untimed rides, which have no slots
+    private int untimedPrefix;
+    // Entries 2i and 2i + 1 of a chunk are boardedAt and wait of one ride
+    private long[][] chunks;
+    private int stored;
+
+    /**
+     * Creates an empty log
+     */
+    public BoardingLog() {
+        this.chunks = new long[16][];
+    }
+
+    /**
+     * Logs a ride taken from the waiting queue
+     * @param boardedAtNanos System.nanoTime() at boarding
+     * @param waitNanos Time from joining the queue to boarding, or 0 if unknown
+     */
+    public void addTimed(long boardedAtNanos, long waitNanos) {
+        int chunkIndex = stored >>> CHUNK_SHIFT;
+        if (chunkIndex == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        long[] chunk = chunks[chunkIndex];
+        if (chunk == null) {
+            chunk = new long[CHUNK_SIZE * 2];
+            chunks[chunkIndex] = chunk;
+        }
+        int slot = (stored & CHUNK_MASK) << 1;
+        chunk[slot] = boardedAtNanos;
+        chunk[slot + 1] = Math.max(0, waitNanos);
+        stored++;
+    }
+
+    /**
+     * Logs a ride with no boarding time
+     */
+    public void addUntimed() {
+        if (stored == 0) {
+            untimedPrefix++;
+        } else {
+            addTimed(0, 0);
+        }
+    }
+
+    /**
+     * Gets the number of rides logged
+     * @return Timed and untimed rides
+     */
+    public int size() {
+        return untimedPrefix + stored;
+    }
+
+    /**
+     * Gets when a ride boarded
+     * @param rideNumber Position in boarding order, from 0
+     * @return System.nanoTime() at boarding, or 0 if the ride is untimed
+     */
+    public long boardedAtNanos(int rideNumber) {
+        return read(rideNumber, 0);
+    }
+
+    /**
+     * Gets how long a ride's visitor waited in the queue
+     * @param rideNumber Position in boarding order, from 0
+     * @return Nanoseconds from joining the queue to boarding, or 0 if the ride is untimed
+     */
+    public long waitNanos(int rideNumber) {
+        return read(rideNumber, 1);
+    }
+
+    /**
+     * Forgets every ride
+     */
+    public void clear() {
+        chunks = new long[16][];
+        stored = 0;
+        untimedPrefix = 0;
+    }
+
+    private long read(int rideNumber, int field) {
+        Objects.checkIndex(rideNumber, size());
+        int index = rideNumber - untimedPrefix;
+        if (index < 0) return 0;
+        return chunks[index >>> CHUNK_SHIFT][((index & CHUNK_MASK) << 1) + field];
+    }
+}
@@ -0,0 +1,139 @@
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Append-only list of visitors stored in fixed-size array chunks
+ * Growing never copies existing elements, unlike ArrayList, and there is no
+ * node object per visitor, unlike LinkedList
+ * Elements can be replaced (so the list can be sorted) but not removed individually
+ */
+public class ChunkedVisitorList extends AbstractList<Visitor> implements RandomAccess {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private Visitor[][] chunks;
+    private int size;
+
+    /**
+     * Creates an empty list
+     */
+    public ChunkedVisitorList() {
+        this.chunks = new Visitor[16][];
+        this.size = 0;
+    }
+
+    @Override
+    public boolean add(Visitor visitor) {
+        int chunkIndex = size >>> CHUNK_SHIFT;
+        if (chunkIndex == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        Visitor[] chunk = chunks[chunkIndex];
+        if (chunk == null) {
+            chunk = new Visitor[CHUNK_SIZE];
+            chunks[chunkIndex] = chunk;
+        }
+        chunk[size & CHUNK_MASK] = visitor;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public Visitor get(int index) {
+        Objects.checkIndex(index, size);
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    @Override
+    public Visitor set(int index, Visitor visitor) {
+        Objects.checkIndex(index, size);
+        Visitor[] chunk = chunks[index >>> CHUNK_SHIFT];
+        Visitor previous = chunk[index & CHUNK_MASK];
+        chunk[index & CHUNK_MASK] = visitor;
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        chunks = new Visitor[16][];
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Sorts by copying into one array, sorting it and writing the chunks back
+     * Same stable result as List.sort, without going through a ListIterator;
+     * the built-in comparators take the packed-key path of RideHistorySorter
+     */
+    @Override
+    public void sort(Comparator<? super Visitor> comparator) {
+        Visitor[] sorted = toArray(new Visitor[0]);
+        RideHistorySorter.sort(sorted, comparator);
+        for (int i = 0; i < size; i++) {
+            chunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK] = sorted[i];
+        }
+        modCount++;
+    }
+
+    @Override
+    public Object[] toArray() {
+        return toArray(new Object[0]);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        T[] result = array.length >= size ? array
+                : (T[]) java.lang.reflect.Array.newInstance(array.getClass().getComponentType(), size);
+        int copied = 0;
+        for (int c = 0; copied < size; c++) {
+            int length = Math.min(CHUNK_SIZE, size - copied);
+            System.arraycopy(chunks[c], 0, result, copied, length);
+            copied += length;
+        }
+        if (result.length > size) result[size] = null;
+        return result;
+    }
+
+    @Override
+    public void forEach(Consumer<? super Visitor> action) {
+        int remaining = size;
+        for (int c = 0; remaining > 0; c++) {
+            Visitor[] chunk = chunks[c];
+            int length = Math.min(CHUNK_SIZE, remaining);
+            for (int i = 0; i < length; i++) {
+                action.accept(chunk[i]);
+            }
+            remaining -= length;
+        }
+    }
+
+    @Override
+    public Iterator<Visitor> iterator() {
+        return new Iterator<Visitor>() {
+            private int cursor = 0;
+            private final int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return cursor < size;
+            }
+
+            @Override
+            public Visitor next() {
+                if (modCount != expectedModCount) throw new ConcurrentModificationException();
+                if (cursor >= size) throw new NoSuchElementException();
+                Visitor visitor = chunks[cursor >>> CHUNK_SHIFT][cursor & CHUNK_MASK];
+                cursor++;
+                return visitor;
+            }
+        };
+    }
+}
@@ -0,0 +1,398 @@
+import java.util.Comparator;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Ride that accepts visitors from several gates (threads) at the same time
+ * Queue admission is lock-free on a ConcurrentVisitorQueue; boarding, history
+ * and cycle counting run under one lock, so there is a single boarding consumer
+ * and every admitted visitor ends up in the history exactly once
+ */
+public class ConcurrentRide extends Ride {
+    // Serialises everything that polls the queue or touches history and cycle count
+    private final ReentrantLock boardingLock;
+
+    public ConcurrentRide() {
+        this("Unnamed Ride", "General", 10, false, null, 2);
+    }
+
+    public ConcurrentRide(String rideName, String rideType, int capacity, boolean isOperational,
+                          Employee operator, int maxRider) {
+        super(rideName, rideType, capacity, isOperational, operator, maxRider, RideStorage.CONCURRENT);
+        this.boardingLock = new ReentrantLock();
+    }
+
+    // Settings read by the boarding consumer are changed under the same lock
+
+    @Override
+    public void setOperational(boolean isOperational) {
+        boardingLock.lock();
+        try {
+            super.setOperational(isOperational);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void setOperator(Employee operator) {
+        boardingLock.lock();
+        try {
+            super.setOperator(operator);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void setMaxRider(int maxRider) {
+        boardingLock.lock();
+        try {
+            super.setMaxRider(maxRider);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    // setEventSink and getEventSink need no lock: the sink field is volatile,
+    // since producers emit events from addVisitorToQueue without the lock
+
+    /**
+     * Not supported: lanes are not safe for admission from several gates at once
+     * @throws IllegalStateException Always
+     */
+    @Override
+    public void useFastPassLanes(int fastPassWeight, int standardWeight) {
+        throw new IllegalStateException("Fast-pass lanes are not available on a concurrent ride");
+    }
+
+    @Override
+    public RideMetrics.Snapshot getMetricsSnapshot() {
+        boardingLock.lock();
+        try {
+            return super.getMetricsSnapshot();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void setCycleDurationMillis(long cycleMillis) {
+        boardingLock.lock();
+        try {
+            super.setCycleDurationMillis(cycleMillis);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public long getCycleDurationNanos() {
+        boardingLock.lock();
+        try {
+            return super.getCycleDurationNanos();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public long getEstimatedWaitNanos() {
+        boardingLock.lock();
+        try {
+            return super.getEstimatedWaitNanos();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public long getEstimatedWaitNanos(String visitorId) {
+        boardingLock.lock();
+        try {
+            return super.getEstimatedWaitNanos(visitorId);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public long getCurrentWaitNanos(String visitorId) {
+        boardingLock.lock();
+        try {
+            return super.getCurrentWaitNanos(visitorId);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public int getNumOfCycles() {
+        boardingLock.lock();
+        try {
+            return super.getNumOfCycles();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    // addVisitorToQueue is inherited unchanged: offering to the queue is lock-free
+
+    @Override
+    public void removeVisitorFromQueue() {
+        boardingLock.lock();
+        try {
+            super.removeVisitorFromQueue();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean removeVisitorFromQueue(String visitorId) {
+        boardingLock.lock();
+        try {
+            return super.removeVisitorFromQueue(visitorId);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public int getQueuePosition(String visitorId) {
+        boardingLock.lock();
+        try {
+            return super.getQueuePosition(visitorId);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void printQueue() {
+        boardingLock.lock();
+        try {
+            super.printQueue();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void addVisitorToHistory(Visitor visitor) {
+        boardingLock.lock();
+        try {
+            super.addVisitorToHistory(visitor);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean checkVisitorFromHistory(Visitor visitor) {
+        boardingLock.lock();
+        try {
+            return super.checkVisitorFromHistory(visitor);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public int getVisitorRideCount(String visitorId) {
+        boardingLock.lock();
+        try {
+            return super.getVisitorRideCount(visitorId);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public int numberOfVisitors() {
+        boardingLock.lock();
+        try {
+            return super.numberOfVisitors();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void printRideHistory() {
+        boardingLock.lock();
+        try {
+            super.printRideHistory();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void sortRideHistory(Comparator<Visitor> comparator, boolean parallel) {
+        boardingLock.lock();
+        try {
+            super.sortRideHistory(comparator, parallel);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    /**
+     * Queries the history under the boarding lock, so results are consistent
+     * with cycles running on other threads
+     */
+    @Override
+    public VisitorQuery queryHistory() {
+        return new VisitorQuery(getRideHistory(), boardingLock);
+    }
+
+    @Override
+    public SortedHistoryView registerSortedView(Comparator<Visitor> comparator) {
+        boardingLock.lock();
+        try {
+            return super.registerSortedView(comparator);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean unregisterSortedView(SortedHistoryView view) {
+        boardingLock.lock();
+        try {
+            return super.unregisterSortedView(view);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void runOneCycle() {
+        boardingLock.lock();
+        try {
+            super.runOneCycle();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public CycleResult runCycles(int n) {
+        boardingLock.lock();
+        try {
+            return super.runCycles(n);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public CycleResult runUntilEmpty() {
+        boardingLock.lock();
+        try {
+            return super.runUntilEmpty();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void exportRideHistory(String filename, boolean gzip) {
+        boardingLock.lock();
+        try {
+            super.exportRideHistory(filename, gzip);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void exportRideHistoryIncremental(String filename) {
+        boardingLock.lock();
+        try {
+            super.exportRideHistoryIncremental(filename);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void setExportRotation(long maxFileBytes, long maxFileAgeMillis) {
+        boardingLock.lock();
+        try {
+            super.setExportRotation(maxFileBytes, maxFileAgeMillis);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public ExportSummary getLastExportSummary() {
+        boardingLock.lock();
+        try {
+            return super.getLastExportSummary();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void exportRideHistoryBinary(String filename) {
+        boardingLock.lock();
+        try {
+            super.exportRideHistoryBinary(filename);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void importRideHistory(String filename) {
+        boardingLock.lock();
+        try {
+            super.importRideHistory(filename);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void importRideHistoryParallel(String filename) {
+        boardingLock.lock();
+        try {
+            super.importRideHistoryParallel(filename);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public void importRideHistoryBinary(String filename) {
+        boardingLock.lock();
+        try {
+            super.importRideHistoryBinary(filename);
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public ImportSummary getLastImportSummary() {
+        boardingLock.lock();
+        try {
+            return super.getLastImportSummary();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        boardingLock.lock();
+        try {
+            return "Concurrent" + super.toString();
+        } finally {
+            boardingLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free waiting queue for rides fed by several gates at once
+ * Built on ConcurrentLinkedQueue, with a striped counter so size() does not
+ * have to walk the queue the way ConcurrentLinkedQueue.size() does
+ * Each node holds the visitor and the time they joined; polling is meant for
+ * one thread at a time, which ConcurrentRide ensures
+ */
+public class ConcurrentVisitorQueue extends AbstractQueue<Visitor> implements TimedQueue {
+    private final ConcurrentLinkedQueue<Entry> entries;
+    private final LongAdder count;
+    private long lastPolledQueuedAt;
+
+    /**
+     * Creates an empty queue
+     */
+    public ConcurrentVisitorQueue() {
+        this.entries = new ConcurrentLinkedQueue<>();
+        this.count = new LongAdder();
+    }
+
+    @Override
+    public boolean offer(Visitor visitor, long queuedAtNanos) {
+        if (visitor == null) throw new NullPointerException();
+        entries.offer(new Entry(visitor, queuedAtNanos));
+        count.increment();
+        return true;
+    }
+
+    @Override
+    public Visitor poll() {
+        Entry entry = entries.poll();
+        if (entry == null) return null;
+        count.decrement();
+        lastPolledQueuedAt = entry.queuedAtNanos;
+        return entry.visitor;
+    }
+
+    @Override
+    public Visitor peek() {
+        Entry entry = entries.peek();
+        return entry == null ? null : entry.visitor;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public long lastPolledQueuedAtNanos() {
+        return lastPolledQueuedAt;
+    }
+
+    @Override
+    public long waitingNanos(String visitorId, long nowNanos) {
+        for (Entry entry : entries) {
+            if (Objects.equals(entry.visitor.getVisitorId(), visitorId)) return nowNanos - entry.queuedAtNanos;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the approximate number of queued visitors
+     * Exact when no offer or poll is in progress
+     */
+    @Override
+    public int size() {
+        return (int) Math.max(0, count.sum());
+    }
+
+    /**
+     * Returns a weakly consistent iterator in queue order
+     */
+    @Override
+    public Iterator<Visitor> iterator() {
+        Iterator<Entry> iterator = entries.iterator();
+        return new Iterator<Visitor>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Visitor next() {
+                return iterator.next().visitor;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                count.decrement();
+            }
+        };
+    }
+}
@@ -0,0 +1,46 @@
+/**
+ * Compact summary of a batch of ride cycles
+ * Returned by runCycles and runUntilEmpty instead of printing each cycle
+ */
+public class CycleResult {
+    /**
+     * Why the batch stopped
+     */
+    public enum StopReason {
+        COMPLETED,
+        QUEUE_EMPTY,
+        NO_OPERATOR,
+        NOT_OPERATIONAL
+    }
+
+    private final int cyclesRun;
+    private final int visitorsBoarded;
+    private final int remainingInQueue;
+    private final int totalInHistory;
+    private final StopReason stopReason;
+
+    public CycleResult(int cyclesRun, int visitorsBoarded, int remainingInQueue,
+                       int totalInHistory, StopReason stopReason) {
+        this.cyclesRun = cyclesRun;
+        this.visitorsBoarded = visitorsBoarded;
+        this.remainingInQueue = remainingInQueue;
+        this.totalInHistory = totalInHistory;
+        this.stopReason = stopReason;
+    }
+
+    public int getCyclesRun() { return cyclesRun; }
+    public int getVisitorsBoarded() { return visitorsBoarded; }
+    public int getRemainingInQueue() { return remainingInQueue; }
+    public int getTotalInHistory() { return totalInHistory; }
+    public StopReason getStopReason() { return stopReason; }
+
+    @Override
+    public String toString() {
+        return "CycleResult [" +
+               "Cycles: " + cyclesRun +
+               ", Boarded: " + visitorsBoarded +
+               ", Remaining in queue: " + remainingInQueue +
+               ", Total in history: " + totalInHistory +
+               ", Stopped: " + stopReason + "]";
+    }
+}
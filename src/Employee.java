@@ -16,7 +16,7 @@ public class Employee extends Person {
         this.employeeId = "E0000";
         this.department = "Unassigned";
         this.position = "Staff";
-        System.out.println("Employee default constructor called");
+        if (isConstructorLogging()) System.out.println("Employee default constructor called");
     }
     
     /**
@@ -33,7 +33,7 @@ public class Employee extends Person {
         this.employeeId = employeeId;
         this.department = department;
         this.position = position;
-        System.out.println("Employee parameterized constructor called for: " + name);
+        if (isConstructorLogging()) System.out.println("Employee parameterized constructor called for: " + name);
     }
     
     // Getter and Setter methods for Employee-specific attributes
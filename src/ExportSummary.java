@@ -0,0 +1,54 @@
+/**
+ * Outcome of a ride history export
+ * Reports how many rows were written and how fast
+ */
+public class ExportSummary {
+    private final int rowCount;
+    private final long csvBytes;
+    private final long fileBytes;
+    private final long elapsedNanos;
+    private final boolean gzip;
+
+    /**
+     * @param rowCount Number of visitors written
+     * @param csvBytes Size of the exported data before any compression
+     * @param fileBytes Size of the file on disk
+     * @param elapsedNanos Time from opening to finishing the file
+     * @param gzip Whether the file is gzip compressed
+     */
+    public ExportSummary(int rowCount, long csvBytes, long fileBytes, long elapsedNanos, boolean gzip) {
+        this.rowCount = rowCount;
+        this.csvBytes = csvBytes;
+        this.fileBytes = fileBytes;
+        this.elapsedNanos = elapsedNanos;
+        this.gzip = gzip;
+    }
+
+    public int getRowCount() { return rowCount; }
+    public long getCsvBytes() { return csvBytes; }
+    public long getFileBytes() { return fileBytes; }
+    public long getElapsedNanos() { return elapsedNanos; }
+    public boolean isGzip() { return gzip; }
+
+    /**
+     * Gets the export rate in visitors per second
+     * @return Rows written per second
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos > 0 ? rowCount * 1e9 / elapsedNanos : 0;
+    }
+
+    /**
+     * Gets the export rate in megabytes of CSV text per second
+     * @return Uncompressed MB (10^6 bytes) written per second
+     */
+    public double getMegabytesPerSecond() {
+        return elapsedNanos > 0 ? csvBytes * 1e3 / elapsedNanos : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ExportSummary [Rows: %d, CSV bytes: %d, File bytes: %d%s, %.0f rows/s, %.2f MB/s]",
+                rowCount, csvBytes, fileBytes, gzip ? " (gzip)" : "", getRowsPerSecond(), getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a ride history import
+ * Collects per-line problems instead of printing them while the file is read
+ */
+public class ImportSummary {
+    // Only the first problems are kept in detail; the rest are just counted
+    public static final int MAX_RECORDED_ERRORS = 100;
+
+    /**
+     * Why a line was skipped
+     */
+    public enum Reason {
+        INSUFFICIENT_FIELDS,
+        INVALID_AGE,
+        PARSE_FAILED
+    }
+
+    /**
+     * One skipped line
+     */
+    public static class LineError {
+        private final int lineNumber;
+        private final Reason reason;
+        private final int fieldsFound;
+        private final String detail;
+
+        public LineError(int lineNumber, Reason reason, int fieldsFound, String detail) {
+            this.lineNumber = lineNumber;
+            this.reason = reason;
+            this.fieldsFound = fieldsFound;
+            this.detail = detail;
+        }
+
+        public int getLineNumber() { return lineNumber; }
+        public Reason getReason() { return reason; }
+        public int getFieldsFound() { return fieldsFound; }
+        public String getDetail() { return detail; }
+
+        @Override
+        public String toString() {
+            return "Line " + lineNumber + ": " + reason + (detail != null ? " (" + detail + ")" : "");
+        }
+    }
+
+    private int importedCount;
+    private int skippedCount;
+    private int linesProcessed;
+    private final List<LineError> errors;
+
+    public ImportSummary() {
+        this.errors = new ArrayList<>();
+    }
+
+    public int getImportedCount() { return importedCount; }
+    public int getSkippedCount() { return skippedCount; }
+    public int getLinesProcessed() { return linesProcessed; }
+
+    /**
+     * Gets the recorded problems in line order, at most MAX_RECORDED_ERRORS of them
+     * @return Read-only list of skipped lines
+     */
+    public List<LineError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    void recordImported() {
+        importedCount++;
+    }
+
+    void recordError(int lineNumber, Reason reason, int fieldsFound, String detail) {
+        skippedCount++;
+        if (errors.size() < MAX_RECORDED_ERRORS) {
+            errors.add(new LineError(lineNumber, reason, fieldsFound, detail));
+        }
+    }
+
+    void addLines(int lines) {
+        linesProcessed += lines;
+    }
+
+    /**
+     * Adds the counts and errors of a summary for a later part of the same file
+     * @param other The summary to merge into this one
+     * @param lineOffset Added to the line numbers recorded in other
+     */
+    void merge(ImportSummary other, int lineOffset) {
+        importedCount += other.importedCount;
+        skippedCount += other.skippedCount;
+        linesProcessed += other.linesProcessed;
+        for (LineError error : other.errors) {
+            if (errors.size() >= MAX_RECORDED_ERRORS) break;
+            errors.add(new LineError(error.lineNumber + lineOffset, error.reason, error.fieldsFound, error.detail));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImportSummary [" +
+               "Imported: " + importedCount +
+               ", Skipped: " + skippedCount +
+               ", Lines: " + linesProcessed + "]";
+    }
+}
@@ -0,0 +1,165 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * Append-mode CSV export of one ride's history to one file
+ * Remembers how many history rows are already in the file (the high-water
+ * mark), so each export appends only the visitors added since and costs
+ * O(new rows) rather than O(history). The history is written again in full
+ * when the rows already exported may no longer match: after it was sorted or
+ * cleared, or when the file was changed or removed by something else
+ *
+ * The file can be rotated by size and by age: the current file is renamed to
+ * file.1, file.2, ... in the order they were written, and a new file is started
+ * with the usual header and a "# First row" comment. Read in that order, the
+ * rotated files and the current one hold the whole history. A full rewrite
+ * deletes the rotated files, as the new file holds every row
+ * Rotated files are found by listing the directory, so files left by an
+ * earlier run or an earlier IncrementalExport are deleted or numbered after,
+ * never overwritten
+ */
+public class IncrementalExport {
+    private final File file;
+    private long maxFileBytes;
+    private long maxFileAgeMillis;
+    // History rows already written, and RideHistory.getRewriteCount() when they were
+    private int exportedRows;
+    private long historyRewrites;
+    // Size of the current file after the last export, and when it was started
+    private long fileBytes;
+    private long fileStartedMillis;
+
+    /**
+     * Creates an export with no rotation; the first export writes the whole history
+     * @param file The CSV file to keep up to date
+     */
+    public IncrementalExport(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        this.file = file;
+        this.historyRewrites = -1;
+    }
+
+    /**
+     * Sets when the current file is rotated before more rows are appended
+     * @param maxFileBytes Size at which to start a new file, or 0 for no limit
+     * @param maxFileAgeMillis Age at which to start a new file, or 0 for no limit
+     */
+    public void setRotation(long maxFileBytes, long maxFileAgeMillis) {
+        if (maxFileBytes < 0 || maxFileAgeMillis < 0) {
+            throw new IllegalArgumentException("Rotation limits must not be negative");
+        }
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileAgeMillis = maxFileAgeMillis;
+    }
+
+    public File getFile() { return file; }
+    public int getExportedRows() { return exportedRows; }
+    public int getRotatedFiles() { return rotatedNumbers().size(); }
+
+    /**
+     * Gets how many rows the next export would write
+     * @param history The history being exported
+     * @return New rows since the last export, or the whole history if it must be rewritten
+     */
+    public int rowsToExport(RideHistory history) {
+        return needsRewrite(history) ? history.size() : history.size() - exportedRows;
+    }
+
+    /**
+     * Appends the rows added since the last export, rotating or rewriting the file as needed
+     * @param rideName Name of the ride, for the file header
+     * @param history The history to export
+     * @return Rows and bytes written by this export only
+     * @throws IOException If writing fails; the next export then rewrites the file
+     */
+    public ExportSummary export(String rideName, RideHistory history) throws IOException {
+        if (needsRewrite(history)) {
+            deleteRotatedFiles();
+            return startFile(rideName, history, 0);
+        }
+        if (rotationDue() && history.size() > exportedRows) {
+            TreeSet<Integer> rotated = rotatedNumbers();
+            int next = rotated.isEmpty() ? 1 : rotated.last() + 1;
+            // Without REPLACE_EXISTING a file that appeared since the listing is kept and the move fails
+            Files.move(file.toPath(), rotatedFile(next).toPath());
+            return startFile(rideName, history, exportedRows);
+        }
+        ExportSummary summary;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try (RideHistoryCsvWriter writer = new RideHistoryCsvWriter(channel, false)) {
+            summary = writeRows(writer, history, exportedRows);
+        }
+        fileBytes += summary.getCsvBytes();
+        exportedRows = history.size();
+        return summary;
+    }
+
+    private boolean needsRewrite(RideHistory history) {
+        return historyRewrites != history.getRewriteCount() || history.size() < exportedRows
+               || !file.isFile() || file.length() != fileBytes;
+    }
+
+    private boolean rotationDue() {
+        return (maxFileBytes > 0 && fileBytes >= maxFileBytes)
+               || (maxFileAgeMillis > 0 && System.currentTimeMillis() - fileStartedMillis >= maxFileAgeMillis);
+    }
+
+    // Writes a new current file with a header and the history from firstRow on
+    private ExportSummary startFile(String rideName, RideHistory history, int firstRow) throws IOException {
+        // Until the file is complete, a failed export leaves the next one to rewrite
+        historyRewrites = -1;
+        ExportSummary summary;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING);
+        try (RideHistoryCsvWriter writer = new RideHistoryCsvWriter(channel, false)) {
+            writer.writeHeader(rideName);
+            if (firstRow > 0) writer.writeLine("# First row: " + (firstRow + 1));
+            summary = writeRows(writer, history, firstRow);
+        }
+        fileBytes = summary.getCsvBytes();
+        fileStartedMillis = System.currentTimeMillis();
+        exportedRows = history.size();
+        historyRewrites = history.getRewriteCount();
+        return summary;
+    }
+
+    private static ExportSummary writeRows(RideHistoryCsvWriter writer, RideHistory history, int firstRow)
+            throws IOException {
+        Iterator<Visitor> rows = history.iterator(firstRow);
+        while (rows.hasNext()) {
+            writer.writeVisitor(rows.next());
+        }
+        return writer.finish();
+    }
+
+    private void deleteRotatedFiles() throws IOException {
+        for (int number : rotatedNumbers()) {
+            Files.deleteIfExists(rotatedFile(number).toPath());
+        }
+    }
+
+    // Numbers of the file.N files now in the file's directory
+    private TreeSet<Integer> rotatedNumbers() {
+        TreeSet<Integer> numbers = new TreeSet<>();
+        String prefix = file.getName() + ".";
+        String[] names = file.getAbsoluteFile().getParentFile().list();
+        if (names == null) return numbers;
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.substring(prefix.length()).matches("[1-9][0-9]{0,8}")) {
+                numbers.add(Integer.parseInt(name.substring(prefix.length())));
+            }
+        }
+        return numbers;
+    }
+
+    private File rotatedFile(int number) {
+        return new File(file.getPath() + "." + number);
+    }
+}
@@ -0,0 +1,285 @@
+import java.util.*;
+
+/**
+ * FIFO waiting queue that can find, remove and re-position a visitor by visitorId
+ * Visitors sit in array slots in queue order, with a hash index from visitorId
+ * to slot; leaving the line leaves an empty slot (a tombstone) that is dropped
+ * when the array is compacted, so removal never shifts other visitors
+ * A Fenwick tree of live slots answers position-in-line without walking the queue
+ * Costs: lookup O(1), offer/poll/remove/move O(log n) amortized, position O(log n)
+ * visitorIds are unique in the queue; offering a visitor whose id is already
+ * waiting returns false
+ * Each slot's join time is kept in a parallel long array
+ */
+public class IndexedVisitorQueue extends AbstractQueue<Visitor> implements TimedQueue {
+    private static final int MIN_CAPACITY = 16;
+
+    private Visitor[] slots;
+    private long[] queuedAt;
+    // Live visitors are in slots[first, end); slots in between may be tombstones
+    private int first;
+    private int end;
+    private int size;
+    private final HashMap<String, Integer> slotById;
+    // Fenwick tree over slots; holds 1 for every live slot
+    private int[] liveTree;
+    private long lastPolledQueuedAt;
+
+    /**
+     * Creates an empty queue
+     */
+    public IndexedVisitorQueue() {
+        this.slotById = new HashMap<>();
+        rebuild(MIN_CAPACITY);
+    }
+
+    @Override
+    public boolean offer(Visitor visitor, long queuedAtNanos) {
+        if (visitor == null) throw new NullPointerException();
+        if (slotById.containsKey(visitor.getVisitorId())) return false;
+        if (end == slots.length) rebuild(capacityFor(size + 1));
+        place(end++, visitor, queuedAtNanos);
+        return true;
+    }
+
+    /**
+     * Puts a visitor at the head of the line, ahead of everyone waiting
+     * @param visitor The visitor to add
+     * @return false if a visitor with the same visitorId is already waiting
+     */
+    public boolean offerFirst(Visitor visitor) {
+        return offerFirst(visitor, System.nanoTime());
+    }
+
+    private boolean offerFirst(Visitor visitor, long queuedAtNanos) {
+        if (visitor == null) throw new NullPointerException();
+        if (slotById.containsKey(visitor.getVisitorId())) return false;
+        if (first == 0) rebuild(capacityFor(size + 1));
+        place(--first, visitor, queuedAtNanos);
+        return true;
+    }
+
+    @Override
+    public Visitor poll() {
+        skipTombstones();
+        if (first == end) return null;
+        Visitor visitor = slots[first];
+        lastPolledQueuedAt = queuedAt[first];
+        vacate(first);
+        first++;
+        return visitor;
+    }
+
+    @Override
+    public Visitor peek() {
+        skipTombstones();
+        return first == end ? null : slots[first];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        slots = null;
+        slotById.clear();
+        size = 0;
+        rebuild(MIN_CAPACITY);
+    }
+
+    @Override
+    public long lastPolledQueuedAtNanos() {
+        return lastPolledQueuedAt;
+    }
+
+    @Override
+    public long waitingNanos(String visitorId, long nowNanos) {
+        Integer slot = slotById.get(visitorId);
+        return slot == null ? -1 : nowNanos - queuedAt[slot];
+    }
+
+    /**
+     * Finds a waiting visitor
+     * @param visitorId The visitor ID to look up
+     * @return The waiting visitor, or null if the id is not in the queue
+     */
+    public Visitor get(String visitorId) {
+        Integer slot = slotById.get(visitorId);
+        return slot == null ? null : slots[slot];
+    }
+
+    /**
+     * Takes a visitor out of the line wherever they are
+     * @param visitorId The visitor ID to remove
+     * @return The removed visitor, or null if the id is not in the queue
+     */
+    public Visitor remove(String visitorId) {
+        Integer slot = slotById.get(visitorId);
+        if (slot == null) return null;
+        Visitor visitor = slots[slot];
+        vacate(slot);
+        // Drop tombstones once they outnumber the visitors still waiting
+        if (end - first > MIN_CAPACITY && end - first > 2 * size) {
+            rebuild(capacityFor(size));
+        }
+        return visitor;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof Visitor)) return false;
+        Visitor visitor = (Visitor) o;
+        Integer slot = slotById.get(visitor.getVisitorId());
+        if (slot == null || !slots[slot].equals(visitor)) return false;
+        return remove(visitor.getVisitorId()) != null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof Visitor)) return false;
+        Visitor visitor = (Visitor) o;
+        Integer slot = slotById.get(visitor.getVisitorId());
+        return slot != null && slots[slot].equals(visitor);
+    }
+
+    /**
+     * Moves a waiting visitor to the head of the line, keeping their join time
+     * @param visitorId The visitor ID to move
+     * @return true if the visitor was waiting
+     */
+    public boolean moveToFront(String visitorId) {
+        Integer slot = slotById.get(visitorId);
+        if (slot == null) return false;
+        long joined = queuedAt[slot];
+        return offerFirst(remove(visitorId), joined);
+    }
+
+    /**
+     * Moves a waiting visitor to the back of the line, keeping their join time
+     * @param visitorId The visitor ID to move
+     * @return true if the visitor was waiting
+     */
+    public boolean moveToBack(String visitorId) {
+        Integer slot = slotById.get(visitorId);
+        if (slot == null) return false;
+        long joined = queuedAt[slot];
+        return offer(remove(visitorId), joined);
+    }
+
+    /**
+     * Gets a visitor's place in line
+     * @param visitorId The visitor ID to look up
+     * @return 1 for the head of the line, or -1 if the id is not in the queue
+     */
+    public int positionOf(String visitorId) {
+        Integer slot = slotById.get(visitorId);
+        if (slot == null) return -1;
+        // Every slot before first is empty, so the prefix count is the position
+        int position = 0;
+        for (int i = slot + 1; i > 0; i -= i & -i) {
+            position += liveTree[i];
+        }
+        return position;
+    }
+
+    /**
+     * Returns visitors in queue order; remove is supported
+     */
+    @Override
+    public Iterator<Visitor> iterator() {
+        return new Iterator<Visitor>() {
+            private int next = nextLive(first);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < end;
+            }
+
+            @Override
+            public Visitor next() {
+                if (next >= end) throw new NoSuchElementException();
+                last = next;
+                next = nextLive(next + 1);
+                return slots[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0 || slots[last] == null) throw new IllegalStateException();
+                // Clear in place so the slots this iterator still has to visit do not move
+                vacate(last);
+                last = -1;
+            }
+        };
+    }
+
+    private int nextLive(int slot) {
+        while (slot < end && slots[slot] == null) slot++;
+        return slot;
+    }
+
+    private void skipTombstones() {
+        while (first < end && slots[first] == null) first++;
+    }
+
+    private void place(int slot, Visitor visitor, long queuedAtNanos) {
+        slots[slot] = visitor;
+        queuedAt[slot] = queuedAtNanos;
+        slotById.put(visitor.getVisitorId(), slot);
+        size++;
+        updateTree(slot, 1);
+    }
+
+    private void vacate(int slot) {
+        slotById.remove(slots[slot].getVisitorId());
+        slots[slot] = null;
+        size--;
+        updateTree(slot, -1);
+    }
+
+    private void updateTree(int slot, int delta) {
+        for (int i = slot + 1; i < liveTree.length; i += i & -i) {
+            liveTree[i] += delta;
+        }
+    }
+
+    private static int capacityFor(int size) {
+        return Math.max(MIN_CAPACITY, size * 2);
+    }
+
+    /**
+     * Copies the live visitors into a new array, leaving a quarter of the free
+     * slots in front for offerFirst, and rebuilds the index and the tree in O(n)
+     */
+    private void rebuild(int capacity) {
+        Visitor[] old = slots;
+        long[] oldQueuedAt = queuedAt;
+        int oldFirst = first;
+        int oldEnd = end;
+        slots = new Visitor[capacity];
+        queuedAt = new long[capacity];
+        liveTree = new int[capacity + 1];
+        first = (capacity - size) / 4;
+        end = first;
+        if (old != null) {
+            for (int i = oldFirst; i < oldEnd; i++) {
+                Visitor visitor = old[i];
+                if (visitor != null) {
+                    slots[end] = visitor;
+                    queuedAt[end] = oldQueuedAt[i];
+                    slotById.put(visitor.getVisitorId(), end);
+                    liveTree[end + 1] = 1;
+                    end++;
+                }
+            }
+        }
+        // Linear-time Fenwick construction: push each node's count to its parent
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) liveTree[parent] += liveTree[i];
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Waiting queue with a fast-pass lane and a standard lane
+ * VIP ticket holders and season-pass holders join the fast-pass lane; everyone
+ * else joins the standard lane, and each lane is FIFO on its own
+ * Seats of a cycle are shared out by weight with a smooth weighted round robin
+ * that restarts every cycle, so with weights 2:1 a 3-seat cycle takes
+ * fast, standard, fast; a seat whose lane is empty goes to the other lane
+ * Admission and boarding are O(1) and never scan the queue
+ */
+public class LaneQueue extends AbstractQueue<Visitor> implements TimedQueue {
+    private final TimedArrayQueue fastPass;
+    private final TimedArrayQueue standard;
+    private final int fastPassWeight;
+    private final int standardWeight;
+    private int seatsPerCycle;
+    // Round-robin state of the cycle being boarded
+    private final Schedule schedule = new Schedule();
+    private long lastPolledQueuedAt;
+
+    /**
+     * Creates an empty queue
+     * @param fastPassWeight Share of each cycle for the fast-pass lane
+     * @param standardWeight Share of each cycle for the standard lane
+     * @param seatsPerCycle Seats in one ride cycle, after which the shares restart
+     * @throws IllegalArgumentException If a weight is negative, both are 0 or seatsPerCycle is not positive
+     */
+    public LaneQueue(int fastPassWeight, int standardWeight, int seatsPerCycle) {
+        if (fastPassWeight < 0 || standardWeight < 0 || fastPassWeight + standardWeight == 0) {
+            throw new IllegalArgumentException("Lane weights must be non-negative and not both 0");
+        }
+        this.fastPass = new TimedArrayQueue();
+        this.standard = new TimedArrayQueue();
+        this.fastPassWeight = fastPassWeight;
+        this.standardWeight = standardWeight;
+        setSeatsPerCycle(seatsPerCycle);
+    }
+
+    /**
+     * Checks which lane a visitor joins
+     * @param visitor The visitor being admitted
+     * @return true for VIP ticket or season-pass holders
+     */
+    public static boolean isFastPass(Visitor visitor) {
+        return visitor.hasSeasonPass() || "VIP".equalsIgnoreCase(visitor.getTicketType());
+    }
+
+    /**
+     * Changes the number of seats per cycle and starts a new cycle
+     * @param seatsPerCycle Seats in one ride cycle
+     */
+    public void setSeatsPerCycle(int seatsPerCycle) {
+        if (seatsPerCycle <= 0) {
+            throw new IllegalArgumentException("seatsPerCycle must be positive");
+        }
+        this.seatsPerCycle = seatsPerCycle;
+        startCycle();
+    }
+
+    /**
+     * Restarts the lane shares, e.g. when a cycle boarded fewer than all seats
+     */
+    public void startCycle() {
+        schedule.reset();
+    }
+
+    public int getFastPassWeight() { return fastPassWeight; }
+    public int getStandardWeight() { return standardWeight; }
+    public int fastPassSize() { return fastPass.size(); }
+    public int standardSize() { return standard.size(); }
+
+    @Override
+    public boolean offer(Visitor visitor, long queuedAtNanos) {
+        if (visitor == null) throw new NullPointerException();
+        return (isFastPass(visitor) ? fastPass : standard).offer(visitor, queuedAtNanos);
+    }
+
+    @Override
+    public Visitor poll() {
+        if (isEmpty()) return null;
+        TimedArrayQueue lane = schedule.next(!fastPass.isEmpty(), !standard.isEmpty()) ? fastPass : standard;
+        Visitor visitor = lane.poll();
+        lastPolledQueuedAt = lane.lastPolledQueuedAtNanos();
+        return visitor;
+    }
+
+    @Override
+    public long lastPolledQueuedAtNanos() {
+        return lastPolledQueuedAt;
+    }
+
+    @Override
+    public long waitingNanos(String visitorId, long nowNanos) {
+        long waited = fastPass.waitingNanos(visitorId, nowNanos);
+        return waited >= 0 ? waited : standard.waitingNanos(visitorId, nowNanos);
+    }
+
+    @Override
+    public Visitor peek() {
+        if (isEmpty()) return null;
+        return schedule.copy().next(!fastPass.isEmpty(), !standard.isEmpty()) ? fastPass.peek() : standard.peek();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return fastPass.remove(o) || standard.remove(o);
+    }
+
+    @Override
+    public int size() {
+        return fastPass.size() + standard.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return fastPass.isEmpty() && standard.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        fastPass.clear();
+        standard.clear();
+        startCycle();
+    }
+
+    /**
+     * Returns visitors in the order they would board if no one else joined
+     * The iterator does not support remove
+     */
+    @Override
+    public Iterator<Visitor> iterator() {
+        return new Iterator<Visitor>() {
+            private final Iterator<Visitor> fastPassLeft = fastPass.iterator();
+            private final Iterator<Visitor> standardLeft = standard.iterator();
+            private final Schedule order = schedule.copy();
+            private int fastPassRemaining = fastPass.size();
+            private int standardRemaining = standard.size();
+
+            @Override
+            public boolean hasNext() {
+                return fastPassRemaining + standardRemaining > 0;
+            }
+
+            @Override
+            public Visitor next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                if (order.next(fastPassRemaining > 0, standardRemaining > 0)) {
+                    fastPassRemaining--;
+                    return fastPassLeft.next();
+                }
+                standardRemaining--;
+                return standardLeft.next();
+            }
+        };
+    }
+
+    /**
+     * Smooth weighted round robin over the seats of one cycle
+     */
+    private final class Schedule {
+        private int seat;
+        private int fastPassCredit;
+        private int standardCredit;
+
+        /**
+         * Picks the lane for the next seat and advances the schedule
+         * At least one lane must have a visitor waiting
+         * @return true for the fast-pass lane, false for the standard lane
+         */
+        boolean next(boolean fastPassWaiting, boolean standardWaiting) {
+            boolean fromFastPass;
+            if (!standardWaiting) {
+                fromFastPass = true;
+            } else if (!fastPassWaiting) {
+                fromFastPass = false;
+            } else {
+                int total = fastPassWeight + standardWeight;
+                fastPassCredit += fastPassWeight;
+                standardCredit += standardWeight;
+                fromFastPass = fastPassCredit >= standardCredit;
+                if (fromFastPass) {
+                    fastPassCredit -= total;
+                } else {
+                    standardCredit -= total;
+                }
+            }
+            if (++seat == seatsPerCycle) reset();
+            return fromFastPass;
+        }
+
+        void reset() {
+            seat = 0;
+            fastPassCredit = 0;
+            standardCredit = 0;
+        }
+
+        Schedule copy() {
+            Schedule copy = new Schedule();
+            copy.seat = seat;
+            copy.fastPassCredit = fastPassCredit;
+            copy.standardCredit = standardCredit;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Results of an AdmissionLoadGenerator run
+ */
+public class LoadReport {
+    private final int guests;
+    private final long admissions;
+    private final long elapsedNanos;
+    private final boolean virtualThreads;
+    private final LatencyHistogram waitNanos;
+
+    public LoadReport(int guests, long admissions, long elapsedNanos, boolean virtualThreads,
+                      LatencyHistogram waitNanos) {
+        this.guests = guests;
+        this.admissions = admissions;
+        this.elapsedNanos = elapsedNanos;
+        this.virtualThreads = virtualThreads;
+        this.waitNanos = waitNanos;
+    }
+
+    public int getGuests() { return guests; }
+    public long getAdmissions() { return admissions; }
+    public long getElapsedNanos() { return elapsedNanos; }
+    public boolean isVirtualThreads() { return virtualThreads; }
+
+    /**
+     * Gets the time guests spent in queues, from joining to boarding, in nanoseconds
+     * @return Histogram of queue waits
+     */
+    public LatencyHistogram getWaitNanos() { return waitNanos; }
+
+    /**
+     * Gets how many queue joins were made per second of wall-clock time
+     * @return Admissions per second, or 0 if no time was measured
+     */
+    public double getAdmissionsPerSecond() {
+        return elapsedNanos == 0 ? 0 : admissions * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LoadReport [Guests: %d, Admissions: %d, %.0f/s, Threads: %s, "
+                             + "Wait p50: %.2f ms, p90: %.2f ms, p99: %.2f ms, p99.9: %.2f ms, max: %.2f ms]",
+                             guests, admissions, getAdmissionsPerSecond(), virtualThreads ? "virtual" : "platform pool",
+                             waitNanos.percentile(50) / 1e6, waitNanos.percentile(90) / 1e6,
+                             waitNanos.percentile(99) / 1e6, waitNanos.percentile(99.9) / 1e6,
+                             waitNanos.max() / 1e6);
+    }
+}
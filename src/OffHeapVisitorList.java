@@ -0,0 +1,630 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Append-only list of visitors kept outside the Java heap
+ * Each entry is a fixed 24-byte record in direct memory:
+ *   name ref (8), visitorId ref (8), age (4), gender code (2),
+ *   ticket type code with the season pass in the top bit (2)
+ * Name and visitorId bytes live in a separate off-heap string region
+ * Every visitorId is stored once: an off-heap hash table maps it to its bytes
+ * and its ride count, which also serves the lookups RideHistory needs
+ * Names go through a small cache instead, so repeated names are usually
+ * stored once as well
+ * Gender and ticket type are stored as codes into small per-list tables
+ * The garbage collector only sees a few large buffers, whatever the size of
+ * the history; get() builds a new Visitor from the record each time, so
+ * changing a returned visitor does not change the stored entry
+ * Whole-list operations work on the records rather than on Visitor objects:
+ * sort() reads the encoded fields and copyOf() copies records in direct
+ * memory, so neither puts every entry back on the heap
+ * Not thread-safe; ConcurrentRide guards its history with a lock
+ */
+public class OffHeapVisitorList extends AbstractList<Visitor> implements RandomAccess {
+    private static final int RECORD_SIZE = 24;
+    private static final int NAME_OFFSET = 0;
+    private static final int ID_OFFSET = 8;
+    private static final int AGE_OFFSET = 16;
+    private static final int GENDER_OFFSET = 20;
+    private static final int TICKET_OFFSET = 22;
+    private static final int SEASON_PASS_BIT = 0x8000;
+    private static final int MAX_CODE = 0x7FFF;
+
+    private static final int RECORD_SHIFT = 16;
+    private static final int RECORDS_PER_SEGMENT = 1 << RECORD_SHIFT;
+    private static final int RECORD_MASK = RECORDS_PER_SEGMENT - 1;
+
+    private static final int STRING_SHIFT = 24;
+    private static final int STRING_SEGMENT_SIZE = 1 << STRING_SHIFT;
+    private static final long STRING_MASK = STRING_SEGMENT_SIZE - 1;
+    private static final long NULL_REF = -1;
+
+    private static final int CACHE_SIZE = 4096;
+
+    // visitorId table entries: string ref + 1 (0 = empty slot), hash, ride count
+    private static final int ID_ENTRY_SIZE = 16;
+    private static final int ID_SEGMENT_SHIFT = 20;
+    private static final int ID_SEGMENT_MASK = (1 << ID_SEGMENT_SHIFT) - 1;
+    private static final int INITIAL_ID_SLOTS = 1 << 12;
+
+    private final List<ByteBuffer> records;
+    private final List<ByteBuffer> strings;
+    private ByteBuffer currentStrings;
+    private int size;
+
+    private final CodeTable genders;
+    private final CodeTable ticketTypes;
+
+    // Direct-mapped cache from a recently stored String to its ref
+    private final String[] cachedStrings;
+    private final long[] cachedRefs;
+
+    // Open-addressed visitorId table, split into segments of 2^20 slots
+    private ByteBuffer[] idSlots;
+    private int idSlotMask;
+    private int usedIdSlots;
+    private int distinctIds;
+    private int nullIdRides;
+
+    /**
+     * Creates an empty list; memory is reserved as entries are added
+     */
+    public OffHeapVisitorList() {
+        this.records = new ArrayList<>();
+        this.strings = new ArrayList<>();
+        this.genders = new CodeTable();
+        this.ticketTypes = new CodeTable();
+        this.cachedStrings = new String[CACHE_SIZE];
+        this.cachedRefs = new long[CACHE_SIZE];
+        resetIds();
+    }
+
+    @Override
+    public boolean add(Visitor visitor) {
+        if (size >>> RECORD_SHIFT == records.size()) {
+            records.add(ByteBuffer.allocateDirect(RECORDS_PER_SEGMENT * RECORD_SIZE));
+        }
+        write(size, visitor, null);
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public Visitor get(int index) {
+        Objects.checkIndex(index, size);
+        return readVisitor(records, strings, genders, ticketTypes, index);
+    }
+
+    private static Visitor readVisitor(List<ByteBuffer> records, List<ByteBuffer> strings,
+                                       CodeTable genders, CodeTable ticketTypes, int index) {
+        ByteBuffer segment = records.get(index >>> RECORD_SHIFT);
+        int base = (index & RECORD_MASK) * RECORD_SIZE;
+        int ticket = segment.getShort(base + TICKET_OFFSET) & 0xFFFF;
+        return new Visitor(readString(strings, segment.getLong(base + NAME_OFFSET)),
+                           segment.getInt(base + AGE_OFFSET),
+                           genders.valueOf(segment.getShort(base + GENDER_OFFSET)),
+                           readString(strings, segment.getLong(base + ID_OFFSET)),
+                           ticketTypes.valueOf(ticket & MAX_CODE),
+                           (ticket & SEASON_PASS_BIT) != 0,
+                           false);
+    }
+
+    /**
+     * Replaces an entry; the strings of the old entry stay in the string region
+     */
+    @Override
+    public Visitor set(int index, Visitor visitor) {
+        Visitor previous = get(index);
+        write(index, visitor, previous);
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Drops every entry; the buffers are released by the garbage collector
+     */
+    @Override
+    public void clear() {
+        records.clear();
+        strings.clear();
+        currentStrings = null;
+        genders.clear();
+        ticketTypes.clear();
+        Arrays.fill(cachedStrings, null);
+        resetIds();
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Stable sort like List.sort, for the built-in visitor comparators only
+     * The order is computed from the records, so no Visitor is built; then the
+     * fixed-size records are permuted in place, and the stored strings never move
+     * @throws UnsupportedOperationException For any other comparator, which
+     *         can only compare Visitor objects built for every entry
+     */
+    @Override
+    public void sort(Comparator<? super Visitor> comparator) {
+        sort(comparator, false);
+    }
+
+    /**
+     * Stable sort, optionally computing the order on the common fork-join pool
+     * Ages, season pass bits and ticket type codes are read from the records;
+     * names are compared as stored bytes, and only names with non-ASCII
+     * characters are decoded to compare them
+     * @param comparator VisitorComparator, or its nested ByTicketTypeAndAge or BySeasonPassAndName
+     * @param parallel true to sort in parallel
+     * @throws UnsupportedOperationException For any other comparator
+     */
+    public void sort(Comparator<? super Visitor> comparator, boolean parallel) {
+        if (!RideHistorySorter.isSpecialized(comparator)) {
+            throw new UnsupportedOperationException("Off-heap history can only be sorted by VisitorComparator"
+                    + " or its nested comparators");
+        }
+        if (size < 2) return;
+        int[] order;
+        if (comparator.getClass() == VisitorComparator.ByTicketTypeAndAge.class) {
+            order = ticketTypeOrder(parallel);
+        } else {
+            boolean byPass = comparator.getClass() == VisitorComparator.BySeasonPassAndName.class;
+            order = RideHistorySorter.sortOrder(size, (left, right) -> compareByName(left, right, byPass), parallel);
+        }
+        permute(order);
+    }
+
+    /**
+     * Copies the entries from a position to the end into a read-only list,
+     * which another thread may read while this list keeps changing
+     * Records are copied in direct memory and the stored strings are shared,
+     * since they never change; Visitors are only built as the copy is read
+     * @param from Position of the first entry to copy
+     * @return The copied entries, in order
+     */
+    List<Visitor> copyOf(int from) {
+        return new Copy(this, from);
+    }
+
+    /**
+     * Gets how many entries have a visitorId
+     * @param visitorId The visitor ID to look up, may be null
+     * @return Number of entries stored with that visitorId
+     */
+    public int countRides(String visitorId) {
+        if (visitorId == null) return nullIdRides;
+        int slot = findId(visitorId, visitorId.getBytes(StandardCharsets.UTF_8), spread(visitorId.hashCode()));
+        return (slot < 0) ? 0 : idEntry(slot).getInt(idOffset(slot) + 12);
+    }
+
+    /**
+     * Gets the number of distinct visitorIds, counting null as one value
+     * @return Count of distinct visitorIds
+     */
+    public int distinctVisitorIds() {
+        return distinctIds + (nullIdRides > 0 ? 1 : 0);
+    }
+
+    /**
+     * Gets the direct memory reserved by this list
+     * @return Bytes of record, string and visitorId table buffers
+     */
+    public long offHeapBytes() {
+        long bytes = (long) records.size() * RECORDS_PER_SEGMENT * RECORD_SIZE;
+        for (ByteBuffer segment : strings) {
+            bytes += segment.capacity();
+        }
+        for (ByteBuffer segment : idSlots) {
+            bytes += segment.capacity();
+        }
+        return bytes;
+    }
+
+    /**
+     * Reorders the records so that entry i becomes the entry at order[i]
+     * @param order A permutation of 0..size-1; it is used up by the call
+     */
+    void permute(int[] order) {
+        byte[] saved = new byte[RECORD_SIZE];
+        byte[] moving = new byte[RECORD_SIZE];
+        for (int start = 0; start < size; start++) {
+            if (order[start] < 0 || order[start] == start) continue;
+            readRecord(start, saved);
+            int target = start;
+            while (true) {
+                int source = order[target];
+                order[target] = -1;
+                if (source == start) {
+                    writeRecord(target, saved);
+                    break;
+                }
+                readRecord(source, moving);
+                writeRecord(target, moving);
+                target = source;
+            }
+        }
+        modCount++;
+    }
+
+    private void readRecord(int index, byte[] record) {
+        records.get(index >>> RECORD_SHIFT).get((index & RECORD_MASK) * RECORD_SIZE, record);
+    }
+
+    private void writeRecord(int index, byte[] record) {
+        records.get(index >>> RECORD_SHIFT).put((index & RECORD_MASK) * RECORD_SIZE, record);
+    }
+
+    /**
+     * Writes an entry; a full code table throws before any ride count or
+     * record changes, so a rejected visitor leaves the list as it was
+     * @param replaced The entry being overwritten, or null when appending
+     */
+    private void write(int index, Visitor visitor, Visitor replaced) {
+        genders.checkRoomFor(visitor.getGender());
+        ticketTypes.checkRoomFor(visitor.getTicketType());
+        int gender = genders.codeOf(visitor.getGender());
+        int ticket = ticketTypes.codeOf(visitor.getTicketType());
+        if (visitor.hasSeasonPass()) ticket |= SEASON_PASS_BIT;
+        long name = storeString(visitor.getName());
+        if (replaced != null) removeRide(replaced.getVisitorId());
+        long id = addRide(visitor.getVisitorId());
+
+        ByteBuffer segment = records.get(index >>> RECORD_SHIFT);
+        int base = (index & RECORD_MASK) * RECORD_SIZE;
+        segment.putLong(base + NAME_OFFSET, name);
+        segment.putLong(base + ID_OFFSET, id);
+        segment.putInt(base + AGE_OFFSET, visitor.getAge());
+        segment.putShort(base + GENDER_OFFSET, (short) gender);
+        segment.putShort(base + TICKET_OFFSET, (short) ticket);
+    }
+
+    // ByTicketTypeAndAge: ticket type, then age from oldest to youngest
+    private int[] ticketTypeOrder(boolean parallel) {
+        int[] ranks = ticketTypes.caseInsensitiveRanks();
+        int minAge = Integer.MAX_VALUE;
+        int maxAge = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (ticketCode(i) == 0) throw new NullPointerException("Cannot sort by a null ticket type");
+            minAge = Math.min(minAge, age(i));
+            maxAge = Math.max(maxAge, age(i));
+        }
+        int ageBits = 64 - Long.numberOfLeadingZeros((long) maxAge - minAge);
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) ranks[ticketCode(i)] << ageBits) | ((long) maxAge - age(i));
+        }
+        int[] order = RideHistorySorter.sortOrder(keys, parallel);
+        if (order != null) return order;
+        return RideHistorySorter.sortOrder(size, (left, right) -> {
+            int byTicket = Integer.compare(ranks[ticketCode(left)], ranks[ticketCode(right)]);
+            return (byTicket != 0) ? byTicket : Integer.compare(age(right), age(left));
+        }, parallel);
+    }
+
+    // VisitorComparator (age, then name) or BySeasonPassAndName (pass holders first, then name)
+    private int compareByName(int left, int right, boolean byPass) {
+        int first = byPass
+                ? Boolean.compare(hasSeasonPass(right), hasSeasonPass(left))
+                : Integer.compare(age(left), age(right));
+        if (first != 0) return first;
+        return compareIgnoreCase(nameRef(left), nameRef(right));
+    }
+
+    /**
+     * Compares two stored strings like String.compareToIgnoreCase
+     * ASCII bytes are folded in place; a string with other characters is
+     * decoded, since case folding beyond ASCII needs the characters
+     */
+    private int compareIgnoreCase(long left, long right) {
+        if (left == right) return 0;
+        if (left == NULL_REF || right == NULL_REF) throw new NullPointerException("Cannot sort by a null name");
+        ByteBuffer leftSegment = strings.get((int) (left >>> STRING_SHIFT));
+        ByteBuffer rightSegment = strings.get((int) (right >>> STRING_SHIFT));
+        int leftOffset = (int) (left & STRING_MASK);
+        int rightOffset = (int) (right & STRING_MASK);
+        int leftLength = leftSegment.getInt(leftOffset);
+        int rightLength = rightSegment.getInt(rightOffset);
+        int common = Math.min(leftLength, rightLength);
+        for (int i = 0; i < common; i++) {
+            int a = leftSegment.get(leftOffset + 4 + i);
+            int b = rightSegment.get(rightOffset + 4 + i);
+            if ((a | b) < 0) {
+                return readString(strings, left).compareToIgnoreCase(readString(strings, right));
+            }
+            if (a != b) {
+                a = (a >= 'A' && a <= 'Z') ? a + ('a' - 'A') : a;
+                b = (b >= 'A' && b <= 'Z') ? b + ('a' - 'A') : b;
+                if (a != b) return a - b;
+            }
+        }
+        return leftLength - rightLength;
+    }
+
+    private int age(int index) {
+        return records.get(index >>> RECORD_SHIFT).getInt((index & RECORD_MASK) * RECORD_SIZE + AGE_OFFSET);
+    }
+
+    private long nameRef(int index) {
+        return records.get(index >>> RECORD_SHIFT).getLong((index & RECORD_MASK) * RECORD_SIZE + NAME_OFFSET);
+    }
+
+    private int ticketBits(int index) {
+        return records.get(index >>> RECORD_SHIFT).getShort((index & RECORD_MASK) * RECORD_SIZE + TICKET_OFFSET)
+               & 0xFFFF;
+    }
+
+    private int ticketCode(int index) {
+        return ticketBits(index) & MAX_CODE;
+    }
+
+    private boolean hasSeasonPass(int index) {
+        return (ticketBits(index) & SEASON_PASS_BIT) != 0;
+    }
+
+    /**
+     * Stores a string as a 4-byte length and UTF-8 bytes, or reuses the cached copy
+     * @return (segment << 24) | offset, or NULL_REF for null
+     */
+    private long storeString(String value) {
+        if (value == null) return NULL_REF;
+        int slot = spread(value.hashCode()) & (CACHE_SIZE - 1);
+        if (value.equals(cachedStrings[slot])) {
+            return cachedRefs[slot];
+        }
+        long ref = appendString(value.getBytes(StandardCharsets.UTF_8));
+        cachedStrings[slot] = value;
+        cachedRefs[slot] = ref;
+        return ref;
+    }
+
+    private long appendString(byte[] bytes) {
+        int needed = 4 + bytes.length;
+        if (currentStrings == null || currentStrings.remaining() < needed) {
+            // Strings never span segments; an oversized one gets a segment of its own
+            currentStrings = ByteBuffer.allocateDirect(Math.max(STRING_SEGMENT_SIZE, needed));
+            strings.add(currentStrings);
+        }
+        long ref = ((long) (strings.size() - 1) << STRING_SHIFT) | currentStrings.position();
+        currentStrings.putInt(bytes.length);
+        currentStrings.put(bytes);
+        if (currentStrings.capacity() > STRING_SEGMENT_SIZE) {
+            currentStrings = null;
+        }
+        return ref;
+    }
+
+    private static String readString(List<ByteBuffer> strings, long ref) {
+        if (ref == NULL_REF) return null;
+        ByteBuffer segment = strings.get((int) (ref >>> STRING_SHIFT));
+        int offset = (int) (ref & STRING_MASK);
+        byte[] bytes = new byte[segment.getInt(offset)];
+        segment.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Counts a ride for a visitorId, storing the id the first time it is seen
+     * @return Ref of the stored visitorId, or NULL_REF for null
+     */
+    private long addRide(String visitorId) {
+        if (visitorId == null) {
+            nullIdRides++;
+            return NULL_REF;
+        }
+        byte[] bytes = visitorId.getBytes(StandardCharsets.UTF_8);
+        int hash = spread(visitorId.hashCode());
+        int slot = findId(visitorId, bytes, hash);
+        if (slot < 0) {
+            if ((usedIdSlots + 1) * 2 > idSlotMask + 1) {
+                growIds();
+                slot = findId(visitorId, bytes, hash);
+            }
+            slot = ~slot;
+            idEntry(slot).putLong(idOffset(slot), appendString(bytes) + 1);
+            idEntry(slot).putInt(idOffset(slot) + 8, hash);
+            usedIdSlots++;
+        }
+        ByteBuffer entry = idEntry(slot);
+        int count = entry.getInt(idOffset(slot) + 12);
+        if (count == 0) distinctIds++;
+        entry.putInt(idOffset(slot) + 12, count + 1);
+        return entry.getLong(idOffset(slot)) - 1;
+    }
+
+    // Entries whose count drops to 0 stay in the table and are reused if the id comes back
+    private void removeRide(String visitorId) {
+        if (visitorId == null) {
+            nullIdRides--;
+            return;
+        }
+        int slot = findId(visitorId, visitorId.getBytes(StandardCharsets.UTF_8), spread(visitorId.hashCode()));
+        if (slot < 0) return;
+        ByteBuffer entry = idEntry(slot);
+        int count = entry.getInt(idOffset(slot) + 12);
+        if (count == 1) distinctIds--;
+        entry.putInt(idOffset(slot) + 12, count - 1);
+    }
+
+    /**
+     * Probes the visitorId table
+     * @return The slot holding the id, or ~slot of the empty slot where it would go
+     */
+    private int findId(String visitorId, byte[] bytes, int hash) {
+        for (int slot = hash & idSlotMask; ; slot = (slot + 1) & idSlotMask) {
+            ByteBuffer entry = idEntry(slot);
+            long stored = entry.getLong(idOffset(slot));
+            if (stored == 0) return ~slot;
+            if (entry.getInt(idOffset(slot) + 8) == hash && stringEquals(stored - 1, bytes)) {
+                return slot;
+            }
+        }
+    }
+
+    private void growIds() {
+        ByteBuffer[] old = idSlots;
+        int oldSlots = idSlotMask + 1;
+        allocateIds(oldSlots * 2);
+        for (int slot = 0; slot < oldSlots; slot++) {
+            ByteBuffer entry = old[slot >>> ID_SEGMENT_SHIFT];
+            int offset = (slot & ID_SEGMENT_MASK) * ID_ENTRY_SIZE;
+            long stored = entry.getLong(offset);
+            if (stored == 0) continue;
+            int hash = entry.getInt(offset + 8);
+            int target = hash & idSlotMask;
+            while (idEntry(target).getLong(idOffset(target)) != 0) {
+                target = (target + 1) & idSlotMask;
+            }
+            idEntry(target).putLong(idOffset(target), stored);
+            idEntry(target).putInt(idOffset(target) + 8, hash);
+            idEntry(target).putInt(idOffset(target) + 12, entry.getInt(offset + 12));
+        }
+    }
+
+    private void resetIds() {
+        allocateIds(INITIAL_ID_SLOTS);
+        usedIdSlots = 0;
+        distinctIds = 0;
+        nullIdRides = 0;
+    }
+
+    // Direct buffers start zeroed, so every slot starts empty
+    private void allocateIds(int slots) {
+        int segmentSlots = Math.min(slots, 1 << ID_SEGMENT_SHIFT);
+        ByteBuffer[] segments = new ByteBuffer[slots / segmentSlots];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentSlots * ID_ENTRY_SIZE);
+        }
+        idSlots = segments;
+        idSlotMask = slots - 1;
+    }
+
+    private ByteBuffer idEntry(int slot) {
+        return idSlots[slot >>> ID_SEGMENT_SHIFT];
+    }
+
+    private static int idOffset(int slot) {
+        return (slot & ID_SEGMENT_MASK) * ID_ENTRY_SIZE;
+    }
+
+    private boolean stringEquals(long ref, byte[] bytes) {
+        ByteBuffer segment = strings.get((int) (ref >>> STRING_SHIFT));
+        int offset = (int) (ref & STRING_MASK);
+        if (segment.getInt(offset) != bytes.length) return false;
+        offset += 4;
+        for (int i = 0; i < bytes.length; i++) {
+            if (segment.get(offset + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Read-only copy of a range of entries; see copyOf
+     */
+    private static final class Copy extends AbstractList<Visitor> implements RandomAccess {
+        private final List<ByteBuffer> records;
+        private final List<ByteBuffer> strings;
+        private final CodeTable genders;
+        private final CodeTable ticketTypes;
+        private final int size;
+
+        Copy(OffHeapVisitorList source, int from) {
+            this.size = source.size - from;
+            this.records = new ArrayList<>();
+            this.strings = new ArrayList<>(source.strings);
+            this.genders = source.genders.copy();
+            this.ticketTypes = source.ticketTypes.copy();
+            // Every segment but the last is full, so entries keep the same segment layout
+            for (int copied = 0; copied < size; ) {
+                int segmentRows = Math.min(size - copied, RECORDS_PER_SEGMENT);
+                ByteBuffer target = ByteBuffer.allocateDirect(segmentRows * RECORD_SIZE);
+                for (int row = 0; row < segmentRows; ) {
+                    int index = from + copied + row;
+                    int offset = index & RECORD_MASK;
+                    int rows = Math.min(segmentRows - row, RECORDS_PER_SEGMENT - offset);
+                    target.put(row * RECORD_SIZE, source.records.get(index >>> RECORD_SHIFT),
+                               offset * RECORD_SIZE, rows * RECORD_SIZE);
+                    row += rows;
+                }
+                records.add(target);
+                copied += segmentRows;
+            }
+        }
+
+        @Override
+        public Visitor get(int index) {
+            Objects.checkIndex(index, size);
+            return readVisitor(records, strings, genders, ticketTypes, index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Small string table handing out codes 1..MAX_CODE; 0 stands for null
+     */
+    private static final class CodeTable {
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        /**
+         * @throws IllegalStateException If the value is new and the table is full
+         */
+        void checkRoomFor(String value) {
+            if (value != null && values.size() >= MAX_CODE && !codes.containsKey(value)) {
+                throw new IllegalStateException("Off-heap history supports at most " + MAX_CODE
+                        + " distinct values per field");
+            }
+        }
+
+        int codeOf(String value) {
+            if (value == null) return 0;
+            Integer code = codes.get(value);
+            if (code != null) return code;
+            checkRoomFor(value);
+            values.add(value);
+            codes.put(value, values.size());
+            return values.size();
+        }
+
+        String valueOf(int code) {
+            return (code == 0) ? null : values.get(code - 1);
+        }
+
+        // Rank per code, such that comparing ranks is the same as compareToIgnoreCase
+        int[] caseInsensitiveRanks() {
+            String[] sorted = values.toArray(new String[0]);
+            Arrays.sort(sorted, String.CASE_INSENSITIVE_ORDER);
+            int[] ranks = new int[values.size() + 1];
+            int rank = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i > 0 && sorted[i - 1].compareToIgnoreCase(sorted[i]) != 0) rank++;
+                ranks[codes.get(sorted[i])] = rank;
+            }
+            return ranks;
+        }
+
+        CodeTable copy() {
+            CodeTable copy = new CodeTable();
+            copy.codes.putAll(codes);
+            copy.values.addAll(values);
+            return copy;
+        }
+
+        void clear() {
+            codes.clear();
+            values.clear();
+        }
+    }
+}
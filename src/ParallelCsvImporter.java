@@ -0,0 +1,192 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Parallel import of large ride history CSV files
+ * The file is memory-mapped segment by segment, each segment ending on a line
+ * boundary, and segments are parsed on a fork-join pool with RideHistoryCsvParser
+ * Results are handed to the sink in file order, and line numbers (for IMP ids
+ * and skipped-line reports) are the same as for a sequential import
+ * At most parallelism + 1 segments are parsed or waiting to be merged at a
+ * time, so memory use does not grow with the size of the file
+ */
+public class ParallelCsvImporter {
+    private static final long MIN_SEGMENT_SIZE = 1L << 20;
+    private static final long MAX_SEGMENT_SIZE = 64L << 20;
+    private static final int BOUNDARY_PROBE_SIZE = 64 * 1024;
+
+    private final int parallelism;
+
+    /**
+     * Creates an importer using one worker per available processor
+     */
+    public ParallelCsvImporter() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an importer with a fixed number of workers
+     * @param parallelism Number of segments parsed at the same time
+     */
+    public ParallelCsvImporter(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Imports a whole file
+     * @param filename The CSV file to read
+     * @param sink Receives each parsed visitor in file order, on the calling thread
+     * @return Summary of the import
+     * @throws IOException If the file cannot be opened, mapped or read
+     */
+    public ImportSummary importFile(String filename, Consumer<Visitor> sink) throws IOException {
+        try (FileInputStream input = new FileInputStream(filename);
+             FileChannel channel = input.getChannel()) {
+            return importChannel(channel, sink);
+        }
+    }
+
+    /**
+     * Imports everything in an open file channel
+     * @param channel The file to read; its position is not used or changed
+     * @param sink Receives each parsed visitor in file order, on the calling thread
+     * @return Summary of the import
+     * @throws IOException If the file cannot be mapped or read
+     */
+    public ImportSummary importChannel(FileChannel channel, Consumer<Visitor> sink) throws IOException {
+        List<long[]> segments = splitIntoSegments(channel);
+        ImportSummary summary = new ImportSummary();
+        if (segments.isEmpty()) return summary;
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            // Parsed segments are held until merged, so only a few are in flight at a time:
+            // one per worker, plus the one being merged
+            Deque<Future<SegmentResult>> inFlight = new ArrayDeque<>();
+            int submitted = 0;
+            while (submitted < segments.size() && inFlight.size() <= parallelism) {
+                inFlight.add(pool.submit(segmentTask(channel, segments.get(submitted++))));
+            }
+
+            // Merge in file order; each segment's line numbers start after the previous ones
+            int linesBefore = 0;
+            while (!inFlight.isEmpty()) {
+                SegmentResult result = inFlight.poll().get();
+                if (submitted < segments.size()) {
+                    inFlight.add(pool.submit(segmentTask(channel, segments.get(submitted++))));
+                }
+                for (int i = 0; i < result.generatedIds.size(); i++) {
+                    int lineNumber = linesBefore + result.generatedIdLines.get(i);
+                    result.generatedIds.get(i).setVisitorId("IMP" + lineNumber);
+                }
+                result.visitors.forEach(sink);
+                summary.merge(result.summary, linesBefore);
+                linesBefore += result.summary.getLinesProcessed();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return summary;
+    }
+
+    private static Callable<SegmentResult> segmentTask(FileChannel channel, long[] segment) {
+        return () -> parseSegment(channel, segment[0], segment[1]);
+    }
+
+    /**
+     * Cuts the file into segments of roughly equal size that each end just after a line
+     * @return Start and end offsets of each segment
+     * @throws IOException If a line is too long to map as one segment
+     */
+    private List<long[]> splitIntoSegments(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long target = Math.max(MIN_SEGMENT_SIZE, Math.min(MAX_SEGMENT_SIZE, size / (parallelism * 4L) + 1));
+        List<long[]> segments = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = (size - start <= target) ? size : nextLineStart(channel, start + target, size);
+            // Only a single line longer than 2 GB makes a segment this large
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Line starting near offset " + start + " is too long to import");
+            }
+            segments.add(new long[] {start, end});
+            start = end;
+        }
+        return segments;
+    }
+
+    /**
+     * Finds the offset just after the first line end at or after position
+     * Lines end at \n, \r or \r\n, as in RideHistoryCsvParser; a \r\n is never split
+     * @return That offset, or size if the rest of the file has no line end
+     */
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(BOUNDARY_PROBE_SIZE);
+        boolean afterCarriageReturn = false;
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) break;
+            // A \r at the end of the last probe ends the line here, or after this \n
+            if (afterCarriageReturn) return probe.get(0) == '\n' ? position + 1 : position;
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                if (b == '\n') return position + i + 1;
+                if (b == '\r') {
+                    if (i + 1 < read) return probe.get(i + 1) == '\n' ? position + i + 2 : position + i + 1;
+                    afterCarriageReturn = true;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    /**
+     * Maps and parses one segment without copying it whole, with line numbers
+     * relative to its start
+     */
+    private static SegmentResult parseSegment(FileChannel channel, long start, long end) throws IOException {
+        int length = (int) (end - start);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+
+        SegmentResult result = new SegmentResult();
+        RideHistoryCsvParser parser = new RideHistoryCsvParser(result.summary);
+        parser.setGeneratedIdListener((visitor, lineNumber) -> {
+            result.generatedIds.add(visitor);
+            result.generatedIdLines.add(lineNumber);
+        });
+        parser.parseLines(mapped, 0, length, 1, result.visitors::add);
+        return result;
+    }
+
+    /**
+     * Visitors and counts parsed from one segment
+     */
+    private static class SegmentResult {
+        final ImportSummary summary = new ImportSummary();
+        final List<Visitor> visitors = new ArrayList<>();
+        final List<Visitor> generatedIds = new ArrayList<>();
+        final List<Integer> generatedIdLines = new ArrayList<>();
+    }
+}
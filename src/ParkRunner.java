@@ -0,0 +1,453 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs many rides in parallel, with riders walking from ride to ride
+ * Rides are dealt round robin to worker threads, and every worker owns its
+ * rides outright, so Ride itself needs no locking. Time advances in ticks:
+ * 1. Each worker admits new guests to its rides and runs every cycle that is due;
+ *    riders who stay in the park are sent to their next ride through a bounded
+ *    single-producer single-consumer VisitorChannel to the worker that owns it
+ * 2. Once every worker has finished step 1, each worker drains its channels and
+ *    queues the walkers at its rides, ordered by the ride they came from and
+ *    then by the order they left it
+ * A worker waiting on a full channel or on slower workers keeps draining its
+ * own channels, so the bounded channels cannot deadlock
+ * Every ride draws from its own random stream split from the seed, and walker
+ * order does not depend on which thread sent them, so a given seed gives the
+ * same queues and histories with any number of threads
+ * Rides report through their own event sink, so large runs should give them
+ * a quiet one such as RideEventSink.NO_OP
+ */
+public class ParkRunner {
+    private static final int CHANNEL_CAPACITY = 4096;
+
+    private final long seed;
+    private final List<RideSlot> rides;
+    private double totalPopularity;
+    private double arrivalsPerTick;
+    private double stayProbability;
+    private long tickMillis;
+    private int guestCount;
+
+    /**
+     * Creates an empty park with 100 arrivals and 1 second per tick, where
+     * 80% of riders go on to another ride
+     * @param seed Seed for every random choice of the run
+     */
+    public ParkRunner(long seed) {
+        this.seed = seed;
+        this.rides = new ArrayList<>();
+        this.arrivalsPerTick = 100;
+        this.stayProbability = 0.8;
+        this.tickMillis = 1000;
+        this.guestCount = 100_000;
+    }
+
+    /**
+     * Adds a ride to the park
+     * @param ride The ride; its operator, seats and operational state are used as they are
+     * @param cycleTicks Number of ticks one cycle takes
+     * @param popularity Relative share of arrivals and walkers that choose this ride
+     */
+    public void addRide(Ride ride, int cycleTicks, double popularity) {
+        if (ride == null || cycleTicks <= 0 || popularity < 0) {
+            throw new IllegalArgumentException("A ride needs a positive cycle time and non-negative popularity");
+        }
+        rides.add(new RideSlot(ride, cycleTicks, popularity));
+        totalPopularity += popularity;
+    }
+
+    /**
+     * Sets how guests enter and move around the park
+     * @param tickMillis Simulated time of one tick, used for the report
+     * @param arrivalsPerTick Expected number of new guests entering per tick
+     * @param stayProbability Chance that a rider walks on to another ride
+     */
+    public void setFlow(long tickMillis, double arrivalsPerTick, double stayProbability) {
+        if (tickMillis <= 0 || arrivalsPerTick < 0 || stayProbability < 0 || stayProbability > 1) {
+            throw new IllegalArgumentException("Invalid park flow settings");
+        }
+        this.tickMillis = tickMillis;
+        this.arrivalsPerTick = arrivalsPerTick;
+        this.stayProbability = stayProbability;
+    }
+
+    /**
+     * Sets how many different guests new arrivals are drawn from
+     * @param guestCount Size of the generated guest population
+     */
+    public void setGuestCount(int guestCount) {
+        if (guestCount <= 0) {
+            throw new IllegalArgumentException("guestCount must be positive");
+        }
+        this.guestCount = guestCount;
+    }
+
+    /**
+     * Runs the park for a number of ticks
+     * @param ticks Number of ticks to run
+     * @param threads Number of worker threads, at most one per ride
+     * @return Park and per-ride results; events counts arrivals, walkers and cycles
+     */
+    public SimulationReport run(int ticks, int threads) {
+        if (rides.isEmpty() || totalPopularity <= 0) {
+            throw new IllegalStateException("Add at least one ride with a positive popularity before running");
+        }
+        if (ticks < 0 || threads <= 0) {
+            throw new IllegalArgumentException("ticks must be non-negative and threads positive");
+        }
+        int workerCount = Math.min(threads, rides.size());
+
+        // Split streams in ride order, so each ride's stream does not depend on the thread count
+        SplittableRandom root = new SplittableRandom(seed);
+        Visitor[] guests = createGuests(root);
+        double[] cumulativePopularity = new double[rides.size()];
+        double running = 0;
+        for (int i = 0; i < rides.size(); i++) {
+            RideSlot slot = rides.get(i);
+            slot.random = root.split();
+            slot.arrivalsPerTick = arrivalsPerTick * slot.popularity / totalPopularity;
+            running += slot.popularity;
+            cumulativePopularity[i] = running;
+        }
+
+        VisitorChannel[][] channels = new VisitorChannel[workerCount][workerCount];
+        for (VisitorChannel[] row : channels) {
+            for (int i = 0; i < workerCount; i++) {
+                row[i] = new VisitorChannel(CHANNEL_CAPACITY);
+            }
+        }
+        Worker[] workers = new Worker[workerCount];
+        for (int w = 0; w < workerCount; w++) {
+            workers[w] = new Worker(w, workerCount, channels, guests, cumulativePopularity);
+        }
+        Run run = new Run(ticks, workerCount);
+
+        long start = System.nanoTime();
+        Thread[] threadsStarted = new Thread[workerCount];
+        for (int w = 0; w < workerCount; w++) {
+            Worker worker = workers[w];
+            threadsStarted[w] = new Thread(() -> worker.runTicks(run), "park-runner-" + w);
+            threadsStarted[w].start();
+        }
+        try {
+            for (Thread thread : threadsStarted) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.fail(e);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (run.failure.get() != null) {
+            throw new IllegalStateException("Park run failed", run.failure.get());
+        }
+
+        long events = 0;
+        long arrivals = 0;
+        long rejected = 0;
+        long boarded = 0;
+        long remaining = 0;
+        List<SimulationReport.RideStats> stats = new ArrayList<>(rides.size());
+        for (RideSlot slot : rides) {
+            int queued = slot.ride.getWaitingQueue().size();
+            events += slot.arrivals + slot.walkersIn + slot.cycles;
+            arrivals += slot.arrivals;
+            rejected += slot.rejected;
+            boarded += slot.boarded;
+            remaining += queued;
+            stats.add(new SimulationReport.RideStats(slot.ride.getRideName(), slot.arrivals + slot.walkersIn,
+                    slot.boarded, slot.cycles, slot.maxQueueLength, queued, 0, 0));
+            slot.resetCounts();
+        }
+        return new SimulationReport(ticks * tickMillis, events, arrivals, rejected, boarded, remaining,
+                                    elapsed, stats);
+    }
+
+    private Visitor[] createGuests(SplittableRandom random) {
+        Visitor[] created = new Visitor[guestCount];
+        for (int i = 0; i < guestCount; i++) {
+            created[i] = new Visitor("Guest " + (i + 1), 5 + random.nextInt(70),
+                                     random.nextBoolean() ? "Female" : "Male", "G" + (i + 1),
+                                     random.nextInt(4) == 0 ? "VIP" : "Standard",
+                                     random.nextInt(5) == 0, false);
+        }
+        return created;
+    }
+
+    private static int pickRide(SplittableRandom random, double[] cumulativePopularity) {
+        double target = random.nextDouble() * cumulativePopularity[cumulativePopularity.length - 1];
+        int low = 0;
+        int high = cumulativePopularity.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativePopularity[mid] > target) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    private static int poisson(SplittableRandom random, double mean) {
+        if (mean <= 0) return 0;
+        if (mean < 30) {
+            double limit = Math.exp(-mean);
+            double product = random.nextDouble();
+            int count = 0;
+            while (product > limit) {
+                count++;
+                product *= random.nextDouble();
+            }
+            return count;
+        }
+        return Math.max(0, (int) Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+    }
+
+    /**
+     * A ride with its settings, random stream and running totals
+     * Only the worker that owns the ride touches it during a run
+     */
+    private static final class RideSlot {
+        final Ride ride;
+        final int cycleTicks;
+        final double popularity;
+        SplittableRandom random;
+        double arrivalsPerTick;
+        long arrivals;
+        long rejected;
+        long walkersIn;
+        long boarded;
+        long cycles;
+        int maxQueueLength;
+
+        RideSlot(Ride ride, int cycleTicks, double popularity) {
+            this.ride = ride;
+            this.cycleTicks = cycleTicks;
+            this.popularity = popularity;
+        }
+
+        void admit(Visitor visitor) {
+            int before = ride.getWaitingQueue().size();
+            ride.addVisitorToQueue(visitor);
+            int after = ride.getWaitingQueue().size();
+            if (after == before) rejected++;
+            if (after > maxQueueLength) maxQueueLength = after;
+        }
+
+        void resetCounts() {
+            arrivals = 0;
+            rejected = 0;
+            walkersIn = 0;
+            boarded = 0;
+            cycles = 0;
+            maxQueueLength = 0;
+        }
+    }
+
+    /**
+     * State shared by the workers of one run
+     */
+    private static final class Run {
+        final int ticks;
+        final int workerCount;
+        // Number of (worker, tick) pairs whose step 1 is done
+        final AtomicInteger produced;
+        final CyclicBarrier tickEnd;
+        final AtomicReference<Throwable> failure;
+
+        Run(int ticks, int workerCount) {
+            this.ticks = ticks;
+            this.workerCount = workerCount;
+            this.produced = new AtomicInteger();
+            this.tickEnd = new CyclicBarrier(workerCount);
+            this.failure = new AtomicReference<>();
+        }
+
+        void fail(Throwable error) {
+            failure.compareAndSet(null, error);
+            tickEnd.reset();
+        }
+    }
+
+    /**
+     * One thread's share of the rides, with the channels it reads
+     */
+    private final class Worker implements VisitorChannel.Receiver {
+        private final int index;
+        private final int workerCount;
+        private final VisitorChannel[] outbound;
+        private final VisitorChannel[] inbound;
+        private final Visitor[] guests;
+        private final double[] cumulativePopularity;
+        // Walkers drained from each inbound channel this tick, in channel order
+        private final Inbox[] inboxes;
+        private Inbox filling;
+
+        Worker(int index, int workerCount, VisitorChannel[][] channels, Visitor[] guests,
+               double[] cumulativePopularity) {
+            this.index = index;
+            this.workerCount = workerCount;
+            this.outbound = channels[index];
+            this.inbound = new VisitorChannel[workerCount];
+            this.inboxes = new Inbox[workerCount];
+            for (int w = 0; w < workerCount; w++) {
+                inbound[w] = channels[w][index];
+                inboxes[w] = new Inbox();
+            }
+            this.guests = guests;
+            this.cumulativePopularity = cumulativePopularity;
+        }
+
+        void runTicks(Run run) {
+            try {
+                for (int tick = 0; tick < run.ticks; tick++) {
+                    for (int r = index; r < rides.size(); r += workerCount) {
+                        step(r, tick);
+                    }
+                    int target = (tick + 1) * run.workerCount;
+                    run.produced.incrementAndGet();
+                    int spins = 0;
+                    while (run.produced.get() < target) {
+                        if (run.failure.get() != null) return;
+                        drainInbound();
+                        spins = pause(spins);
+                    }
+                    drainInbound();
+                    deliver();
+                    run.tickEnd.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                run.fail(e);
+            } catch (BrokenBarrierException e) {
+                // Another worker failed and reset the barrier
+            } catch (RuntimeException | Error e) {
+                run.fail(e);
+            }
+        }
+
+        /**
+         * Admits new guests to one ride and runs its cycle if one is due
+         */
+        private void step(int rideIndex, int tick) {
+            RideSlot slot = rides.get(rideIndex);
+            SplittableRandom random = slot.random;
+            int newGuests = poisson(random, slot.arrivalsPerTick);
+            for (int i = 0; i < newGuests; i++) {
+                slot.admit(guests[random.nextInt(guests.length)]);
+            }
+            slot.arrivals += newGuests;
+
+            if ((tick + 1) % slot.cycleTicks != 0 || slot.ride.getWaitingQueue().isEmpty()) return;
+            RideHistory history = slot.ride.getRideHistory();
+            int before = history.size();
+            CycleResult result = slot.ride.runCycles(1);
+            slot.cycles += result.getCyclesRun();
+            slot.boarded += result.getVisitorsBoarded();
+            if (result.getVisitorsBoarded() == 0) return;
+            for (Visitor rider : history.page(before, result.getVisitorsBoarded())) {
+                if (random.nextDouble() < stayProbability) {
+                    send(rider, rideIndex, pickRide(random, cumulativePopularity));
+                }
+            }
+        }
+
+        private void send(Visitor visitor, int sourceRide, int targetRide) {
+            VisitorChannel channel = outbound[targetRide % workerCount];
+            int spins = 0;
+            while (!channel.offer(visitor, sourceRide, targetRide)) {
+                // The owner may be waiting on us, so keep our own channels moving
+                drainInbound();
+                spins = pause(spins);
+            }
+        }
+
+        private void drainInbound() {
+            for (int w = 0; w < workerCount; w++) {
+                filling = inboxes[w];
+                inbound[w].drain(this);
+            }
+        }
+
+        @Override
+        public void accept(Visitor visitor, int sourceRide, int targetRide) {
+            filling.add(visitor, sourceRide, targetRide);
+        }
+
+        /**
+         * Queues this tick's walkers at their rides in (source ride, send order)
+         * Each inbox is already in that order, so this is a merge of the inboxes
+         */
+        private void deliver() {
+            while (true) {
+                Inbox next = null;
+                for (Inbox inbox : inboxes) {
+                    if (inbox.hasNext() && (next == null || inbox.peekSource() < next.peekSource())) {
+                        next = inbox;
+                    }
+                }
+                if (next == null) break;
+                RideSlot slot = rides.get(next.peekTarget());
+                slot.walkersIn++;
+                slot.admit(next.take());
+            }
+            for (Inbox inbox : inboxes) {
+                inbox.clear();
+            }
+        }
+
+        private int pause(int spins) {
+            if (spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+            return spins + 1;
+        }
+    }
+
+    /**
+     * Growable buffer of walkers drained from one channel
+     */
+    private static final class Inbox {
+        private Visitor[] visitors = new Visitor[256];
+        private int[] sourceRides = new int[256];
+        private int[] targetRides = new int[256];
+        private int size;
+        private int next;
+
+        void add(Visitor visitor, int sourceRide, int targetRide) {
+            if (size == visitors.length) {
+                visitors = Arrays.copyOf(visitors, size * 2);
+                sourceRides = Arrays.copyOf(sourceRides, size * 2);
+                targetRides = Arrays.copyOf(targetRides, size * 2);
+            }
+            visitors[size] = visitor;
+            sourceRides[size] = sourceRide;
+            targetRides[size] = targetRide;
+            size++;
+        }
+
+        boolean hasNext() { return next < size; }
+        int peekSource() { return sourceRides[next]; }
+        int peekTarget() { return targetRides[next]; }
+
+        Visitor take() {
+            Visitor visitor = visitors[next];
+            visitors[next] = null;
+            next++;
+            return visitor;
+        }
+
+        void clear() {
+            size = 0;
+            next = 0;
+        }
+    }
+}
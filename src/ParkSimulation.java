@@ -0,0 +1,290 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * Discrete-event simulation of a whole park of rides over one operating day
+ * Events (guest arrivals, ride cycles, breakdowns and repairs) wait in a
+ * priority queue ordered by simulated time and run one after another; nothing
+ * sleeps, so a day of millions of arrivals takes seconds
+ * Arrivals form a Poisson process over the park: each picks a ride by its
+ * popularity and a guest from a fixed population, and joins that ride's queue
+ * Every ride dispatches a cycle each cycle duration through Ride.runCycles(1);
+ * a broken ride is set not operational until it is repaired
+ * Runs are deterministic for a given seed
+ * Rides report through their own event sink, so large runs should give them
+ * a quiet one such as RideEventSink.NO_OP
+ */
+public class ParkSimulation {
+    private static final String[] TICKET_TYPES = {"Standard", "Standard", "Premium", "VIP", "Student", "Child"};
+
+    private final SplittableRandom random;
+    private final List<RideSlot> rides;
+    private double totalPopularity;
+    private long arrivalsPerDay;
+    private long openMillis;
+    private long meanMillisBetweenBreakdowns;
+    private long repairMillis;
+    private Visitor[] guests;
+    private int guestCount;
+
+    /**
+     * Creates an empty park open for 12 hours with 1,000,000 arrivals and 100,000 guests
+     * @param seed Seed for every random choice of the run
+     */
+    public ParkSimulation(long seed) {
+        this.random = new SplittableRandom(seed);
+        this.rides = new ArrayList<>();
+        this.arrivalsPerDay = 1_000_000;
+        this.openMillis = 12 * 3_600_000L;
+        this.guestCount = 100_000;
+    }
+
+    /**
+     * Adds a ride to the park
+     * @param ride The ride; its operator, seats and operational state are used as they are
+     * @param cycleMillis Simulated time one cycle takes, loading included
+     * @param popularity Relative share of arrivals that choose this ride
+     */
+    public void addRide(Ride ride, long cycleMillis, double popularity) {
+        if (ride == null || cycleMillis <= 0 || popularity < 0) {
+            throw new IllegalArgumentException("A ride needs a positive cycle time and non-negative popularity");
+        }
+        rides.add(new RideSlot(ride, cycleMillis, popularity));
+        totalPopularity += popularity;
+    }
+
+    /**
+     * Sets how long the park accepts arrivals and how many arrive in that time
+     * @param openMillis Simulated opening time in milliseconds
+     * @param arrivalsPerDay Expected number of queue joins over the opening time
+     */
+    public void setOpening(long openMillis, long arrivalsPerDay) {
+        if (openMillis <= 0 || arrivalsPerDay < 0) {
+            throw new IllegalArgumentException("Opening time must be positive and arrivals non-negative");
+        }
+        this.openMillis = openMillis;
+        this.arrivalsPerDay = arrivalsPerDay;
+    }
+
+    /**
+     * Makes every ride that starts operational break down now and then
+     * @param meanMillisBetweenBreakdowns Mean operating time between breakdowns, or 0 for none
+     * @param repairMillis Time a ride stays out of service after a breakdown
+     */
+    public void setBreakdowns(long meanMillisBetweenBreakdowns, long repairMillis) {
+        this.meanMillisBetweenBreakdowns = meanMillisBetweenBreakdowns;
+        this.repairMillis = repairMillis;
+    }
+
+    /**
+     * Sets how many different guests the arrivals are drawn from
+     * @param guestCount Size of the generated guest population
+     */
+    public void setGuestCount(int guestCount) {
+        if (guestCount <= 0) {
+            throw new IllegalArgumentException("guestCount must be positive");
+        }
+        this.guestCount = guestCount;
+        this.guests = null;
+    }
+
+    /**
+     * Runs the day from opening to closing
+     * Cycles keep running after the last arrival until closing; guests still
+     * waiting at closing are reported as remaining in queue
+     * @return Park and per-ride results
+     */
+    public SimulationReport run() {
+        if (rides.isEmpty() || totalPopularity <= 0) {
+            throw new IllegalStateException("Add at least one ride with a positive popularity before running");
+        }
+        if (guests == null) guests = createGuests(guestCount);
+        long start = System.nanoTime();
+
+        double[] cumulativePopularity = new double[rides.size()];
+        double running = 0;
+        for (int i = 0; i < rides.size(); i++) {
+            running += rides.get(i).popularity;
+            cumulativePopularity[i] = running;
+        }
+
+        PriorityQueue<Event> events = new PriorityQueue<>();
+        long sequence = 0;
+        double meanMillisBetweenArrivals = arrivalsPerDay == 0 ? 0 : (double) openMillis / arrivalsPerDay;
+        Event arrival = new Event(Event.ARRIVAL, -1);
+        // Kept unrounded so whole-millisecond event times do not skew the arrival rate
+        double arrivalClock = 0;
+        if (arrivalsPerDay > 0) {
+            arrivalClock += exponentialGap(meanMillisBetweenArrivals);
+            events.add(arrival.at((long) Math.ceil(arrivalClock), sequence++));
+        }
+        for (int i = 0; i < rides.size(); i++) {
+            RideSlot slot = rides.get(i);
+            events.add(slot.cycle.at(slot.cycleMillis, sequence++));
+            if (meanMillisBetweenBreakdowns > 0 && slot.ride.isOperational()) {
+                events.add(slot.breakdown.at(exponential(meanMillisBetweenBreakdowns), sequence++));
+            }
+        }
+
+        long processed = 0;
+        long arrivals = 0;
+        long rejected = 0;
+        Event event;
+        while ((event = events.poll()) != null && event.time <= openMillis) {
+            processed++;
+            long now = event.time;
+            switch (event.kind) {
+                case Event.ARRIVAL: {
+                    RideSlot slot = rides.get(pickRide(cumulativePopularity));
+                    int before = slot.ride.getWaitingQueue().size();
+                    slot.ride.addVisitorToQueue(guests[random.nextInt(guests.length)]);
+                    int after = slot.ride.getWaitingQueue().size();
+                    arrivals++;
+                    slot.arrivals++;
+                    if (after == before) rejected++;
+                    if (after > slot.maxQueueLength) slot.maxQueueLength = after;
+                    arrivalClock += exponentialGap(meanMillisBetweenArrivals);
+                    events.add(arrival.at((long) Math.ceil(arrivalClock), sequence++));
+                    break;
+                }
+                case Event.CYCLE: {
+                    RideSlot slot = rides.get(event.ride);
+                    if (!slot.ride.getWaitingQueue().isEmpty()) {
+                        CycleResult result = slot.ride.runCycles(1);
+                        slot.cycles += result.getCyclesRun();
+                        slot.boarded += result.getVisitorsBoarded();
+                    }
+                    events.add(event.at(now + slot.cycleMillis, sequence++));
+                    break;
+                }
+                case Event.BREAKDOWN: {
+                    RideSlot slot = rides.get(event.ride);
+                    slot.ride.setOperational(false);
+                    slot.breakdowns++;
+                    slot.downSince = now;
+                    events.add(slot.repair.at(now + repairMillis, sequence++));
+                    break;
+                }
+                case Event.REPAIR: {
+                    RideSlot slot = rides.get(event.ride);
+                    slot.ride.setOperational(true);
+                    slot.downtimeMillis += now - slot.downSince;
+                    slot.downSince = -1;
+                    events.add(slot.breakdown.at(now + exponential(meanMillisBetweenBreakdowns), sequence++));
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        long boarded = 0;
+        long remaining = 0;
+        List<SimulationReport.RideStats> stats = new ArrayList<>(rides.size());
+        for (RideSlot slot : rides) {
+            if (slot.downSince >= 0) slot.downtimeMillis += openMillis - slot.downSince;
+            int queued = slot.ride.getWaitingQueue().size();
+            boarded += slot.boarded;
+            remaining += queued;
+            stats.add(new SimulationReport.RideStats(slot.ride.getRideName(), slot.arrivals, slot.boarded,
+                    slot.cycles, slot.maxQueueLength, queued, slot.breakdowns, slot.downtimeMillis));
+        }
+        return new SimulationReport(openMillis, processed, arrivals, rejected, boarded, remaining,
+                                    System.nanoTime() - start, stats);
+    }
+
+    private int pickRide(double[] cumulativePopularity) {
+        double target = random.nextDouble() * totalPopularity;
+        int low = 0;
+        int high = cumulativePopularity.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativePopularity[mid] > target) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    private double exponentialGap(double mean) {
+        return -mean * Math.log(1 - random.nextDouble());
+    }
+
+    private long exponential(double mean) {
+        return Math.max(1, Math.round(exponentialGap(mean)));
+    }
+
+    private Visitor[] createGuests(int count) {
+        Visitor[] created = new Visitor[count];
+        for (int i = 0; i < count; i++) {
+            created[i] = new Visitor("Guest " + (i + 1), 5 + random.nextInt(70),
+                                     random.nextBoolean() ? "Female" : "Male", "G" + (i + 1),
+                                     TICKET_TYPES[random.nextInt(TICKET_TYPES.length)],
+                                     random.nextInt(5) == 0, false);
+        }
+        return created;
+    }
+
+    /**
+     * A ride with its cycle time and running totals
+     * Its events are allocated once and rescheduled, so the run allocates no events
+     */
+    private final class RideSlot {
+        final Ride ride;
+        final long cycleMillis;
+        final double popularity;
+        final Event cycle;
+        final Event breakdown;
+        final Event repair;
+        long arrivals;
+        long boarded;
+        long cycles;
+        int maxQueueLength;
+        int breakdowns;
+        long downtimeMillis;
+        long downSince = -1;
+
+        RideSlot(Ride ride, long cycleMillis, double popularity) {
+            int index = rides.size();
+            this.ride = ride;
+            this.cycleMillis = cycleMillis;
+            this.popularity = popularity;
+            this.cycle = new Event(Event.CYCLE, index);
+            this.breakdown = new Event(Event.BREAKDOWN, index);
+            this.repair = new Event(Event.REPAIR, index);
+        }
+    }
+
+    /**
+     * Scheduled event; ties in time run in the order they were scheduled
+     */
+    private static final class Event implements Comparable<Event> {
+        static final int ARRIVAL = 0;
+        static final int CYCLE = 1;
+        static final int BREAKDOWN = 2;
+        static final int REPAIR = 3;
+
+        final int kind;
+        final int ride;
+        long time;
+        long sequence;
+
+        Event(int kind, int ride) {
+            this.kind = kind;
+            this.ride = ride;
+        }
+
+        Event at(long time, long sequence) {
+            this.time = time;
+            this.sequence = sequence;
+            return this;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            if (time != other.time) return Long.compare(time, other.time);
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -8,6 +8,9 @@ public abstract class Person {
     private int age;
     private String gender;
     
+    // Whether constructors print a trace line; bulk loaders and simulations switch it off
+    private static volatile boolean constructorLogging = true;
+    
     /**
      * Default constructor - initializes with default values
      */
@@ -15,7 +18,7 @@ public abstract class Person {
         this.name = "Unknown";
         this.age = 0;
         this.gender = "Unknown";
-        System.out.println("Person default constructor called");
+        if (constructorLogging) System.out.println("Person default constructor called");
     }
     
     /**
@@ -25,10 +28,35 @@ public abstract class Person {
      * @param gender The gender of the person
      */
     public Person(String name, int age, String gender) {
+        this(name, age, gender, constructorLogging);
+    }
+    
+    /**
+     * Parameterized constructor with explicit trace output, for subclasses that
+     * rebuild stored objects and must stay quiet
+     * @param logging Whether to print the constructor trace line
+     */
+    Person(String name, int age, String gender, boolean logging) {
         this.name = name;
         this.age = age;
-        this.gender = gender;
-        System.out.println("Person parameterized constructor called for: " + name);
+        this.gender = VisitorDictionary.GENDERS.intern(gender);
+        if (logging) System.out.println("Person parameterized constructor called for: " + name);
+    }
+    
+    /**
+     * Turns the constructor trace output of every Person subclass on or off
+     * @param enabled true to print a line per constructed object (the default)
+     */
+    public static void setConstructorLogging(boolean enabled) {
+        constructorLogging = enabled;
+    }
+    
+    /**
+     * Checks if constructors print a trace line
+     * @return true if constructor logging is on
+     */
+    public static boolean isConstructorLogging() {
+        return constructorLogging;
     }
     
     // Getter and Setter methods with documentation
@@ -83,7 +111,7 @@ public abstract class Person {
      * @param gender The new gender to set
      */
     public void setGender(String gender) {
-        this.gender = gender;
+        this.gender = VisitorDictionary.GENDERS.intern(gender);
     }
     
     /**
@@ -1,5 +1,6 @@
 import java.util.*;
 import java.io.*;
+import java.nio.channels.FileChannel;
 
 /**
  * Ride class representing theme park rides/attractions
@@ -14,10 +15,33 @@ public class Ride implements RideInterface {
     private Employee operator;
     private int maxRider;
     private int numOfCycles;
+    // Cycle length set by setCycleDurationMillis, 0 to use the measured one
+    private long cycleNanos;
+    // Moving average of the time between cycles, and when the last cycle left visitors waiting
+    private long measuredCycleNanos;
+    private long lastCycleAtNanos;
     
     // Collections
-    private Queue<Visitor> waitingQueue;
-    private LinkedList<Visitor> rideHistory;
+    private TimedQueue waitingQueue;
+    private RideHistory rideHistory;
+    // Same object as waitingQueue while fast-pass lanes are in use, otherwise null
+    private LaneQueue lanes;
+    
+    // Receives everything the ride reports; console output by default
+    // Volatile: ConcurrentRide admits visitors, and so emits, without a lock
+    private volatile RideEventSink eventSink;
+    private ImportSummary lastImportSummary;
+    private ExportSummary lastExportSummary;
+    private final RideMetrics metrics = new RideMetrics();
+    // High-water mark of exportRideHistoryIncremental, and the rotation it applies
+    private IncrementalExport incrementalExport;
+    private long exportMaxFileBytes;
+    private long exportMaxFileAgeMillis;
+    // Set while a RideJournal is recording the ride's changes
+    private RideJournal journal;
+    
+    // File layouts handled by the shared export and import paths
+    private enum FileFormat { CSV, CSV_GZIP, CSV_PARALLEL, CSV_INCREMENTAL, BINARY }
     
     // Constructors
     public Ride() {
@@ -28,12 +52,22 @@ public class Ride implements RideInterface {
         this.operator = null;
         this.maxRider = 2;
         this.numOfCycles = 0;
-        this.waitingQueue = new LinkedList<>();
-        this.rideHistory = new LinkedList<>();
+        this.waitingQueue = RideStorage.ARRAY.newQueue();
+        this.rideHistory = new RideHistory(RideStorage.ARRAY);
+        this.eventSink = new RideEventSink.Console();
     }
     
     public Ride(String rideName, String rideType, int capacity, boolean isOperational, 
                 Employee operator, int maxRider) {
+        this(rideName, rideType, capacity, isOperational, operator, maxRider, RideStorage.ARRAY);
+    }
+    
+    /**
+     * Creates a ride whose queue and history use the given collection layout
+     * @param storage Layout for the waiting queue and ride history
+     */
+    public Ride(String rideName, String rideType, int capacity, boolean isOperational, 
+                Employee operator, int maxRider, RideStorage storage) {
         this.rideName = rideName;
         this.rideType = rideType;
         this.capacity = capacity;
@@ -41,8 +75,9 @@ public class Ride implements RideInterface {
         this.operator = operator;
         this.maxRider = maxRider;
         this.numOfCycles = 0;
-        this.waitingQueue = new LinkedList<>();
-        this.rideHistory = new LinkedList<>();
+        this.waitingQueue = storage.newQueue();
+        this.rideHistory = new RideHistory(storage);
+        this.eventSink = new RideEventSink.Console();
     }
     
     // Getters and Setters
@@ -61,40 +96,158 @@ public class Ride implements RideInterface {
     public void setOperator(Employee operator) { this.operator = operator; }
     public int getMaxRider() { return maxRider; }
     public void setMaxRider(int maxRider) { 
-        if (maxRider > 0) this.maxRider = maxRider; 
-        else System.out.println("Error: maxRider must be positive");
+        if (maxRider > 0) {
+            this.maxRider = maxRider;
+            if (lanes != null) lanes.setSeatsPerCycle(maxRider);
+        } else {
+            System.out.println("Error: maxRider must be positive");
+        }
     }
     public int getNumOfCycles() { return numOfCycles; }
     public Queue<Visitor> getWaitingQueue() { return waitingQueue; }
-    public LinkedList<Visitor> getRideHistory() { return rideHistory; }
+    public RideHistory getRideHistory() { return rideHistory; }
+    public RideEventSink getEventSink() { return eventSink; }
+    public RideMetrics getMetrics() { return metrics; }
+    public RideJournal getJournal() { return journal; }
+    
+    // Called by RideJournal when it opens and closes
+    void setJournal(RideJournal journal) {
+        this.journal = journal;
+    }
+    
+    /**
+     * Copies the ride's counters, current queue depth and wait-time percentiles
+     * @return An immutable snapshot of the metrics
+     */
+    public RideMetrics.Snapshot getMetricsSnapshot() {
+        return metrics.snapshot(rideName, waitingQueue.size(), rideHistory.size());
+    }
+    
+    /**
+     * Sets where the ride reports queue, history, cycle and file events
+     * @param eventSink The sink to use, or null to discard all events
+     */
+    public void setEventSink(RideEventSink eventSink) {
+        this.eventSink = (eventSink != null) ? eventSink : RideEventSink.NO_OP;
+    }
     
     // Part 3: Queue Methods
     @Override
     public void addVisitorToQueue(Visitor visitor) {
         if (visitor == null) {
-            System.out.println("Error: Cannot add null visitor to queue for ride: " + rideName);
+            metrics.recordAdmissionRejected();
+            emit(RideEvent.Type.QUEUE_ADD_REJECTED, null);
             return;
         }
-        boolean added = waitingQueue.offer(visitor);
+        boolean added = waitingQueue.offer(visitor, System.nanoTime());
         if (added) {
-            System.out.println("Success: Visitor " + visitor.getName() + " added to queue for ride: " + rideName);
+            metrics.recordAdmission();
+            if (journal != null) journal.queueAdded(visitor);
         } else {
-            System.out.println("Error: Failed to add visitor to queue for ride: " + rideName);
+            metrics.recordAdmissionRejected();
         }
+        emit(added ? RideEvent.Type.QUEUE_ADDED : RideEvent.Type.QUEUE_ADD_FAILED, visitor);
     }
     
     @Override
     public void removeVisitorFromQueue() {
-        if (waitingQueue.isEmpty()) {
-            System.out.println("Error: Cannot remove visitor from empty queue for ride: " + rideName);
+        Visitor removedVisitor = waitingQueue.poll();
+        if (removedVisitor == null) {
+            emit(RideEvent.Type.QUEUE_REMOVE_REJECTED, null);
             return;
         }
-        Visitor removedVisitor = waitingQueue.poll();
-        if (removedVisitor != null) {
-            System.out.println("Success: Visitor " + removedVisitor.getName() + " removed from queue for ride: " + rideName);
+        metrics.recordRemoval();
+        if (journal != null) journal.queueRemoved(removedVisitor.getVisitorId());
+        emit(RideEvent.Type.QUEUE_REMOVED, removedVisitor);
+    }
+    
+    /**
+     * Takes a visitor out of the line wherever they are, e.g. when they give up waiting
+     * O(1) lookup with RideStorage.INDEXED; other queues are scanned
+     * @param visitorId The visitor ID to remove
+     * @return true if the visitor was waiting and has been removed
+     */
+    public boolean removeVisitorFromQueue(String visitorId) {
+        Visitor removedVisitor;
+        if (waitingQueue instanceof IndexedVisitorQueue) {
+            removedVisitor = ((IndexedVisitorQueue) waitingQueue).remove(visitorId);
+        } else {
+            removedVisitor = findInQueue(visitorId);
+            if (removedVisitor != null) waitingQueue.remove(removedVisitor);
         }
+        if (removedVisitor == null) {
+            RideEventSink sink = eventSink;
+            if (sink.isEnabled(RideEvent.Type.QUEUE_REMOVE_NOT_FOUND)) {
+                sink.onEvent(new RideEvent(RideEvent.Type.QUEUE_REMOVE_NOT_FOUND, rideName, null, 0, 0, 0,
+                                           waitingQueue.size(), 0, visitorId, null));
+            }
+            return false;
+        }
+        metrics.recordRemoval();
+        if (journal != null) journal.queueRemoved(visitorId);
+        emit(RideEvent.Type.QUEUE_REMOVED, removedVisitor);
+        return true;
+    }
+    
+    /**
+     * Gets a visitor's place in line, counting in boarding order
+     * O(log n) with RideStorage.INDEXED; other queues are scanned
+     * @param visitorId The visitor ID to look up
+     * @return 1 for the next visitor to board, or -1 if the visitor is not waiting
+     */
+    public int getQueuePosition(String visitorId) {
+        if (waitingQueue instanceof IndexedVisitorQueue) {
+            return ((IndexedVisitorQueue) waitingQueue).positionOf(visitorId);
+        }
+        int position = 1;
+        for (Visitor visitor : waitingQueue) {
+            if (Objects.equals(visitor.getVisitorId(), visitorId)) return position;
+            position++;
+        }
+        return -1;
+    }
+    
+    private Visitor findInQueue(String visitorId) {
+        for (Visitor visitor : waitingQueue) {
+            if (Objects.equals(visitor.getVisitorId(), visitorId)) return visitor;
+        }
+        return null;
     }
     
+    /**
+     * Splits the waiting queue into a fast-pass lane (VIP tickets and season
+     * passes) and a standard lane, and fills each cycle's seats from them by weight
+     * e.g. useFastPassLanes(2, 1) boards two fast-pass visitors for every standard one
+     * Visitors already waiting move to their lane in their current order
+     * @param fastPassWeight Share of each cycle for the fast-pass lane
+     * @param standardWeight Share of each cycle for the standard lane
+     * @throws IllegalArgumentException If a weight is negative or both are 0
+     * @throws IllegalStateException On a RideStorage.INDEXED queue, whose lookups
+     *         by visitorId the lanes could only do by scanning
+     */
+    public void useFastPassLanes(int fastPassWeight, int standardWeight) {
+        if (fastPassWeight < 0 || standardWeight < 0 || fastPassWeight + standardWeight == 0) {
+            throw new IllegalArgumentException("Lane weights must be non-negative and not both 0, got "
+                    + fastPassWeight + ":" + standardWeight);
+        }
+        if (waitingQueue instanceof IndexedVisitorQueue) {
+            throw new IllegalStateException("Fast-pass lanes are not available on an indexed queue");
+        }
+        LaneQueue newLanes = new LaneQueue(fastPassWeight, standardWeight, maxRider);
+        Visitor visitor;
+        while ((visitor = waitingQueue.poll()) != null) {
+            newLanes.offer(visitor, waitingQueue.lastPolledQueuedAtNanos());
+        }
+        waitingQueue = newLanes;
+        lanes = newLanes;
+    }
+    
+    /**
+     * Gets the fast-pass lane queue, if the ride uses one
+     * @return The lanes set up by useFastPassLanes, or null for a single FIFO queue
+     */
+    public LaneQueue getLanes() { return lanes; }
+    
     @Override
     public void printQueue() {
         System.out.println("=== Waiting Queue for Ride: " + rideName + " ===");
@@ -114,26 +267,31 @@ public class Ride implements RideInterface {
     @Override
     public void addVisitorToHistory(Visitor visitor) {
         if (visitor == null) {
-            System.out.println("Error: Cannot add null visitor to ride history for ride: " + rideName);
+            emit(RideEvent.Type.HISTORY_ADD_REJECTED, null);
             return;
         }
-        boolean added = rideHistory.add(visitor);
-        if (added) {
-            System.out.println("Success: Visitor " + visitor.getName() + " added to ride history for: " + rideName);
+        if (rideHistory.add(visitor)) {
+            if (journal != null) journal.historyAdded(visitor);
+            emit(RideEvent.Type.HISTORY_ADDED, visitor);
         }
     }
     
     @Override
     public boolean checkVisitorFromHistory(Visitor visitor) {
         if (visitor == null) {
-            System.out.println("Error: Cannot check null visitor in ride history for: " + rideName);
+            emit(RideEvent.Type.HISTORY_CHECK_REJECTED, null);
             return false;
         }
-        Iterator<Visitor> iterator = rideHistory.iterator();
-        while (iterator.hasNext()) {
-            if (iterator.next().equals(visitor)) return true;
-        }
-        return false;
+        return rideHistory.contains(visitor);
+    }
+    
+    /**
+     * Gets how many times a visitor has taken this ride
+     * @param visitorId The visitor ID to look up
+     * @return Number of rides recorded for the visitor
+     */
+    public int getVisitorRideCount(String visitorId) {
+        return rideHistory.countRides(visitorId);
     }
     
     @Override
@@ -159,248 +317,497 @@ public class Ride implements RideInterface {
     
     @Override
     public void sortRideHistory(Comparator<Visitor> comparator) {
+        sortRideHistory(comparator, false);
+    }
+    
+    /**
+     * Sorts the ride history, optionally using every core of the common fork-join pool
+     * Both modes give the same stable order as Collections.sort
+     * @param comparator The comparator to use for sorting
+     * @param parallel true to sort in parallel, worthwhile for very large histories
+     */
+    public void sortRideHistory(Comparator<Visitor> comparator, boolean parallel) {
         if (rideHistory.isEmpty()) {
-            System.out.println("Info: Cannot sort empty ride history for: " + rideName);
+            emit(RideEvent.Type.HISTORY_SORT_SKIPPED, null);
             return;
         }
-        Collections.sort(rideHistory, comparator);
-        System.out.println("Success: Ride history sorted for: " + rideName);
+        rideHistory.sort(comparator, parallel);
+        if (journal != null) journal.historySorted(comparator);
+        emit(RideEvent.Type.HISTORY_SORTED, null);
+    }
+    
+    /**
+     * Starts a read-only query over the ride history, e.g.
+     * queryHistory().withSeasonPass(true).top(20, new VisitorComparator())
+     * @return A query matching every visitor in the history
+     */
+    public VisitorQuery queryHistory() {
+        return new VisitorQuery(rideHistory, null);
+    }
+    
+    /**
+     * Starts a read-only query over the waiting queue, in queue order
+     * @return A query matching every visitor in the queue
+     */
+    public VisitorQuery queryQueue() {
+        return new VisitorQuery(waitingQueue, null);
+    }
+    
+    /**
+     * Registers a view of the history in comparator order that is updated as
+     * visitors take the ride; reading a page of it does not sort or change the history
+     * @param comparator The order of the view
+     * @return The view, filled with the current history
+     */
+    public SortedHistoryView registerSortedView(Comparator<Visitor> comparator) {
+        if (comparator == null) {
+            throw new IllegalArgumentException("A sorted view needs a comparator");
+        }
+        return rideHistory.registerView(comparator);
+    }
+    
+    /**
+     * Stops updating a sorted view
+     * @param view A view returned by registerSortedView
+     * @return true if the view was registered on this ride
+     */
+    public boolean unregisterSortedView(SortedHistoryView view) {
+        return rideHistory.unregisterView(view);
     }
     
     // Part 5: Run Cycle Method
     @Override
     public void runOneCycle() {
-        System.out.println("\nATTEMPTING TO RUN RIDE CYCLE: " + rideName);
+        emit(RideEvent.Type.CYCLE_ATTEMPTED, null);
         
         if (operator == null) {
-            System.out.println("ERROR: Cannot run ride - No operator assigned to: " + rideName);
+            metrics.recordRejectedCycle(CycleResult.StopReason.NO_OPERATOR);
+            emit(RideEvent.Type.CYCLE_REJECTED_NO_OPERATOR, null);
             return;
         }
         
         if (waitingQueue.isEmpty()) {
-            System.out.println("ERROR: Cannot run ride - No visitors in queue for: " + rideName);
+            metrics.recordRejectedCycle(CycleResult.StopReason.QUEUE_EMPTY);
+            emit(RideEvent.Type.CYCLE_REJECTED_EMPTY_QUEUE, null);
             return;
         }
         
         if (!isOperational) {
-            System.out.println("ERROR: Cannot run ride - " + rideName + " is not operational");
+            metrics.recordRejectedCycle(CycleResult.StopReason.NOT_OPERATIONAL);
+            emit(RideEvent.Type.CYCLE_REJECTED_NOT_OPERATIONAL, null);
             return;
         }
         
         int visitorsToTake = Math.min(maxRider, waitingQueue.size());
-        System.out.println("STARTING RIDE CYCLE - Taking " + visitorsToTake + " visitors");
+        emitCount(RideEvent.Type.CYCLE_STARTED, visitorsToTake);
+        if (lanes != null) lanes.startCycle();
         
+        boolean reportRiders = eventSink.isEnabled(RideEvent.Type.RIDER_BOARDED);
+        long boardedAt = System.nanoTime();
+        int boarded = 0;
         for (int i = 0; i < visitorsToTake; i++) {
             Visitor rider = waitingQueue.poll();
             if (rider != null) {
-                rideHistory.add(rider);
-                System.out.println("SUCCESS: " + rider.getName() + " has taken the ride!");
+                long wait = boardedAt - waitingQueue.lastPolledQueuedAtNanos();
+                metrics.recordBoarding(wait);
+                rideHistory.add(rider, boardedAt, wait);
+                boarded++;
+                if (reportRiders) emit(RideEvent.Type.RIDER_BOARDED, rider);
             }
         }
         
         numOfCycles++;
-        System.out.println("RIDE CYCLE COMPLETED SUCCESSFULLY!");
-        System.out.println("Cycle Number: " + numOfCycles);
-        System.out.println("Remaining in queue: " + waitingQueue.size());
-        System.out.println("Total in ride history: " + rideHistory.size());
-        System.out.println("==========================================\n");
+        metrics.recordCycles(1);
+        measureCycles(boardedAt, 1);
+        if (journal != null) journal.boarded(boarded, 1);
+        emitCount(RideEvent.Type.CYCLE_COMPLETED, numOfCycles);
+    }
+    
+    @Override
+    public CycleResult runCycles(int n) {
+        if (operator == null) {
+            metrics.recordRejectedCycle(CycleResult.StopReason.NO_OPERATOR);
+            return new CycleResult(0, 0, waitingQueue.size(), rideHistory.size(),
+                                   CycleResult.StopReason.NO_OPERATOR);
+        }
+        if (waitingQueue.isEmpty() && n > 0) {
+            metrics.recordRejectedCycle(CycleResult.StopReason.QUEUE_EMPTY);
+            return new CycleResult(0, 0, 0, rideHistory.size(), CycleResult.StopReason.QUEUE_EMPTY);
+        }
+        if (!isOperational) {
+            metrics.recordRejectedCycle(CycleResult.StopReason.NOT_OPERATIONAL);
+            return new CycleResult(0, 0, waitingQueue.size(), rideHistory.size(),
+                                   CycleResult.StopReason.NOT_OPERATIONAL);
+        }
+        if (n <= 0) {
+            return new CycleResult(0, 0, waitingQueue.size(), rideHistory.size(),
+                                   CycleResult.StopReason.COMPLETED);
+        }
+        
+        // Every cycle but the last is full, so the whole batch moves in one transfer
+        int queued = waitingQueue.size();
+        long seats = (long) n * maxRider;
+        int toBoard = (int) Math.min(seats, queued);
+        if (lanes != null) lanes.startCycle();
+        long boardedAt = System.nanoTime();
+        int boarded = rideHistory.drainFrom(waitingQueue, toBoard, boardedAt, metrics::recordBoarding);
+        int cycles = (boarded + maxRider - 1) / maxRider;
+        numOfCycles += cycles;
+        metrics.recordCycles(cycles);
+        measureCycles(boardedAt, cycles);
+        if (journal != null) journal.boarded(boarded, cycles);
+        emitCount(RideEvent.Type.CYCLES_BATCH_COMPLETED, cycles);
+        
+        CycleResult.StopReason reason = cycles < n ? CycleResult.StopReason.QUEUE_EMPTY
+                                                   : CycleResult.StopReason.COMPLETED;
+        return new CycleResult(cycles, boarded, waitingQueue.size(), rideHistory.size(), reason);
+    }
+    
+    // Boarding as journaled by runOneCycle and runCycles, replayed on recovery
+    void replayBoarding(int boarded, int cycles) {
+        if (lanes != null) lanes.startCycle();
+        rideHistory.drainFrom(waitingQueue, boarded);
+        numOfCycles += cycles;
+    }
+    
+    // Cycle count from a journal snapshot
+    void restoreCycles(int cycles) {
+        numOfCycles = cycles;
+    }
+    
+    /**
+     * Folds the time since the previous cycle into the measured cycle length
+     * A gap is only measured when visitors were left waiting after the previous
+     * cycle, so time the ride stood idle with an empty queue is not counted
+     */
+    private void measureCycles(long nowNanos, int cycles) {
+        if (lastCycleAtNanos != 0 && cycles > 0) {
+            long gap = (nowNanos - lastCycleAtNanos) / cycles;
+            measuredCycleNanos = measuredCycleNanos == 0 ? gap : measuredCycleNanos + (gap - measuredCycleNanos) / 8;
+        }
+        lastCycleAtNanos = waitingQueue.isEmpty() ? 0 : nowNanos;
+    }
+    
+    /**
+     * Sets how long one cycle takes, for wait estimates
+     * @param cycleMillis Length of a cycle, or 0 to use the time measured between cycles
+     * @throws IllegalArgumentException If cycleMillis is negative
+     */
+    public void setCycleDurationMillis(long cycleMillis) {
+        if (cycleMillis < 0) {
+            throw new IllegalArgumentException("Cycle duration must not be negative, got " + cycleMillis);
+        }
+        this.cycleNanos = cycleMillis * 1_000_000;
+    }
+    
+    /**
+     * Gets the cycle length used for wait estimates
+     * @return The configured length, else the measured one, or 0 if neither is known yet
+     */
+    public long getCycleDurationNanos() {
+        return cycleNanos != 0 ? cycleNanos : measuredCycleNanos;
+    }
+    
+    /**
+     * Gets the posted wait for a visitor joining the queue now, in O(1)
+     * Counts the cycles needed to reach the back of the queue, including the
+     * whole of the cycle that boards the visitor
+     * @return Estimated nanoseconds until boarding, or -1 if the cycle length is not known yet
+     */
+    public long getEstimatedWaitNanos() {
+        return estimateWaitNanos(waitingQueue.size() + 1);
+    }
+    
+    /**
+     * Gets the estimated remaining wait of a visitor in the queue
+     * O(log n) with RideStorage.INDEXED; other queues are scanned
+     * @param visitorId The visitor ID to look up
+     * @return Estimated nanoseconds until boarding, or -1 if the visitor is not waiting
+     *         or the cycle length is not known yet
+     */
+    public long getEstimatedWaitNanos(String visitorId) {
+        int position = getQueuePosition(visitorId);
+        return position < 0 ? -1 : estimateWaitNanos(position);
+    }
+    
+    private long estimateWaitNanos(int position) {
+        long cycle = getCycleDurationNanos();
+        if (cycle == 0 || maxRider <= 0) return -1;
+        long cyclesAhead = (position + maxRider - 1) / maxRider;
+        return cyclesAhead * cycle;
+    }
+    
+    /**
+     * Gets how long a visitor has been waiting in the queue so far
+     * O(1) with RideStorage.INDEXED; other queues are scanned
+     * @param visitorId The visitor ID to look up
+     * @return Nanoseconds since the visitor joined, or -1 if the visitor is not waiting
+     */
+    public long getCurrentWaitNanos(String visitorId) {
+        return waitingQueue.waitingNanos(visitorId, System.nanoTime());
+    }
+    
+    @Override
+    public CycleResult runUntilEmpty() {
+        int queued = waitingQueue.size();
+        int cycles = Math.max(1, (queued + maxRider - 1) / maxRider);
+        return runCycles(cycles);
     }
     
     // Part 6: Export Method
     @Override
     public void exportRideHistory(String filename) {
-        System.out.println("ATTEMPTING TO EXPORT RIDE HISTORY TO FILE: " + filename);
-        System.out.println("Ride: " + rideName);
-        System.out.println("Number of visitors to export: " + rideHistory.size());
-        
-        if (rideHistory.isEmpty()) {
-            System.out.println("WARNING: No ride history to export. File will be empty.");
+        exportRideHistory(filename, false);
+    }
+    
+    /**
+     * Exports ride history to a file, optionally gzip compressed
+     * @param filename The name of the file to export to
+     * @param gzip true to gzip-compress the file
+     */
+    public void exportRideHistory(String filename, boolean gzip) {
+        exportRideHistory(filename, gzip ? FileFormat.CSV_GZIP : FileFormat.CSV);
+    }
+    
+    /**
+     * Exports ride history in the compact binary format of RideHistoryBinaryFormat
+     * @param filename The name of the file to export to
+     */
+    public void exportRideHistoryBinary(String filename) {
+        exportRideHistory(filename, FileFormat.BINARY);
+    }
+    
+    /**
+     * Exports only the visitors added since the last incremental export to the
+     * same file, so exporting a growing history every few minutes costs O(new rows)
+     * The whole history is written instead on the first export to a file, after
+     * the history was sorted or cleared, or if the file was changed since
+     * @param filename The CSV file to keep up to date
+     */
+    public void exportRideHistoryIncremental(String filename) {
+        if (incrementalExport == null || !incrementalExport.getFile().equals(new File(filename))) {
+            incrementalExport = new IncrementalExport(new File(filename));
         }
+        incrementalExport.setRotation(exportMaxFileBytes, exportMaxFileAgeMillis);
+        exportRideHistory(filename, FileFormat.CSV_INCREMENTAL);
+    }
+    
+    /**
+     * Sets when exportRideHistoryIncremental moves to a new file; earlier files
+     * are kept as filename.1, filename.2, ... in the order they were written
+     * @param maxFileBytes Size at which to start a new file, or 0 for no limit
+     * @param maxFileAgeMillis Age at which to start a new file, or 0 for no limit
+     * @throws IllegalArgumentException If a limit is negative
+     */
+    public void setExportRotation(long maxFileBytes, long maxFileAgeMillis) {
+        if (maxFileBytes < 0 || maxFileAgeMillis < 0) {
+            throw new IllegalArgumentException("Export rotation limits must not be negative, got "
+                    + maxFileBytes + " bytes and " + maxFileAgeMillis + " ms");
+        }
+        this.exportMaxFileBytes = maxFileBytes;
+        this.exportMaxFileAgeMillis = maxFileAgeMillis;
+    }
+    
+    private void exportRideHistory(String filename, FileFormat format) {
+        int rows = (format == FileFormat.CSV_INCREMENTAL) ? incrementalExport.rowsToExport(rideHistory)
+                                                          : rideHistory.size();
+        emitFile(RideEvent.Type.EXPORT_STARTED, filename, rows, null);
         
-        PrintWriter writer = null;
+        FileOutputStream output = null;
         try {
-            writer = new PrintWriter(new FileWriter(filename));
-            
-            writer.println("# Ride History Export for: " + rideName);
-            writer.println("# Export Date: " + new Date());
-            writer.println("# Format: Name,Age,Gender,VisitorID,TicketType,HasSeasonPass");
-            
-            int exportCount = 0;
-            for (Visitor visitor : rideHistory) {
-                String line = String.format("%s,%d,%s,%s,%s,%b",
-                    escapeCommas(visitor.getName()),
-                    visitor.getAge(),
-                    escapeCommas(visitor.getGender()),
-                    escapeCommas(visitor.getVisitorId()),
-                    escapeCommas(visitor.getTicketType()),
-                    visitor.hasSeasonPass());
-                
-                writer.println(line);
-                exportCount++;
+            ExportSummary summary;
+            if (format == FileFormat.CSV_INCREMENTAL) {
+                // Opens the file itself, appending unless it has to start again
+                summary = incrementalExport.export(rideName, rideHistory);
+            } else if (format == FileFormat.BINARY) {
+                output = new FileOutputStream(filename);
+                summary = RideHistoryBinaryFormat.write(output.getChannel(), rideName, rideHistory);
+            } else {
+                output = new FileOutputStream(filename);
+                summary = writeCsv(output.getChannel(), format == FileFormat.CSV_GZIP);
+            }
+            lastExportSummary = summary;
+            RideEventSink sink = eventSink;
+            if (sink.isEnabled(RideEvent.Type.EXPORT_COMPLETED)) {
+                sink.onEvent(new RideEvent(RideEvent.Type.EXPORT_COMPLETED, rideName, null,
+                        summary.getRowCount(), 0, 0, 0, rideHistory.size(), filename, null,
+                        summary.getCsvBytes(), summary.getElapsedNanos()));
             }
             
-            writer.flush();
-            System.out.println("SUCCESS: Exported " + exportCount + " visitors to file: " + filename);
-            System.out.println("File location: " + new File(filename).getAbsolutePath());
-            
-        } catch (FileNotFoundException e) {
-            System.out.println("ERROR: File not found or cannot be created: " + filename);
-            System.out.println("Error details: " + e.getMessage());
-        } catch (SecurityException e) {
-            System.out.println("ERROR: Security exception - No permission to write to file: " + filename);
-            System.out.println("Error details: " + e.getMessage());
-        } catch (IOException e) {
-            System.out.println("ERROR: IO Exception occurred during export!");
-            System.out.println("Error details: " + e.getMessage());
         } catch (Exception e) {
-            System.out.println("ERROR: Unexpected error during export!");
-            System.out.println("Error details: " + e.getMessage());
+            // FileNotFound, Security and other IO failures are told apart by the sink
+            emitFile(RideEvent.Type.EXPORT_FAILED, filename, 0, e);
         } finally {
-            if (writer != null) {
+            if (output != null) {
                 try {
-                    writer.close();
-                    System.out.println("File writer closed successfully.");
+                    output.close();
+                    emitFile(RideEvent.Type.EXPORT_FILE_CLOSED, filename, 0, null);
                 } catch (Exception e) {
-                    System.out.println("WARNING: Error closing file writer: " + e.getMessage());
+                    emitFile(RideEvent.Type.EXPORT_CLOSE_FAILED, filename, 0, e);
                 }
             }
         }
         
-        System.out.println("Export process completed.\n");
+        emitFile(RideEvent.Type.EXPORT_FINISHED, filename, 0, null);
     }
     
-    private String escapeCommas(String input) {
-        if (input == null) return "";
-        return input.replace(",", ";");
+    private ExportSummary writeCsv(FileChannel channel, boolean gzip) throws IOException {
+        try (RideHistoryCsvWriter writer = new RideHistoryCsvWriter(channel, gzip)) {
+            writer.writeHeader(rideName);
+            for (Visitor visitor : rideHistory) {
+                writer.writeVisitor(visitor);
+            }
+            return writer.finish();
+        }
+    }
+    
+    /**
+     * Gets the summary of the last successful export
+     * @return Rows, sizes and throughput, or null if nothing was exported yet
+     */
+    public ExportSummary getLastExportSummary() {
+        return lastExportSummary;
     }
     
     // Part 7: Import Method
     @Override
     public void importRideHistory(String filename) {
-        System.out.println("\nATTEMPTING TO IMPORT RIDE HISTORY FROM FILE: " + filename);
-        System.out.println("Ride: " + rideName);
-        System.out.println("Current history size before import: " + rideHistory.size());
+        importRideHistory(filename, FileFormat.CSV);
+    }
+    
+    /**
+     * Imports ride history by memory-mapping the file and parsing line-aligned
+     * segments on a fork-join pool; visitors are added in file order with the
+     * same skip and repair rules as importRideHistory
+     * @param filename The name of the file to import from
+     */
+    public void importRideHistoryParallel(String filename) {
+        importRideHistory(filename, FileFormat.CSV_PARALLEL);
+    }
+    
+    /**
+     * Imports ride history from a file written by exportRideHistoryBinary
+     * A file that is corrupt, truncated or of another version is rejected as a
+     * whole and nothing is added
+     * @param filename The name of the file to import from
+     */
+    public void importRideHistoryBinary(String filename) {
+        importRideHistory(filename, FileFormat.BINARY);
+    }
+    
+    private void importRideHistory(String filename, FileFormat format) {
+        emitFile(RideEvent.Type.IMPORT_STARTED, filename, 0, null);
         
-        BufferedReader reader = null;
-        int importedCount = 0;
-        int skippedCount = 0;
-        int lineNumber = 0;
+        FileInputStream input = null;
         
         try {
-            reader = new BufferedReader(new FileReader(filename));
-            String line;
+            input = new FileInputStream(filename);
             
-            System.out.println("Starting file import process...");
+            emitFile(RideEvent.Type.IMPORT_READING, filename, 0, null);
             
-            while ((line = reader.readLine()) != null) {
-                lineNumber++;
-                
-                if (line.trim().isEmpty() || line.trim().startsWith("#")) {
-                    continue;
-                }
-                
-                try {
-                    Visitor visitor = parseVisitorFromCSV(line, lineNumber);
-                    if (visitor != null) {
-                        boolean added = rideHistory.add(visitor);
-                        if (added) importedCount++;
-                        else skippedCount++;
-                    } else {
-                        skippedCount++;
-                    }
-                } catch (Exception e) {
-                    skippedCount++;
-                    System.out.println("ERROR: Failed to parse line " + lineNumber + ": " + e.getMessage());
+            // Bad lines are collected in the summary and reported once the file is read
+            ImportSummary summary;
+            if (format == FileFormat.BINARY) {
+                // Decoded completely before anything is added, so a bad file changes nothing
+                List<Visitor> visitors = new ArrayList<>();
+                summary = RideHistoryBinaryFormat.read(input.getChannel(), visitors::add);
+                for (Visitor visitor : visitors) {
+                    addImported(visitor);
                 }
+            } else if (format == FileFormat.CSV_PARALLEL) {
+                summary = new ParallelCsvImporter().importChannel(input.getChannel(), this::addImported);
+            } else {
+                summary = new ImportSummary();
+                new RideHistoryCsvParser(summary).parse(input.getChannel(), this::addImported);
             }
+            lastImportSummary = summary;
+            reportSkippedLines(summary);
             
-            System.out.println("SUCCESS: File import completed!");
-            System.out.println("Imported visitors: " + importedCount);
-            System.out.println("Skipped lines: " + skippedCount);
-            System.out.println("Total lines processed: " + lineNumber);
-            System.out.println("Final history size: " + rideHistory.size());
+            RideEventSink sink = eventSink;
+            if (sink.isEnabled(RideEvent.Type.IMPORT_COMPLETED)) {
+                sink.onEvent(new RideEvent(RideEvent.Type.IMPORT_COMPLETED, rideName, null,
+                        summary.getImportedCount(), summary.getSkippedCount(), summary.getLinesProcessed(),
+                        0, rideHistory.size(), filename, null));
+            }
             
-        } catch (FileNotFoundException e) {
-            System.out.println("ERROR: File not found: " + filename);
-            System.out.println("Please check if the file exists at: " + new File(filename).getAbsolutePath());
-        } catch (SecurityException e) {
-            System.out.println("ERROR: Security exception - No permission to read file: " + filename);
-            System.out.println("Error details: " + e.getMessage());
-        } catch (IOException e) {
-            System.out.println("ERROR: IO Exception occurred during import!");
-            System.out.println("Error details: " + e.getMessage());
         } catch (Exception e) {
-            System.out.println("ERROR: Unexpected error during import!");
-            System.out.println("Error type: " + e.getClass().getName());
-            System.out.println("Error message: " + e.getMessage());
+            // FileNotFound, Security and other IO failures are told apart by the sink
+            emitFile(RideEvent.Type.IMPORT_FAILED, filename, 0, e);
         } finally {
-            if (reader != null) {
+            if (input != null) {
                 try {
-                    reader.close();
-                    System.out.println("File reader closed successfully.");
+                    input.close();
+                    emitFile(RideEvent.Type.IMPORT_FILE_CLOSED, filename, 0, null);
                 } catch (IOException e) {
-                    System.out.println("WARNING: Error closing file reader: " + e.getMessage());
+                    emitFile(RideEvent.Type.IMPORT_CLOSE_FAILED, filename, 0, e);
                 }
             }
         }
         
-        System.out.println("Import process completed.\n");
+        emitFile(RideEvent.Type.IMPORT_FINISHED, filename, 0, null);
     }
     
-    private Visitor parseVisitorFromCSV(String csvLine, int lineNumber) {
-        try {
-            String[] parts = csvLine.split(",");
-            
-            if (parts.length < 6) {
-                System.out.println("WARNING: Line " + lineNumber + 
-                                 " has insufficient data. Expected 6 fields, found " + parts.length);
-                return null;
-            }
-            
-            String name = unescapeCommas(parts[0].trim());
-            int age;
-            try {
-                age = Integer.parseInt(parts[1].trim());
-            } catch (NumberFormatException e) {
-                System.out.println("ERROR: Invalid age format on line " + lineNumber + ": " + parts[1]);
-                return null;
-            }
-            
-            String gender = unescapeCommas(parts[2].trim());
-            String visitorId = unescapeCommas(parts[3].trim());
-            String ticketType = unescapeCommas(parts[4].trim());
-            boolean hasSeasonPass;
-            
-            try {
-                hasSeasonPass = Boolean.parseBoolean(parts[5].trim());
-            } catch (Exception e) {
-                System.out.println("WARNING: Invalid boolean format on line " + lineNumber + ", defaulting to false");
-                hasSeasonPass = false;
-            }
-            
-            if (name.isEmpty()) {
-                name = "Unknown Visitor";
-            }
-            
-            if (visitorId.isEmpty()) {
-                visitorId = "IMP" + lineNumber;
-            }
-            
-            if (age < 0 || age > 150) {
-                age = 25;
+    // Imported rows are journaled like any other history add
+    private void addImported(Visitor visitor) {
+        if (rideHistory.add(visitor) && journal != null) journal.historyAdded(visitor);
+    }
+    
+    /**
+     * Gets the summary of the last successful importRideHistory call
+     * @return Counts and skipped-line details, or null if nothing was imported yet
+     */
+    public ImportSummary getLastImportSummary() {
+        return lastImportSummary;
+    }
+    
+    private void reportSkippedLines(ImportSummary summary) {
+        for (ImportSummary.LineError error : summary.getErrors()) {
+            switch (error.getReason()) {
+                case INSUFFICIENT_FIELDS:
+                    emitLine(RideEvent.Type.IMPORT_LINE_INSUFFICIENT_FIELDS, error.getLineNumber(),
+                             error.getFieldsFound(), null, null);
+                    break;
+                case INVALID_AGE:
+                    emitLine(RideEvent.Type.IMPORT_LINE_INVALID_AGE, error.getLineNumber(), 0, error.getDetail(), null);
+                    break;
+                default:
+                    emitLine(RideEvent.Type.IMPORT_LINE_FAILED, error.getLineNumber(), 0, null, null);
+                    break;
             }
-            
-            return new Visitor(name, age, gender, visitorId, ticketType, hasSeasonPass);
-            
-        } catch (Exception e) {
-            System.out.println("ERROR: Failed to parse CSV line " + lineNumber);
-            return null;
         }
     }
     
-    private String unescapeCommas(String input) {
-        if (input == null) return "";
-        return input.replace(";", ",");
+    // Event helpers - each checks the sink first, so a disabled event builds nothing
+    // The sink is read once, so a sink swapped meanwhile never gets an event it did not enable
+    
+    private void emit(RideEvent.Type type, Visitor visitor) {
+        RideEventSink sink = eventSink;
+        if (sink.isEnabled(type)) {
+            sink.onEvent(new RideEvent(type, rideName, visitor, 0, 0, 0, 0, 0, null, null));
+        }
+    }
+    
+    private void emitCount(RideEvent.Type type, int count) {
+        RideEventSink sink = eventSink;
+        if (sink.isEnabled(type)) {
+            sink.onEvent(new RideEvent(type, rideName, null, count, 0, 0,
+                                       waitingQueue.size(), rideHistory.size(), null, null));
+        }
+    }
+    
+    private void emitFile(RideEvent.Type type, String filename, int count, Exception error) {
+        RideEventSink sink = eventSink;
+        if (sink.isEnabled(type)) {
+            sink.onEvent(new RideEvent(type, rideName, null, count, 0, 0,
+                                       0, rideHistory.size(), filename, error));
+        }
+    }
+    
+    private void emitLine(RideEvent.Type type, int lineNumber, int count, String detail, Exception error) {
+        RideEventSink sink = eventSink;
+        if (sink.isEnabled(type)) {
+            sink.onEvent(new RideEvent(type, rideName, null, count, 0, lineNumber, 0, 0, detail, error));
+        }
     }
     
     @Override
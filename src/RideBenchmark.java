@@ -0,0 +1,1060 @@
+import java.io.*;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Stand-alone performance comparisons for the rides
+ * Run with a large heap, e.g. java -Xmx4g RideBenchmark [section] [entries]
+ * Sections: collections, concurrent, import, export, binary, dictionary, offheap, sort,
+ * parallelsort, views, query, lanes, leave, simulation, runner, load, metrics, waits,
+ * journal, incremental (all sections run when none is given)
+ * Per-operation timings with allocation and a saved baseline are in RideMicroBenchmarks
+ * Correctness checks are in RideChecks, which exits non-zero when one fails
+ */
+public class RideBenchmark {
+    private static final int DEFAULT_ENTRIES = 10_000_000;
+    private static final int DEFAULT_ADMISSIONS = 2_000_000;
+    private static final int DEFAULT_IMPORT_LINES = 10_000_000;
+    private static final int DEFAULT_EXPORT_ROWS = 5_000_000;
+    private static final int DEFAULT_BINARY_ROWS = 5_000_000;
+    private static final int DEFAULT_DICTIONARY_LINES = 5_000_000;
+    private static final int DEFAULT_OFF_HEAP_ENTRIES = 10_000_000;
+    private static final int DEFAULT_SORT_ENTRIES = 1_000_000;
+    private static final int VISITOR_POOL_SIZE = 1024;
+    private static final int[] PRODUCER_COUNTS = {1, 2, 4, 8, 16, 32};
+
+    public static void main(String[] args) {
+        String section = args.length > 0 ? args[0] : "all";
+        Integer entries = args.length > 1 ? Integer.valueOf(args[1]) : null;
+
+        if (section.equals("all") || section.equals("collections")) {
+            runCollections(entries != null ? entries : DEFAULT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("concurrent")) {
+            runConcurrentAdmission(entries != null ? entries : DEFAULT_ADMISSIONS);
+        }
+        if (section.equals("all") || section.equals("import")) {
+            runImport(entries != null ? entries : DEFAULT_IMPORT_LINES);
+        }
+        if (section.equals("all") || section.equals("export")) {
+            runExport(entries != null ? entries : DEFAULT_EXPORT_ROWS);
+        }
+        if (section.equals("all") || section.equals("binary")) {
+            runBinary(entries != null ? entries : DEFAULT_BINARY_ROWS);
+        }
+        if (section.equals("all") || section.equals("dictionary")) {
+            runDictionary(entries != null ? entries : DEFAULT_DICTIONARY_LINES);
+        }
+        if (section.equals("all") || section.equals("offheap")) {
+            runOffHeap(entries != null ? entries : DEFAULT_OFF_HEAP_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("sort")) {
+            runSort(entries != null ? entries : DEFAULT_SORT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("parallelsort")) {
+            runParallelSort(entries != null ? entries : DEFAULT_SORT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("views")) {
+            runSortedViews(entries != null ? entries : DEFAULT_SORT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("query")) {
+            runQueries(entries != null ? entries : DEFAULT_SORT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("lanes")) {
+            runLanes(entries != null ? entries : DEFAULT_SORT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("leave")) {
+            runLeaveQueue(entries != null ? entries : DEFAULT_SORT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("simulation")) {
+            runSimulation(entries != null ? entries : 2_000_000);
+        }
+        if (section.equals("all") || section.equals("runner")) {
+            runParkRunner(entries != null ? entries : 3_600);
+        }
+        if (section.equals("all") || section.equals("load")) {
+            runLoadGenerator(entries != null ? entries : 200_000);
+        }
+        if (section.equals("all") || section.equals("metrics")) {
+            runMetrics(entries != null ? entries : DEFAULT_SORT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("waits")) {
+            runWaitEstimates(entries != null ? entries : 10_000);
+        }
+        if (section.equals("all") || section.equals("journal")) {
+            runJournal(entries != null ? entries : DEFAULT_SORT_ENTRIES);
+        }
+        if (section.equals("all") || section.equals("incremental")) {
+            runIncrementalExport(entries != null ? entries : DEFAULT_EXPORT_ROWS);
+        }
+    }
+
+    private static void runCollections(int entries) {
+        Visitor[] pool = createVisitorPool(VISITOR_POOL_SIZE);
+        System.out.println("=== Collection layout comparison (" + entries + " entries) ===");
+        for (RideStorage storage : RideStorage.values()) {
+            compareStorage(storage, pool, entries);
+        }
+    }
+
+    /**
+     * Admission throughput of ConcurrentRide: producer threads admit visitors
+     * while one consumer thread runs cycles (RideChecks checks that every
+     * visitor boards exactly once)
+     */
+    private static void runConcurrentAdmission(int admissions) {
+        Visitor[] visitors = createVisitorPool(admissions);
+        System.out.println("=== Concurrent admission (" + admissions + " visitors) ===");
+        admitConcurrently(visitors, 2); // warm-up, not reported
+        for (int producers : PRODUCER_COUNTS) {
+            long elapsed = admitConcurrently(visitors, producers);
+            System.out.printf("  %2d producers: %,12.0f admissions/s%n", producers, visitors.length / (elapsed / 1e9));
+        }
+    }
+
+    /**
+     * Admits every visitor through the given number of producer threads
+     * @return Elapsed nanoseconds until all visitors have boarded
+     */
+    private static long admitConcurrently(Visitor[] visitors, int producers) {
+        ConcurrentRide ride = new ConcurrentRide("Stress Coaster", "Roller Coaster", 64, true,
+                                                 benchOperator(), 64);
+        ride.setEventSink(RideEventSink.NO_OP);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int first = p;
+            threads[p] = new Thread(() -> {
+                for (int i = first; i < visitors.length; i += producers) {
+                    ride.addVisitorToQueue(visitors[i]);
+                }
+            });
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) thread.start();
+        while (ride.numberOfVisitors() < visitors.length) {
+            ride.runUntilEmpty();
+        }
+        long elapsed = System.nanoTime() - start;
+        joinAll(threads);
+        return elapsed;
+    }
+
+    /**
+     * Compares the original split-based line parser with RideHistoryCsvParser
+     * and ParallelCsvImporter on a generated export file
+     */
+    private static void runImport(int lines) {
+        System.out.println("=== CSV import (" + lines + " lines) ===");
+        boolean logging = Person.isConstructorLogging();
+        Person.setConstructorLogging(false);
+        File file = null;
+        try {
+            file = File.createTempFile("ride-history-bench", ".csv");
+            writeSampleCsv(file, lines);
+            System.out.printf("  file size: %.1f MB%n", file.length() / 1e6);
+            for (int round = 0; round < 6; round++) {
+                long start = System.nanoTime();
+                long legacyCount = importWithSplit(file);
+                long legacyNanos = System.nanoTime() - start;
+
+                long[] streamedCount = new long[1];
+                start = System.nanoTime();
+                ImportSummary summary = RideHistoryCsvParser.importFile(file.getPath(), v -> streamedCount[0]++);
+                long streamedNanos = System.nanoTime() - start;
+
+                long[] parallelCount = new long[1];
+                start = System.nanoTime();
+                new ParallelCsvImporter().importFile(file.getPath(), v -> parallelCount[0]++);
+                long parallelNanos = System.nanoTime() - start;
+
+                System.out.printf("  round %d: split %6.0f ms, streaming %6.0f ms (%.2fx), mapped parallel %6.0f ms (%.2fx)"
+                        + " [%d/%d/%d rows]%n", round + 1, legacyNanos / 1e6,
+                        streamedNanos / 1e6, (double) legacyNanos / streamedNanos,
+                        parallelNanos / 1e6, (double) legacyNanos / parallelNanos,
+                        legacyCount, summary.getImportedCount(), parallelCount[0]);
+            }
+        } catch (IOException e) {
+            System.out.println("ERROR: Import benchmark failed: " + e.getMessage());
+        } finally {
+            Person.setConstructorLogging(logging);
+            if (file != null) file.delete();
+        }
+    }
+
+    /**
+     * Compares the original PrintWriter and String.format export with
+     * RideHistoryCsvWriter, plain and gzip compressed
+     */
+    private static void runExport(int rows) {
+        System.out.println("=== CSV export (" + rows + " rows) ===");
+        Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 64);
+        ride.setEventSink(RideEventSink.NO_OP);
+        Visitor[] pool = createVisitorPool(VISITOR_POOL_SIZE);
+        for (int i = 0; i < rows; i++) {
+            ride.getRideHistory().add(pool[i % pool.length]);
+        }
+        File file = null;
+        try {
+            file = File.createTempFile("ride-history-bench", ".csv");
+            for (int round = 0; round < 5; round++) {
+                long start = System.nanoTime();
+                exportWithFormat(ride, file);
+                long legacyNanos = System.nanoTime() - start;
+
+                ride.exportRideHistory(file.getPath(), false);
+                ExportSummary plain = ride.getLastExportSummary();
+
+                ride.exportRideHistory(file.getPath(), true);
+                ExportSummary gzip = ride.getLastExportSummary();
+
+                System.out.printf("  round %d: format %6.0f ms, buffered %6.0f ms (%.2fx, %.0f MB/s),"
+                        + " gzip %6.0f ms (%.1f MB on disk)%n", round + 1, legacyNanos / 1e6,
+                        plain.getElapsedNanos() / 1e6, (double) legacyNanos / plain.getElapsedNanos(),
+                        plain.getMegabytesPerSecond(), gzip.getElapsedNanos() / 1e6, gzip.getFileBytes() / 1e6);
+            }
+        } catch (IOException e) {
+            System.out.println("ERROR: Export benchmark failed: " + e.getMessage());
+        } finally {
+            if (file != null) file.delete();
+        }
+    }
+
+    /**
+     * Compares file size and load time of the CSV and binary history formats
+     */
+    private static void runBinary(int rows) {
+        System.out.println("=== Binary vs CSV history (" + rows + " rows) ===");
+        Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 64);
+        ride.setEventSink(RideEventSink.NO_OP);
+        Visitor[] pool = createVisitorPool(rows);
+        for (Visitor visitor : pool) {
+            ride.getRideHistory().add(visitor);
+        }
+        pool = null;
+        boolean logging = Person.isConstructorLogging();
+        Person.setConstructorLogging(false);
+        File csv = null;
+        File binary = null;
+        try {
+            csv = File.createTempFile("ride-history-bench", ".csv");
+            binary = File.createTempFile("ride-history-bench", ".bin");
+            ride.exportRideHistory(csv.getPath());
+            ride.exportRideHistoryBinary(binary.getPath());
+            System.out.printf("  size: CSV %.1f MB, binary %.1f MB (%.0f%%), binary write %.0f ms%n",
+                    csv.length() / 1e6, binary.length() / 1e6, 100.0 * binary.length() / csv.length(),
+                    ride.getLastExportSummary().getElapsedNanos() / 1e6);
+            ride = null;
+            for (int round = 0; round < 5; round++) {
+                long csvNanos = timeLoad(csv, false);
+                long binaryNanos = timeLoad(binary, true);
+                System.out.printf("  round %d: load CSV %6.0f ms, binary %6.0f ms (%.2fx)%n", round + 1,
+                        csvNanos / 1e6, binaryNanos / 1e6, (double) csvNanos / binaryNanos);
+            }
+        } catch (IOException e) {
+            System.out.println("ERROR: Binary benchmark failed: " + e.getMessage());
+        } finally {
+            Person.setConstructorLogging(logging);
+            if (csv != null) csv.delete();
+            if (binary != null) binary.delete();
+        }
+    }
+
+    private static long timeLoad(File file, boolean binary) {
+        Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 64);
+        ride.setEventSink(RideEventSink.NO_OP);
+        long start = System.nanoTime();
+        if (binary) {
+            ride.importRideHistoryBinary(file.getPath());
+        } else {
+            ride.importRideHistory(file.getPath());
+        }
+        long elapsed = System.nanoTime() - start;
+        if (ride.getLastImportSummary() == null) {
+            throw new IllegalStateException("Load of " + file + " failed");
+        }
+        return elapsed;
+    }
+
+    /**
+     * Heap footprint of an imported history with and without VisitorDictionary
+     */
+    private static void runDictionary(int lines) {
+        System.out.println("=== Dictionary interning (" + lines + " lines) ===");
+        boolean logging = Person.isConstructorLogging();
+        boolean interning = VisitorDictionary.isInterning();
+        Person.setConstructorLogging(false);
+        File file = null;
+        try {
+            file = File.createTempFile("ride-history-bench", ".csv");
+            writeSampleCsv(file, lines);
+            long plainBytes = importedHeap(file, false);
+            long internedBytes = importedHeap(file, true);
+            System.out.printf("  without dictionary: %8.1f MB (%5.1f bytes/visitor)%n",
+                    plainBytes / 1e6, (double) plainBytes / lines);
+            System.out.printf("  with dictionary   : %8.1f MB (%5.1f bytes/visitor), %.1f MB saved (%.0f%%)%n",
+                    internedBytes / 1e6, (double) internedBytes / lines,
+                    (plainBytes - internedBytes) / 1e6, 100.0 * (plainBytes - internedBytes) / plainBytes);
+            System.out.println("  distinct genders: " + VisitorDictionary.GENDERS.size()
+                    + ", ticket types: " + VisitorDictionary.TICKET_TYPES.size());
+        } catch (IOException e) {
+            System.out.println("ERROR: Dictionary benchmark failed: " + e.getMessage());
+        } finally {
+            Person.setConstructorLogging(logging);
+            VisitorDictionary.setInterning(interning);
+            if (file != null) file.delete();
+        }
+    }
+
+    /**
+     * Heap retained by a ride after importing a file
+     */
+    private static long importedHeap(File file, boolean interning) {
+        VisitorDictionary.setInterning(interning);
+        long before = usedHeap();
+        Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 64);
+        ride.setEventSink(RideEventSink.NO_OP);
+        ride.importRideHistory(file.getPath());
+        long bytes = usedHeap() - before;
+        if (ride.getRideHistory().isEmpty()) System.out.println();
+        return bytes;
+    }
+
+    /**
+     * Heap use and full-GC time of a large history kept as Visitor objects
+     * versus the off-heap record store
+     */
+    private static void runOffHeap(int entries) {
+        System.out.println("=== Off-heap history (" + entries + " entries) ===");
+        boolean logging = Person.isConstructorLogging();
+        Person.setConstructorLogging(false);
+        try {
+            for (RideStorage storage : new RideStorage[] {RideStorage.ARRAY, RideStorage.OFF_HEAP}) {
+                long before = usedHeap();
+                RideHistory history = new RideHistory(storage);
+                String[] tickets = {"Premium", "Standard", "VIP", "Student"};
+                long start = System.nanoTime();
+                for (int i = 0; i < entries; i++) {
+                    // A quarter of the boardings are repeat rides of earlier visitors
+                    int id = (i % 4 == 3) ? i / 2 : i;
+                    history.add(new Visitor("Bench Visitor " + id, 10 + id % 60, id % 2 == 0 ? "Male" : "Female",
+                            "B" + id, tickets[id % tickets.length], id % 3 == 0));
+                }
+                long fillNanos = System.nanoTime() - start;
+                long heapBytes = usedHeap() - before;
+                long gcMillis = fullGcMillis();
+
+                long checksum = 0;
+                start = System.nanoTime();
+                for (Visitor visitor : history) {
+                    checksum += visitor.getAge();
+                }
+                long iterateNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                history.sort(new VisitorComparator());
+                long sortNanos = System.nanoTime() - start;
+
+                System.out.println(storage + ":");
+                System.out.printf("  heap %8.1f MB (%5.1f bytes/entry), full GC %5d ms, add %s, iterate %s, sort %s%n",
+                        heapBytes / 1e6, (double) heapBytes / entries, gcMillis,
+                        perEntry(fillNanos, entries), perEntry(iterateNanos, entries), perEntry(sortNanos, entries));
+                if (checksum == 42) System.out.println();
+                history.clear();
+            }
+        } finally {
+            Person.setConstructorLogging(logging);
+        }
+    }
+
+    /**
+     * Time the collectors spend on one explicit full collection
+     */
+    private static long fullGcMillis() {
+        long before = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            before += Math.max(0, gc.getCollectionTime());
+        }
+        System.gc();
+        long after = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            after += Math.max(0, gc.getCollectionTime());
+        }
+        return after - before;
+    }
+
+    /**
+     * Compares Arrays.sort with the packed-key RideHistorySorter for each
+     * built-in comparator
+     * Try 1M to 50M entries (50M needs about -Xmx12g)
+     */
+    private static void runSort(int entries) {
+        System.out.println("=== Sort (" + entries + " entries) ===");
+        Visitor[] history = createHistory(entries);
+        List<Comparator<Visitor>> comparators = Arrays.asList(new VisitorComparator(),
+                new VisitorComparator.ByTicketTypeAndAge(), new VisitorComparator.BySeasonPassAndName());
+        for (Comparator<Visitor> comparator : comparators) {
+            for (int round = 0; round < 3; round++) {
+                Visitor[] expected = history.clone();
+                long start = System.nanoTime();
+                Arrays.sort(expected, comparator);
+                long genericNanos = System.nanoTime() - start;
+
+                Visitor[] actual = history.clone();
+                start = System.nanoTime();
+                RideHistorySorter.sort(actual, comparator);
+                long packedNanos = System.nanoTime() - start;
+
+                System.out.printf("  %-20s round %d: Arrays.sort %6.0f ms, packed keys %6.0f ms (%.2fx)%n",
+                        comparator.getClass().getSimpleName(), round + 1, genericNanos / 1e6,
+                        packedNanos / 1e6, (double) genericNanos / packedNanos);
+            }
+        }
+    }
+
+    /**
+     * Compares sequential and parallel RideHistorySorter runs, for the built-in
+     * comparators and a user-supplied one with many ties
+     */
+    private static void runParallelSort(int entries) {
+        System.out.println("=== Parallel sort (" + entries + " entries, "
+                + ForkJoinPool.getCommonPoolParallelism() + " workers) ===");
+        Visitor[] history = createHistory(entries);
+        List<Comparator<Visitor>> comparators = Arrays.asList(new VisitorComparator(),
+                new VisitorComparator.ByTicketTypeAndAge(), new VisitorComparator.BySeasonPassAndName(),
+                Comparator.comparing(Visitor::getTicketType));
+        for (Comparator<Visitor> comparator : comparators) {
+            String name = RideHistorySorter.isSpecialized(comparator)
+                    ? comparator.getClass().getSimpleName() : "user comparator";
+            for (int round = 0; round < 3; round++) {
+                Visitor[] sequential = history.clone();
+                long start = System.nanoTime();
+                RideHistorySorter.sort(sequential, comparator, false);
+                long sequentialNanos = System.nanoTime() - start;
+
+                Visitor[] parallel = history.clone();
+                start = System.nanoTime();
+                RideHistorySorter.sort(parallel, comparator, true);
+                long parallelNanos = System.nanoTime() - start;
+
+                System.out.printf("  %-20s round %d: sequential %6.0f ms, parallel %6.0f ms (%.2fx)%n",
+                        name, round + 1, sequentialNanos / 1e6, parallelNanos / 1e6,
+                        (double) sequentialNanos / parallelNanos);
+            }
+        }
+    }
+
+    /**
+     * Cost of keeping a sorted view up to date and of reading pages from it,
+     * compared with sorting a copy of the history for every dashboard read
+     */
+    private static void runSortedViews(int entries) {
+        System.out.println("=== Sorted views (" + entries + " entries) ===");
+        Visitor[] visitors = createHistory(entries);
+        Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 64);
+        ride.setEventSink(RideEventSink.NO_OP);
+        for (int i = 0; i < entries / 2; i++) {
+            ride.addVisitorToHistory(visitors[i]);
+        }
+
+        long start = System.nanoTime();
+        SortedHistoryView view = ride.registerSortedView(new VisitorComparator());
+        long registerNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = entries / 2; i < entries; i++) {
+            ride.addVisitorToHistory(visitors[i]);
+        }
+        long addNanos = System.nanoTime() - start;
+
+        Random random = new Random(7);
+        int pages = 10_000;
+        long checksum = 0;
+        start = System.nanoTime();
+        for (int p = 0; p < pages; p++) {
+            for (Visitor visitor : view.page(random.nextInt(entries), 20)) {
+                checksum += visitor.getAge();
+            }
+        }
+        long pageNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Visitor[] copy = visitors.clone();
+        RideHistorySorter.sort(copy, new VisitorComparator());
+        long sortNanos = System.nanoTime() - start;
+
+        System.out.printf("  register with %d entries: %6.0f ms%n", entries / 2, registerNanos / 1e6);
+        System.out.printf("  add with view           : %s%n", perEntry(addNanos, entries - entries / 2));
+        System.out.printf("  read page of 20         : %8.2f us (full re-sort per read: %6.0f ms)%n",
+                pageNanos / 1e3 / pages, sortNanos / 1e6);
+        if (checksum == 42) System.out.println();
+    }
+
+    /**
+     * Top-K and filtered page queries compared with sorting a copy of the history
+     */
+    private static void runQueries(int entries) {
+        System.out.println("=== History queries (" + entries + " entries) ===");
+        Visitor[] visitors = createHistory(entries);
+        Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 64);
+        ride.setEventSink(RideEventSink.NO_OP);
+        for (Visitor visitor : visitors) {
+            ride.addVisitorToHistory(visitor);
+        }
+        VisitorComparator comparator = new VisitorComparator();
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            List<Visitor> youngest = ride.queryHistory().top(20, comparator);
+            long topNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Visitor[] sorted = visitors.clone();
+            Arrays.sort(sorted, comparator);
+            long sortNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<Visitor> page = ride.queryHistory().withTicketType("VIP").withSeasonPass(true).page(1000, 50);
+            long pageNanos = System.nanoTime() - start;
+
+            System.out.printf("  round %d: top 20 %6.1f ms (full sort %6.0f ms), filtered page of %d %6.2f ms%n",
+                    round + 1, topNanos / 1e6, sortNanos / 1e6, page.size(), pageNanos / 1e6);
+        }
+    }
+
+    /**
+     * Admission and boarding through fast-pass lanes compared with a plain FIFO queue
+     */
+    private static void runLanes(int entries) {
+        System.out.println("=== Fast-pass lanes (" + entries + " visitors, 2:1) ===");
+        Visitor[] visitors = createHistory(entries);
+        for (int round = 0; round < 3; round++) {
+            for (boolean useLanes : new boolean[] {false, true}) {
+                Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 6);
+                ride.setEventSink(RideEventSink.NO_OP);
+                if (useLanes) ride.useFastPassLanes(2, 1);
+                long start = System.nanoTime();
+                for (Visitor visitor : visitors) {
+                    ride.addVisitorToQueue(visitor);
+                }
+                long admitNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                ride.runUntilEmpty();
+                long boardNanos = System.nanoTime() - start;
+
+                int fastPassInFirstCycles = 0;
+                int firstSeats = Math.min(6000, ride.numberOfVisitors());
+                Iterator<Visitor> boarded = ride.getRideHistory().iterator();
+                for (int i = 0; i < firstSeats; i++) {
+                    if (LaneQueue.isFastPass(boarded.next())) fastPassInFirstCycles++;
+                }
+                System.out.printf("  round %d %-5s: admit %6.1f ms, board %6.1f ms, fast-pass share of first 1000 cycles %.2f%n",
+                        round + 1, useLanes ? "lanes" : "fifo", admitNanos / 1e6, boardNanos / 1e6,
+                        firstSeats == 0 ? 0.0 : (double) fastPassInFirstCycles / firstSeats);
+            }
+        }
+    }
+
+    /**
+     * Visitors leaving the line mid-way and position lookups, indexed queue
+     * compared with scanning an ArrayDeque
+     */
+    private static void runLeaveQueue(int entries) {
+        int queued = Math.min(entries, 200_000);
+        int lookups = 2_000;
+        System.out.println("=== Leaving the queue (" + queued + " waiting, " + lookups
+                + " removals and position lookups) ===");
+        Random random = new Random(42);
+        String[] ids = new String[lookups];
+        for (int i = 0; i < lookups; i++) {
+            ids[i] = "B" + random.nextInt(queued);
+        }
+        for (int round = 0; round < 3; round++) {
+            for (RideStorage storage : new RideStorage[] {RideStorage.ARRAY, RideStorage.INDEXED}) {
+                Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 6, storage);
+                ride.setEventSink(RideEventSink.NO_OP);
+                for (int i = 0; i < queued; i++) {
+                    ride.addVisitorToQueue(new Visitor("Bench Visitor", 30, "Female", "B" + i, "Standard", false, false));
+                }
+                long start = System.nanoTime();
+                long positions = 0;
+                for (String id : ids) {
+                    positions += ride.getQueuePosition(id);
+                }
+                long positionNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                int removed = 0;
+                for (String id : ids) {
+                    if (ride.removeVisitorFromQueue(id)) removed++;
+                }
+                long removeNanos = System.nanoTime() - start;
+                System.out.printf("  round %d %-7s: positions %8.2f ms, removals %8.2f ms (%d removed, checksum %d)%n",
+                        round + 1, storage, positionNanos / 1e6, removeNanos / 1e6, removed, positions);
+            }
+        }
+    }
+
+    /**
+     * A 12-hour day of a 300-ride park through the discrete-event simulation
+     */
+    private static void runSimulation(int arrivals) {
+        System.out.println("=== Park simulation (300 rides, " + arrivals + " arrivals over 12 hours) ===");
+        for (int round = 0; round < 3; round++) {
+            ParkSimulation park = new ParkSimulation(2024);
+            park.setOpening(12 * 3_600_000L, arrivals);
+            park.setBreakdowns(4 * 3_600_000L, 20 * 60_000L);
+            Random sizes = new Random(7);
+            for (int i = 0; i < 300; i++) {
+                Ride ride = new Ride("Ride " + (i + 1), "Attraction", 64, true, benchOperator(),
+                                     8 + sizes.nextInt(40));
+                ride.setEventSink(RideEventSink.NO_OP);
+                park.addRide(ride, 60_000 + sizes.nextInt(120_000), 1 + sizes.nextInt(10));
+            }
+            SimulationReport report = park.run();
+            System.out.printf("  round %d: %s%n", round + 1, report);
+            System.out.printf("           %.1f M events/s%n", report.getEventsPerSecond() / 1e6);
+        }
+    }
+
+    /**
+     * The parallel park runner with 1, 2, 4 and 8 worker threads
+     */
+    private static void runParkRunner(int ticks) {
+        System.out.println("=== Parallel park runner (256 rides, " + ticks + " ticks, "
+                + Runtime.getRuntime().availableProcessors() + " CPUs) ===");
+        long baselineNanos = 0;
+        for (int threads : new int[] {1, 2, 4, 8}) {
+            long bestNanos = Long.MAX_VALUE;
+            SimulationReport report = null;
+            for (int round = 0; round < 3; round++) {
+                ParkRunner park = new ParkRunner(2024);
+                park.setFlow(1000, 400, 0.8);
+                Random sizes = new Random(7);
+                for (int i = 0; i < 256; i++) {
+                    Ride ride = new Ride("Ride " + (i + 1), "Attraction", 64, true, benchOperator(),
+                                         8 + sizes.nextInt(40));
+                    ride.setEventSink(RideEventSink.NO_OP);
+                    park.addRide(ride, 60 + sizes.nextInt(120), 1 + sizes.nextInt(10));
+                }
+                report = park.run(ticks, threads);
+                bestNanos = Math.min(bestNanos, report.getElapsedNanos());
+            }
+            if (threads == 1) baselineNanos = bestNanos;
+            System.out.printf("  %d thread(s): best %6.0f ms, speedup %.2fx, boarded %d, events %d%n",
+                    threads, bestNanos / 1e6, (double) baselineNanos / bestNanos, report.getBoarded(),
+                    report.getEventsProcessed());
+        }
+    }
+
+    /**
+     * Guest actors queueing at 16 concurrent rides, three rides per guest
+     */
+    private static void runLoadGenerator(int guests) {
+        System.out.println("=== Admission load (" + guests + " guests, 16 rides, virtual threads "
+                + (AdmissionLoadGenerator.virtualThreadsAvailable() ? "available" : "not available") + ") ===");
+        for (int round = 0; round < 3; round++) {
+            AdmissionLoadGenerator generator = new AdmissionLoadGenerator();
+            generator.setGuestBehaviour(3, 0);
+            for (int i = 0; i < 16; i++) {
+                generator.addRide(new ConcurrentRide("Ride " + (i + 1), "Attraction", 64, true,
+                                                     benchOperator(), 32));
+            }
+            try {
+                System.out.println("  round " + (round + 1) + ": " + generator.run(guests));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Admission and boarding with the ride metrics recording, then the cost of a snapshot
+     */
+    private static void runMetrics(int entries) {
+        System.out.println("=== Ride metrics (" + entries + " admissions and boardings) ===");
+        Visitor[] visitors = createVisitorPool(entries);
+        Ride ride = null;
+        for (int round = 0; round < 3; round++) {
+            ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 6);
+            ride.setEventSink(RideEventSink.NO_OP);
+            long start = System.nanoTime();
+            for (Visitor visitor : visitors) {
+                ride.addVisitorToQueue(visitor);
+            }
+            long admitNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            while (ride.getWaitingQueue().size() > 0) {
+                ride.runOneCycle();
+            }
+            long boardNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            RideMetrics.Snapshot snapshot = null;
+            for (int i = 0; i < 1_000; i++) {
+                snapshot = ride.getMetricsSnapshot();
+            }
+            long snapshotNanos = (System.nanoTime() - start) / 1_000;
+            System.out.printf("  round %d: admit %6.1f ns/op, board %6.1f ns/visitor, snapshot %6.1f us (%d boardings)%n",
+                    round + 1, (double) admitNanos / entries, (double) boardNanos / entries,
+                    snapshotNanos / 1e3, snapshot.get("boardings"));
+        }
+        System.out.print(ride.getMetricsSnapshot().toLines());
+    }
+
+    /**
+     * Posted wait estimates against the waits logged at boarding, on a ride
+     * cycling every 200 us with random arrivals, and the cost of an estimate
+     */
+    private static void runWaitEstimates(int cycles) {
+        System.out.println("=== Wait estimates (" + cycles + " cycles of 6 seats, 200 us apart) ===");
+        Random random = new Random(42);
+        Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 6, RideStorage.INDEXED);
+        ride.setEventSink(RideEventSink.NO_OP);
+        List<Long> posted = new ArrayList<>();
+        for (int c = 0; c < cycles; c++) {
+            int arrivals = random.nextInt(13);
+            for (int i = 0; i < arrivals; i++) {
+                posted.add(ride.getEstimatedWaitNanos());
+                ride.addVisitorToQueue(new Visitor("Bench Visitor", 30, "Female", "B" + (posted.size() - 1),
+                                                   "Standard", false, false));
+            }
+            ride.runOneCycle();
+            long next = System.nanoTime() + 200_000;
+            while (System.nanoTime() < next) {
+                Thread.onSpinWait();
+            }
+        }
+        BoardingLog log = ride.getRideHistory().getBoardingLog();
+        int compared = 0;
+        double absoluteError = 0;
+        double actualTotal = 0;
+        Iterator<Visitor> boarded = ride.getRideHistory().iterator();
+        for (int i = 0; i < log.size(); i++) {
+            long estimate = posted.get(Integer.parseInt(boarded.next().getVisitorId().substring(1)));
+            if (estimate < 0) continue;
+            absoluteError += Math.abs(estimate - log.waitNanos(i));
+            actualTotal += log.waitNanos(i);
+            compared++;
+        }
+        System.out.printf("  measured cycle %.1f us, %d boardings compared, mean wait %.2f ms, mean error %.2f ms%n",
+                ride.getCycleDurationNanos() / 1e3, compared, actualTotal / Math.max(1, compared) / 1e6,
+                absoluteError / Math.max(1, compared) / 1e6);
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            long sum = 0;
+            for (int i = 0; i < 10_000_000; i++) {
+                sum += ride.getEstimatedWaitNanos();
+            }
+            System.out.printf("  round %d: estimate %.2f ns/op (checksum %d)%n",
+                    round + 1, (System.nanoTime() - start) / 1e7, sum);
+        }
+    }
+
+    /**
+     * Admission and cycles with and without a write-ahead journal, then recovery
+     * from the journal's last snapshot and segment
+     */
+    private static void runJournal(int entries) {
+        System.out.println("=== Ride journal (" + entries + " admissions, 6 seats per cycle) ===");
+        Visitor[] visitors = createVisitorPool(entries);
+        File directory = new File(System.getProperty("java.io.tmpdir"), "ride-journal-bench");
+        // Recovery reads the snapshot like an import, which would log every visitor
+        boolean logging = Person.isConstructorLogging();
+        Person.setConstructorLogging(false);
+        try {
+            for (int round = 0; round < 3; round++) {
+                for (boolean journaled : new boolean[] {false, true}) {
+                    deleteDirectory(directory);
+                    Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 6);
+                    ride.setEventSink(RideEventSink.NO_OP);
+                    RideJournal journal = null;
+                    if (journaled) {
+                        journal = new RideJournal(directory);
+                        journal.setSnapshotEvery(Math.max(1, entries / 2));
+                        journal.open(ride);
+                    }
+                    long start = System.nanoTime();
+                    for (int i = 0; i < visitors.length; i++) {
+                        ride.addVisitorToQueue(visitors[i]);
+                        if (i % 12 == 11) ride.runOneCycle();
+                    }
+                    long runNanos = System.nanoTime() - start;
+                    long syncNanos = 0;
+                    if (journal != null) {
+                        start = System.nanoTime();
+                        journal.sync();
+                        syncNanos = System.nanoTime() - start;
+                        journal.close();
+                    }
+                    System.out.printf("  round %d %-9s: %6.1f ns per admission and half-cycle, final sync %6.1f ms%n",
+                            round + 1, journaled ? "journal" : "no journal", (double) runNanos / entries,
+                            syncNanos / 1e6);
+                }
+                Ride recovered = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 6);
+                recovered.setEventSink(RideEventSink.NO_OP);
+                RideJournal journal = new RideJournal(directory);
+                journal.setSnapshotEvery(Math.max(1, entries / 2));
+                long start = System.nanoTime();
+                long replayed = journal.open(recovered);
+                long recoverNanos = System.nanoTime() - start;
+                journal.close();
+                System.out.printf("  round %d recovery : %6.1f ms, %d records replayed, queue %d, history %d, cycles %d%n",
+                        round + 1, recoverNanos / 1e6, replayed, recovered.getWaitingQueue().size(),
+                        recovered.numberOfVisitors(), recovered.getNumOfCycles());
+            }
+        } catch (IOException e) {
+            System.out.println("Error: Journal benchmark failed: " + e.getMessage());
+        } finally {
+            Person.setConstructorLogging(logging);
+            deleteDirectory(directory);
+        }
+    }
+
+    /**
+     * Periodic exports of a growing history: full rewrite compared with appending new rows
+     */
+    private static void runIncrementalExport(int rows) {
+        int delta = Math.max(1, rows / 500);
+        System.out.println("=== Incremental export (" + rows + " rows, then " + delta + " new rows per export) ===");
+        Visitor[] pool = createVisitorPool(VISITOR_POOL_SIZE);
+        Ride ride = new Ride("Bench Coaster", "Roller Coaster", 64, true, benchOperator(), 6);
+        ride.setEventSink(RideEventSink.NO_OP);
+        for (int i = 0; i < rows; i++) {
+            ride.getRideHistory().add(pool[i % pool.length]);
+        }
+        File full = new File(System.getProperty("java.io.tmpdir"), "ride-bench-full.csv");
+        File incremental = new File(System.getProperty("java.io.tmpdir"), "ride-bench-incremental.csv");
+        try {
+            ride.exportRideHistoryIncremental(incremental.getPath());
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < delta; i++) {
+                    ride.getRideHistory().add(pool[i % pool.length]);
+                }
+                long start = System.nanoTime();
+                ride.exportRideHistory(full.getPath());
+                long fullNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                ride.exportRideHistoryIncremental(incremental.getPath());
+                long incrementalNanos = System.nanoTime() - start;
+                System.out.printf("  round %d: full %8.1f ms, incremental %6.2f ms (%d rows appended)%n",
+                        round + 1, fullNanos / 1e6, incrementalNanos / 1e6,
+                        ride.getLastExportSummary().getRowCount());
+            }
+        } finally {
+            full.delete();
+            incremental.delete();
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * A history in which each visitor rides about four times, in random order
+     */
+    static Visitor[] createHistory(int entries) {
+        Visitor[] riders = createVisitorPool(Math.max(1, entries / 4));
+        Random random = new Random(42);
+        Visitor[] history = new Visitor[entries];
+        for (int i = 0; i < entries; i++) {
+            history[i] = riders[random.nextInt(riders.length)];
+        }
+        return history;
+    }
+
+    /**
+     * The original exportRideHistory row handling: PrintWriter and String.format
+     */
+    static void exportWithFormat(Ride ride, File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            writer.println("# Ride History Export for: " + ride.getRideName());
+            writer.println("# Export Date: " + new Date());
+            writer.println(RideHistoryCsvWriter.FORMAT_LINE);
+            for (Visitor visitor : ride.getRideHistory()) {
+                writer.println(String.format("%s,%d,%s,%s,%s,%b",
+                        escape(visitor.getName()), visitor.getAge(), escape(visitor.getGender()),
+                        escape(visitor.getVisitorId()), escape(visitor.getTicketType()), visitor.hasSeasonPass()));
+            }
+        }
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace(",", ";");
+    }
+
+    static void writeSampleCsv(File file, int lines) throws IOException {
+        String[] tickets = {"Premium", "Standard", "VIP", "Student"};
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath())) {
+            writer.write("# Ride History Export for: Benchmark\n");
+            writer.write("# Format: Name,Age,Gender,VisitorID,TicketType,HasSeasonPass\n");
+            for (int i = 0; i < lines; i++) {
+                writer.write("Bench Visitor " + i + "," + (10 + i % 60) + "," + (i % 2 == 0 ? "Male" : "Female")
+                        + ",B" + i + "," + tickets[i % tickets.length] + "," + (i % 3 == 0) + "\n");
+            }
+        }
+    }
+
+    /**
+     * The original importRideHistory line handling: readLine, split, trim, parseInt
+     */
+    private static long importWithSplit(File file) throws IOException {
+        long count = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty() || line.trim().startsWith("#")) continue;
+                String[] parts = line.split(",");
+                if (parts.length < 6) continue;
+                int age;
+                try {
+                    age = Integer.parseInt(parts[1].trim());
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Visitor visitor = new Visitor(parts[0].trim().replace(";", ","), age,
+                        parts[2].trim().replace(";", ","), parts[3].trim().replace(";", ","),
+                        parts[4].trim().replace(";", ","), Boolean.parseBoolean(parts[5].trim()));
+                if (visitor.getAge() >= 0) count++;
+            }
+        }
+        return count;
+    }
+
+    private static void joinAll(Thread[] threads) {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Measures heap cost per entry and iteration speed of one collection layout
+     * The same pooled visitors are reused so only the collection overhead is measured
+     */
+    private static void compareStorage(RideStorage storage, Visitor[] pool, int entries) {
+        long before = usedHeap();
+        Queue<Visitor> queue = storage.newQueue();
+        long start = System.nanoTime();
+        for (int i = 0; i < entries; i++) {
+            queue.offer(pool[i % pool.length]);
+        }
+        long fillNanos = System.nanoTime() - start;
+        long queueBytes = usedHeap() - before;
+        long queueIterNanos = timeQueueIteration(queue);
+
+        List<Visitor> drained = storage.newHistoryList();
+        start = System.nanoTime();
+        Visitor visitor;
+        while ((visitor = queue.poll()) != null) {
+            drained.add(visitor);
+        }
+        long drainNanos = System.nanoTime() - start;
+        drained.clear();
+        queue = null;
+
+        before = usedHeap();
+        List<Visitor> history = storage.newHistoryList();
+        for (int i = 0; i < entries; i++) {
+            history.add(pool[i % pool.length]);
+        }
+        long historyBytes = usedHeap() - before;
+        long historyIterNanos = timeHistoryIteration(history);
+
+        System.out.println(storage + ":");
+        System.out.printf("  queue   : %6.1f bytes/visitor, fill %s, iterate %s%n",
+                (double) queueBytes / entries, perEntry(fillNanos, entries), perEntry(queueIterNanos, entries));
+        System.out.printf("  history : %6.1f bytes/visitor, drain from queue %s, iterate %s%n",
+                (double) historyBytes / entries, perEntry(drainNanos, entries), perEntry(historyIterNanos, entries));
+        history.clear();
+    }
+
+    // Separate loops per collection kind keep each call site at two receiver types
+    private static long timeQueueIteration(Queue<Visitor> queue) {
+        long best = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (Visitor visitor : queue) {
+                checksum += visitor.getAge();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (checksum == 42) System.out.println();
+        return best;
+    }
+
+    private static long timeHistoryIteration(List<Visitor> history) {
+        long best = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (Visitor visitor : history) {
+                checksum += visitor.getAge();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (checksum == 42) System.out.println();
+        return best;
+    }
+
+    private static String perEntry(long nanos, int entries) {
+        return String.format("%.2f ns/visitor", (double) nanos / entries);
+    }
+
+    /**
+     * Used heap after asking for a full collection
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    static Employee benchOperator() {
+        boolean logging = Person.isConstructorLogging();
+        Person.setConstructorLogging(false);
+        try {
+            return new Employee("Bench Operator", 30, "Female", "EB001", "Ride Operations", "Operator");
+        } finally {
+            Person.setConstructorLogging(logging);
+        }
+    }
+
+    /**
+     * Builds a pool of distinct visitors without the constructor console output
+     */
+    static Visitor[] createVisitorPool(int count) {
+        String[] tickets = {"Premium", "Standard", "VIP", "Student"};
+        Visitor[] pool = new Visitor[count];
+        boolean logging = Person.isConstructorLogging();
+        Person.setConstructorLogging(false);
+        try {
+            for (int i = 0; i < count; i++) {
+                pool[i] = new Visitor("Bench Visitor " + i, 10 + i % 60, i % 2 == 0 ? "Male" : "Female",
+                        "B" + i, tickets[i % tickets.length], i % 3 == 0);
+            }
+        } finally {
+            Person.setConstructorLogging(logging);
+        }
+        return pool;
+    }
+}
@@ -0,0 +1,832 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Behaviour checks for the ride classes, run as a program
+ * Each check throws if the behaviour is wrong. All checks run by default, or
+ * only the one named on the command line; the program exits with status 1 if
+ * any check failed, so it can gate a build. Timings belong in RideBenchmark
+ *
+ * Usage: java RideChecks [check]
+ */
+public class RideChecks {
+
+    /**
+     * One check; returns normally if the behaviour is right
+     */
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    private static final Map<String, Check> CHECKS = new LinkedHashMap<>();
+
+    static {
+        CHECKS.put("asyncsink", RideChecks::checkAsyncSink);
+        CHECKS.put("concurrent", RideChecks::checkConcurrentAdmission);
+        CHECKS.put("sort", RideChecks::checkSort);
+        CHECKS.put("parallelsort", RideChecks::checkParallelSort);
+        CHECKS.put("views", RideChecks::checkSortedViews);
+        CHECKS.put("viewfailure", RideChecks::checkViewComparatorFailure);
+        CHECKS.put("query", RideChecks::checkQueries);
+        CHECKS.put("lanes", RideChecks::checkLaneSettings);
+        CHECKS.put("csv", RideChecks::checkCsvRoundTrip);
+        CHECKS.put("export", RideChecks::checkExportMatchesOriginal);
+        CHECKS.put("binary", RideChecks::checkBinaryRoundTrip);
+        CHECKS.put("interning", RideChecks::checkInterning);
+        CHECKS.put("offheap", RideChecks::checkOffHeapHistory);
+        CHECKS.put("waits", RideChecks::checkWaitsPerQueueEntry);
+        CHECKS.put("simulation", RideChecks::checkSimulationDeterministic);
+        CHECKS.put("runner", RideChecks::checkParkRunnerDeterministic);
+        CHECKS.put("load", RideChecks::checkLoadGenerator);
+        CHECKS.put("journal", RideChecks::checkJournalReplay);
+        CHECKS.put("incremental", RideChecks::checkIncrementalExport);
+    }
+
+    public static void main(String[] args) {
+        String only = args.length > 0 ? args[0] : "all";
+        if (!only.equals("all") && !CHECKS.containsKey(only)) {
+            System.out.println("Unknown check: " + only + ", expected one of " + CHECKS.keySet());
+            System.exit(2);
+        }
+        boolean logging = Person.isConstructorLogging();
+        Person.setConstructorLogging(false);
+        int run = 0;
+        int failed = 0;
+        try {
+            for (Map.Entry<String, Check> check : CHECKS.entrySet()) {
+                if (!only.equals("all") && !only.equals(check.getKey())) continue;
+                run++;
+                try {
+                    check.getValue().run();
+                    System.out.println("PASS " + check.getKey());
+                } catch (Exception | AssertionError e) {
+                    failed++;
+                    System.out.println("FAIL " + check.getKey() + ": " + e);
+                }
+            }
+        } finally {
+            Person.setConstructorLogging(logging);
+        }
+        System.out.println((run - failed) + " of " + run + " checks passed");
+        if (failed > 0) System.exit(1);
+    }
+
+    /**
+     * Every event emitted from several threads reaches the delegate once or is
+     * counted as dropped, and flush waits for the events accepted before it
+     */
+    private static void checkAsyncSink() throws InterruptedException {
+        RideEvent event = new RideEvent(RideEvent.Type.HISTORY_ADDED, "Check Coaster", null,
+                                        0, 0, 0, 0, 0, null, null);
+        for (int capacity : new int[] {8, 1 << 16}) {
+            AtomicLong received = new AtomicLong();
+            RideEventSink counting = new RideEventSink() {
+                @Override
+                public boolean isEnabled(RideEvent.Type type) {
+                    return true;
+                }
+
+                @Override
+                public void onEvent(RideEvent delivered) {
+                    received.incrementAndGet();
+                }
+            };
+            try (RideEventSink.Async sink = new RideEventSink.Async(counting, capacity)) {
+                int producers = 4;
+                int perProducer = 50_000;
+                Thread[] threads = new Thread[producers];
+                for (int p = 0; p < producers; p++) {
+                    threads[p] = new Thread(() -> {
+                        for (int i = 0; i < perProducer; i++) {
+                            sink.onEvent(event);
+                        }
+                    });
+                    threads[p].start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                expect(sink.flush(10, TimeUnit.SECONDS), "async sink flush timed out with capacity " + capacity);
+                expect(received.get() + sink.getDroppedCount() == (long) producers * perProducer,
+                       "async sink delivered " + received.get() + " and dropped " + sink.getDroppedCount()
+                       + " of " + producers * perProducer + " events with capacity " + capacity);
+            }
+        }
+
+        RideEventSink slow = new RideEventSink() {
+            @Override
+            public boolean isEnabled(RideEvent.Type type) {
+                return true;
+            }
+
+            @Override
+            public void onEvent(RideEvent delivered) {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try (RideEventSink.Async sink = new RideEventSink.Async(slow, 4)) {
+            sink.onEvent(event);
+            expect(!sink.flush(10, TimeUnit.MILLISECONDS), "async sink flush ignored its deadline");
+            expect(sink.flush(5, TimeUnit.SECONDS), "async sink flush missed a delivered event");
+        }
+    }
+
+    /**
+     * Producer threads admit visitors while the main thread runs cycles;
+     * every visitor must board exactly once
+     */
+    private static void checkConcurrentAdmission() {
+        Visitor[] visitors = RideBenchmark.createVisitorPool(200_000);
+        for (int producers : new int[] {1, 4, 16}) {
+            ConcurrentRide ride = new ConcurrentRide("Stress Coaster", "Roller Coaster", 64, true,
+                                                     RideBenchmark.benchOperator(), 64);
+            ride.setEventSink(RideEventSink.NO_OP);
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++) {
+                final int first = p;
+                threads[p] = new Thread(() -> {
+                    for (int i = first; i < visitors.length; i += producers) {
+                        ride.addVisitorToQueue(visitors[i]);
+                    }
+                });
+                threads[p].start();
+            }
+            while (ride.numberOfVisitors() < visitors.length) {
+                ride.runUntilEmpty();
+            }
+            for (Thread thread : threads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted");
+                }
+            }
+            expect(ride.numberOfVisitors() == visitors.length
+                   && ride.getRideHistory().distinctVisitors() == visitors.length
+                   && ride.getWaitingQueue().isEmpty(),
+                   "lost or duplicated visitors with " + producers + " producers");
+        }
+    }
+
+    /**
+     * The packed-key sorter gives the same order as Arrays.sort
+     */
+    private static void checkSort() {
+        Visitor[] history = RideBenchmark.createHistory(200_000);
+        for (Comparator<Visitor> comparator : builtInComparators()) {
+            Visitor[] expected = history.clone();
+            Arrays.sort(expected, comparator);
+            Visitor[] actual = history.clone();
+            RideHistorySorter.sort(actual, comparator);
+            expectSameOrder(expected, actual, comparator);
+        }
+    }
+
+    /**
+     * A parallel sort gives the same order as a sequential one, including ties
+     * under a user comparator
+     */
+    private static void checkParallelSort() {
+        Visitor[] history = RideBenchmark.createHistory(200_000);
+        List<Comparator<Visitor>> comparators = new ArrayList<>(builtInComparators());
+        comparators.add(Comparator.comparing(Visitor::getTicketType));
+        for (Comparator<Visitor> comparator : comparators) {
+            Visitor[] sequential = history.clone();
+            RideHistorySorter.sort(sequential, comparator, false);
+            Visitor[] parallel = history.clone();
+            RideHistorySorter.sort(parallel, comparator, true);
+            expectSameOrder(sequential, parallel, comparator);
+        }
+    }
+
+    /**
+     * A sorted view registered part-way matches a sorted copy of the history
+     */
+    private static void checkSortedViews() {
+        Visitor[] visitors = RideBenchmark.createHistory(20_000);
+        Ride ride = newRide(RideStorage.ARRAY);
+        for (int i = 0; i < visitors.length / 2; i++) {
+            ride.addVisitorToHistory(visitors[i]);
+        }
+        VisitorComparator comparator = new VisitorComparator();
+        SortedHistoryView view = ride.registerSortedView(comparator);
+        for (int i = visitors.length / 2; i < visitors.length; i++) {
+            ride.addVisitorToHistory(visitors[i]);
+        }
+        Visitor[] expected = visitors.clone();
+        Arrays.sort(expected, comparator);
+        expect(view.size() == expected.length, "view has " + view.size() + " of " + expected.length + " rows");
+        expectSameOrder(expected, view.page(0, view.size()).toArray(new Visitor[0]), comparator);
+    }
+
+    /**
+     * A visitor that one view's comparator rejects is added nowhere, and the
+     * history, index and views stay in step afterwards
+     */
+    private static void checkViewComparatorFailure() {
+        Visitor[] visitors = RideBenchmark.createHistory(2_000);
+        Ride ride = newRide(RideStorage.ARRAY);
+        for (int i = 0; i < 1_000; i++) {
+            ride.addVisitorToHistory(visitors[i]);
+        }
+        VisitorComparator byAge = new VisitorComparator();
+        Comparator<Visitor> byGender = Comparator.comparing(Visitor::getGender);
+        SortedHistoryView ageView = ride.registerSortedView(byAge);
+        SortedHistoryView genderView = ride.registerSortedView(byGender);
+        Visitor noGender = new Visitor("No Gender", 30, null, "NG1", "Standard", false, false);
+        try {
+            ride.addVisitorToHistory(noGender);
+            throw new IllegalStateException("comparator on a null gender did not throw");
+        } catch (NullPointerException expected) {
+            // the gender view rejects the visitor after the age view took it
+        }
+        expect(ride.numberOfVisitors() == 1_000 && ride.getVisitorRideCount("NG1") == 0,
+               "history or index kept the rejected visitor");
+        expect(ageView.size() == 1_000 && genderView.size() == 1_000, "views kept the rejected visitor");
+
+        for (int i = 1_000; i < visitors.length; i++) {
+            ride.addVisitorToHistory(visitors[i]);
+        }
+        Visitor[] byAgeExpected = visitors.clone();
+        Arrays.sort(byAgeExpected, byAge);
+        expectSameOrder(byAgeExpected, ageView.page(0, ageView.size()).toArray(new Visitor[0]), byAge);
+        Visitor[] byGenderExpected = visitors.clone();
+        Arrays.sort(byGenderExpected, byGender);
+        expectSameOrder(byGenderExpected, genderView.page(0, genderView.size()).toArray(new Visitor[0]), byGender);
+    }
+
+    /**
+     * Top-K matches the head of a full sort, and filtered pages hold only matching rows
+     */
+    private static void checkQueries() {
+        Visitor[] visitors = RideBenchmark.createHistory(20_000);
+        Ride ride = newRide(RideStorage.ARRAY);
+        for (Visitor visitor : visitors) {
+            ride.addVisitorToHistory(visitor);
+        }
+        VisitorComparator comparator = new VisitorComparator();
+        Visitor[] sorted = visitors.clone();
+        Arrays.sort(sorted, comparator);
+        List<Visitor> youngest = ride.queryHistory().top(20, comparator);
+        expectSameOrder(Arrays.copyOf(sorted, 20), youngest.toArray(new Visitor[0]), comparator);
+        List<Visitor> page = ride.queryHistory().withTicketType("VIP").withSeasonPass(true).page(100, 50);
+        expect(page.size() == 50, "filtered page has " + page.size() + " rows");
+        for (Visitor visitor : page) {
+            expect("VIP".equals(visitor.getTicketType()) && visitor.hasSeasonPass(),
+                   "filtered page holds " + describe(visitor));
+        }
+    }
+
+    /**
+     * A CSV export reads back the same rows through the streaming and the
+     * memory-mapped parallel importers, also with \r or \r\n line ends and
+     * several segments
+     */
+    /**
+     * Fast-pass lanes are refused on an indexed queue, and invalid lane, cycle
+     * and rotation settings throw instead of being ignored
+     */
+    private static void checkLaneSettings() {
+        Ride indexed = newRide(RideStorage.INDEXED);
+        for (int i = 0; i < 10; i++) {
+            indexed.addVisitorToQueue(new Visitor("Lane Visitor", 30, "Female", "L" + i, "VIP", i % 2 == 0, false));
+        }
+        expectThrows(IllegalStateException.class, () -> indexed.useFastPassLanes(2, 1), "lanes on an indexed queue");
+        expect(indexed.getLanes() == null && indexed.getWaitingQueue() instanceof IndexedVisitorQueue
+               && indexed.getQueuePosition("L7") == 8, "refused lanes changed the indexed queue");
+
+        Ride ride = newRide(RideStorage.ARRAY);
+        expectThrows(IllegalArgumentException.class, () -> ride.useFastPassLanes(0, 0), "lane weights 0:0");
+        expectThrows(IllegalArgumentException.class, () -> ride.useFastPassLanes(-1, 1), "a negative lane weight");
+        expectThrows(IllegalArgumentException.class, () -> ride.setCycleDurationMillis(-1), "a negative cycle");
+        expectThrows(IllegalArgumentException.class, () -> ride.setExportRotation(-1, 0), "a negative rotation size");
+        expect(ride.getLanes() == null, "invalid lane weights set up lanes");
+        ride.useFastPassLanes(2, 1);
+        expect(ride.getLanes() != null, "valid lane weights did not set up lanes");
+    }
+
+    private static void checkCsvRoundTrip() throws IOException {
+        Ride ride = newRide(RideStorage.ARRAY);
+        for (Visitor visitor : RideBenchmark.createVisitorPool(50_000)) {
+            ride.addVisitorToHistory(visitor);
+        }
+        File file = File.createTempFile("ride-checks", ".csv");
+        try {
+            ride.exportRideHistory(file.getPath());
+            Ride streamed = newRide(RideStorage.ARRAY);
+            streamed.importRideHistory(file.getPath());
+            expectSameRows(ride.getRideHistory(), streamed.getRideHistory(), "streaming import");
+            Ride parallel = newRide(RideStorage.ARRAY);
+            parallel.importRideHistoryParallel(file.getPath());
+            expectSameRows(ride.getRideHistory(), parallel.getRideHistory(), "parallel import");
+            // More segments than one worker keeps in flight, so later ones are submitted as earlier ones merge
+            List<Visitor> windowed = new ArrayList<>();
+            new ParallelCsvImporter(1).importFile(file.getPath(), windowed::add);
+            expectSameRows(ride.getRideHistory(), windowed, "parallel import with one worker");
+
+            String exported = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+            String[][] lineEnds = {{"\r", "CR"}, {"\r\n", "CRLF"}};
+            for (String[] lineEnd : lineEnds) {
+                Files.write(file.toPath(), exported.replace("\n", lineEnd[0]).getBytes(StandardCharsets.UTF_8));
+                List<Visitor> segmented = new ArrayList<>();
+                ImportSummary summary = new ParallelCsvImporter(8).importFile(file.getPath(), segmented::add);
+                expectSameRows(ride.getRideHistory(), segmented, "parallel import of " + lineEnd[1] + " lines");
+                expect(summary.getSkippedCount() == 0, "parallel import of " + lineEnd[1] + " lines skipped some");
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * The buffered export writes the same rows as the original PrintWriter and
+     * String.format export, commas in text fields included
+     */
+    private static void checkExportMatchesOriginal() throws IOException {
+        Ride ride = newRide(RideStorage.ARRAY);
+        for (Visitor visitor : RideBenchmark.createHistory(20_000)) {
+            ride.addVisitorToHistory(visitor);
+        }
+        ride.addVisitorToHistory(new Visitor("Smith, Jo", 41, "Female", "C1", "VIP, Plus", true, false));
+        File original = File.createTempFile("ride-checks-original", ".csv");
+        File buffered = File.createTempFile("ride-checks-buffered", ".csv");
+        try {
+            RideBenchmark.exportWithFormat(ride, original);
+            ride.exportRideHistory(buffered.getPath(), false);
+            expect(csvRows(original).equals(csvRows(buffered)), "buffered export rows differ from the original");
+        } finally {
+            original.delete();
+            buffered.delete();
+        }
+    }
+
+    /**
+     * A binary export reads back the same rows
+     */
+    private static void checkBinaryRoundTrip() throws IOException {
+        Ride ride = newRide(RideStorage.ARRAY);
+        for (Visitor visitor : RideBenchmark.createHistory(50_000)) {
+            ride.addVisitorToHistory(visitor);
+        }
+        File file = File.createTempFile("ride-checks", ".bin");
+        try {
+            ride.exportRideHistoryBinary(file.getPath());
+            Ride loaded = newRide(RideStorage.ARRAY);
+            loaded.importRideHistoryBinary(file.getPath());
+            expectSameRows(ride.getRideHistory(), loaded.getRideHistory(), "binary import");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Waits are measured from each queue entry's own join, when one visitor
+     * waits in two rides or twice in one ride, through runOneCycle, runCycles
+     * and a switch to fast-pass lanes
+     */
+    private static void checkWaitsPerQueueEntry() throws InterruptedException {
+        long gap = 30_000_000;
+        Visitor guest = new Visitor("Repeat Guest", 30, "Female", "RG1", "VIP", false, false);
+        Ride single = newRide(RideStorage.ARRAY);
+        Ride batch = newRide(RideStorage.LINKED_LIST);
+        Ride other = newRide(RideStorage.INDEXED);
+        Ride lanes = newRide(RideStorage.CONCURRENT);
+        single.addVisitorToQueue(guest);
+        batch.addVisitorToQueue(guest);
+        other.addVisitorToQueue(guest);
+        lanes.addVisitorToQueue(guest);
+        Thread.sleep(gap / 1_000_000);
+        single.addVisitorToQueue(guest);
+        batch.addVisitorToQueue(guest);
+        lanes.useFastPassLanes(2, 1);
+        expect(other.getCurrentWaitNanos("RG1") >= gap, "current wait restarted by an admission to another ride");
+        expect(lanes.getCurrentWaitNanos("RG1") >= gap, "current wait restarted by the switch to lanes");
+
+        single.runOneCycle();
+        batch.runCycles(1);
+        for (Ride ride : new Ride[] {single, batch}) {
+            BoardingLog log = ride.getRideHistory().getBoardingLog();
+            expect(log.size() == 2, ride.getRideName() + " logged " + log.size() + " boardings");
+            expect(log.waitNanos(0) - log.waitNanos(1) >= gap, "both entries of one visitor logged the same wait");
+            LatencyHistogram waits = ride.getMetrics().getWaitNanos();
+            expect(waits.count() == 2 && waits.max() >= gap, "metrics recorded " + waits.count()
+                   + " waits, longest " + waits.max() + " ns");
+        }
+    }
+
+    /**
+     * Gender and ticket type are shared String instances, whether a visitor is
+     * built from fresh Strings or read back from a CSV or binary export
+     */
+    private static void checkInterning() throws IOException {
+        Ride ride = newRide(RideStorage.ARRAY);
+        for (int i = 0; i < 1_000; i++) {
+            ride.addVisitorToHistory(new Visitor("Interned Visitor " + i, 20 + i % 40, new String("Female"),
+                                                 "IN" + i, new String(i % 2 == 0 ? "VIP" : "Standard"), false, false));
+        }
+        expectInterned(ride.getRideHistory(), "new visitors");
+        File file = File.createTempFile("ride-checks", ".csv");
+        try {
+            ride.exportRideHistory(file.getPath());
+            Ride streamed = newRide(RideStorage.ARRAY);
+            streamed.importRideHistory(file.getPath());
+            expectInterned(streamed.getRideHistory(), "CSV import");
+            ride.exportRideHistoryBinary(file.getPath());
+            Ride loaded = newRide(RideStorage.ARRAY);
+            loaded.importRideHistoryBinary(file.getPath());
+            expectInterned(loaded.getRideHistory(), "binary import");
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void expectInterned(Iterable<Visitor> visitors, String what) {
+        for (Visitor visitor : visitors) {
+            expect(visitor.getGender() == VisitorDictionary.GENDERS.intern("Female")
+                   && visitor.getTicketType() == VisitorDictionary.TICKET_TYPES.intern(visitor.getTicketType()),
+                   what + " holds its own copy of a field in " + describe(visitor));
+        }
+    }
+
+    /**
+     * The off-heap history sorts like a list of Visitor objects, copies records
+     * that later changes do not reach, and leaves its ride counts alone when a
+     * field runs out of codes
+     */
+    private static void checkOffHeapHistory() {
+        List<Visitor> history = new ArrayList<>(Arrays.asList(RideBenchmark.createHistory(50_000)));
+        String[] names = {"alice", "Alice", "ALICE", "\u00c9mile", "\u00e9mile", "Zo\u00eb", "zoe", "Bob_", "bob["};
+        for (int i = 0; i < 200; i++) {
+            history.add(new Visitor(names[i % names.length], 30 + i % 3, "Female", "OH" + i,
+                                    (i % 2 == 0) ? "vip" : "VIP", i % 5 == 0));
+        }
+        for (Comparator<Visitor> comparator : builtInComparators()) {
+            for (boolean parallel : new boolean[] {false, true}) {
+                List<Visitor> expected = new ArrayList<>(history);
+                expected.sort(comparator);
+                OffHeapVisitorList actual = new OffHeapVisitorList();
+                actual.addAll(history);
+                actual.sort(comparator, parallel);
+                expectSameRows(expected, actual, "off-heap sort by " + comparator.getClass().getSimpleName());
+            }
+        }
+
+        OffHeapVisitorList list = new OffHeapVisitorList();
+        list.addAll(history);
+        try {
+            list.sort(Comparator.comparing(Visitor::getTicketType));
+            expect(false, "off-heap history sorted by a user comparator");
+        } catch (UnsupportedOperationException expected) {
+            expectSameRows(history, list, "off-heap history after a refused sort");
+        }
+        List<Visitor> copy = list.copyOf(100);
+        list.set(100, history.get(0));
+        list.clear();
+        expectSameRows(history.subList(100, history.size()), copy, "off-heap copy");
+
+        Ride ride = newRide(RideStorage.OFF_HEAP);
+        for (int i = 0; i < 0x7FFF; i++) {
+            ride.addVisitorToHistory(new Visitor("Coded Visitor", 40, "G" + i, "CV" + i, "T" + i, false));
+        }
+        RideHistory rides = ride.getRideHistory();
+        int distinct = rides.distinctVisitors();
+        Visitor[] overflowing = {
+            new Visitor("Coded Visitor", 40, "G-new", "CV-new", "T0", false),
+            new Visitor("Coded Visitor", 40, "G0", "CV-new", "T-new", false)
+        };
+        for (Visitor visitor : overflowing) {
+            try {
+                ride.addVisitorToHistory(visitor);
+                expect(false, "off-heap history took a field value past its code limit");
+            } catch (IllegalStateException expected) {
+                expect(rides.size() == 0x7FFF && rides.distinctVisitors() == distinct
+                       && rides.countRides("CV-new") == 0 && !rides.contains("CV-new"),
+                       "a rejected off-heap entry changed the ride counts");
+            }
+        }
+
+        OffHeapVisitorList full = new OffHeapVisitorList();
+        for (int i = 0; i < 0x7FFF; i++) {
+            full.add(new Visitor("Coded Visitor", 40, "G", "CV" + i, "T" + i, false));
+        }
+        try {
+            full.set(0, overflowing[1]);
+            expect(false, "off-heap set took a field value past its code limit");
+        } catch (IllegalStateException expected) {
+            expect(full.countRides("CV0") == 1 && full.countRides("CV-new") == 0
+                   && full.distinctVisitorIds() == 0x7FFF && full.get(0).getVisitorId().equals("CV0"),
+                   "a rejected off-heap set changed the entry or the ride counts");
+        }
+    }
+
+    /**
+     * The same seed gives the same simulated day
+     */
+    private static void checkSimulationDeterministic() {
+        long[] boarded = new long[2];
+        for (int round = 0; round < 2; round++) {
+            ParkSimulation park = new ParkSimulation(2024);
+            park.setOpening(3_600_000L, 50_000);
+            park.setBreakdowns(600_000L, 60_000L);
+            Random sizes = new Random(7);
+            for (int i = 0; i < 20; i++) {
+                Ride ride = new Ride("Ride " + (i + 1), "Attraction", 64, true, RideBenchmark.benchOperator(),
+                                     8 + sizes.nextInt(40));
+                ride.setEventSink(RideEventSink.NO_OP);
+                park.addRide(ride, 60_000 + sizes.nextInt(120_000), 1 + sizes.nextInt(10));
+            }
+            boarded[round] = park.run().getBoarded();
+        }
+        expect(boarded[0] == boarded[1], "boarded " + boarded[0] + " then " + boarded[1]);
+    }
+
+    /**
+     * Histories and queues are the same whatever the number of worker threads
+     */
+    private static void checkParkRunnerDeterministic() {
+        long expected = 0;
+        for (int threads : new int[] {1, 2, 4}) {
+            ParkRunner park = new ParkRunner(2024);
+            park.setFlow(1000, 200, 0.8);
+            List<Ride> rides = new ArrayList<>();
+            Random sizes = new Random(7);
+            for (int i = 0; i < 32; i++) {
+                Ride ride = new Ride("Ride " + (i + 1), "Attraction", 64, true, RideBenchmark.benchOperator(),
+                                     8 + sizes.nextInt(40));
+                ride.setEventSink(RideEventSink.NO_OP);
+                park.addRide(ride, 60 + sizes.nextInt(120), 1 + sizes.nextInt(10));
+                rides.add(ride);
+            }
+            park.run(600, threads);
+            long fingerprint = 1;
+            for (Ride ride : rides) {
+                for (Visitor visitor : ride.getRideHistory()) {
+                    fingerprint = fingerprint * 31 + visitor.getVisitorId().hashCode();
+                }
+                for (Visitor visitor : ride.getWaitingQueue()) {
+                    fingerprint = fingerprint * 37 + visitor.getVisitorId().hashCode();
+                }
+            }
+            if (threads == 1) {
+                expected = fingerprint;
+            } else {
+                expect(fingerprint == expected, "different result with " + threads + " threads");
+            }
+        }
+    }
+
+    /**
+     * Every guest of the load generator is admitted and boarded once per ride
+     * they queue for, with nobody left waiting
+     */
+    private static void checkLoadGenerator() throws InterruptedException {
+        AdmissionLoadGenerator generator = new AdmissionLoadGenerator();
+        generator.setGuestBehaviour(3, 0);
+        List<ConcurrentRide> rides = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ConcurrentRide ride = new ConcurrentRide("Load Ride " + (i + 1), "Attraction", 64, true,
+                                                     RideBenchmark.benchOperator(), 16);
+            ride.setEventSink(RideEventSink.NO_OP);
+            generator.addRide(ride);
+            rides.add(ride);
+        }
+        LoadReport report = generator.run(2_000);
+        long boarded = 0;
+        for (ConcurrentRide ride : rides) {
+            boarded += ride.numberOfVisitors();
+            expect(ride.getWaitingQueue().isEmpty(), ride.getRideName() + " still has guests waiting");
+        }
+        expect(report.getAdmissions() == 6_000, "admitted " + report.getAdmissions() + " of 6000 rides");
+        expect(boarded == 6_000, "boarded " + boarded + " of 6000 rides");
+    }
+
+    /**
+     * A ride recovered from its journal has the queue, history and cycle count
+     * it had when the journal was closed, across snapshots and a sort
+     */
+    private static void checkJournalReplay() throws IOException {
+        File directory = Files.createTempDirectory("ride-checks-journal").toFile();
+        try {
+            for (RideStorage storage : new RideStorage[] {RideStorage.ARRAY, RideStorage.INDEXED,
+                                                          RideStorage.OFF_HEAP}) {
+                deleteFiles(directory);
+                Ride ride = newRide(storage);
+                RideJournal journal = new RideJournal(directory);
+                journal.setSnapshotEvery(1_000);
+                journal.open(ride);
+                Random random = new Random(42);
+                int id = 0;
+                for (int step = 0; step < 20_000; step++) {
+                    int op = random.nextInt(20);
+                    if (op < 10) {
+                        ride.addVisitorToQueue(new Visitor("Journal Visitor " + id, 10 + id % 50, "Female",
+                                                           "J" + id++, "Standard", id % 5 == 0, false));
+                    } else if (op < 14) {
+                        ride.runOneCycle();
+                    } else if (op == 14) {
+                        ride.runCycles(3);
+                    } else if (op == 15) {
+                        ride.removeVisitorFromQueue();
+                    } else if (op == 16) {
+                        ride.removeVisitorFromQueue("J" + random.nextInt(id + 1));
+                    } else if (op == 17) {
+                        ride.addVisitorToHistory(new Visitor("History Visitor", 40, "Male", "H" + id++, "VIP",
+                                                             true, false));
+                    } else if (op == 18 && random.nextInt(100) == 0) {
+                        ride.sortRideHistory(new VisitorComparator());
+                    }
+                }
+                journal.close();
+
+                Ride recovered = newRide(storage);
+                RideJournal reopened = new RideJournal(directory);
+                reopened.open(recovered);
+                reopened.close();
+                expectSameRows(ride.getRideHistory(), recovered.getRideHistory(), storage + " history");
+                expectSameRows(ride.getWaitingQueue(), recovered.getWaitingQueue(), storage + " queue");
+                expect(ride.getNumOfCycles() == recovered.getNumOfCycles(), storage + " recovered "
+                       + recovered.getNumOfCycles() + " of " + ride.getNumOfCycles() + " cycles");
+            }
+        } finally {
+            deleteFiles(directory);
+            directory.delete();
+        }
+    }
+
+    /**
+     * Incremental exports, read in rotation order, hold the same rows as a full
+     * export, across appends, a sort and rotation, and after a restart on a
+     * directory that already has rotated files
+     */
+    private static void checkIncrementalExport() throws IOException {
+        File directory = Files.createTempDirectory("ride-checks-export").toFile();
+        try {
+            File file = new File(directory, "history.csv");
+            File full = new File(directory, "full.csv");
+            Ride ride = newRide(RideStorage.ARRAY);
+            Visitor[] pool = RideBenchmark.createVisitorPool(1_000);
+            for (int i = 0; i < 1_000; i++) {
+                ride.addVisitorToHistory(pool[i]);
+            }
+            ride.exportRideHistoryIncremental(file.getPath());
+            expect(ride.getLastExportSummary().getRowCount() == 1_000, "first export wrote "
+                   + ride.getLastExportSummary().getRowCount() + " rows");
+            ride.addVisitorToHistory(pool[0]);
+            ride.exportRideHistoryIncremental(file.getPath());
+            expect(ride.getLastExportSummary().getRowCount() == 1, "second export wrote "
+                   + ride.getLastExportSummary().getRowCount() + " rows");
+            ride.exportRideHistory(full.getPath());
+            expect(csvRows(full).equals(csvRows(exportFiles(file))), "appended export differs");
+
+            ride.sortRideHistory(new VisitorComparator());
+            ride.exportRideHistoryIncremental(file.getPath());
+            ride.exportRideHistory(full.getPath());
+            expect(csvRows(full).equals(csvRows(exportFiles(file))), "export after sort differs");
+
+            ride.setExportRotation(10_000, 0);
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 300; i++) {
+                    ride.addVisitorToHistory(pool[i]);
+                }
+                ride.exportRideHistoryIncremental(file.getPath());
+            }
+            List<File> files = exportFiles(file);
+            expect(files.size() > 1, "no rotation after 5 exports");
+            ride.exportRideHistory(full.getPath());
+            expect(csvRows(full).equals(csvRows(files)), "rotated export differs");
+
+            // A restarted ride starts a new exporter; a file.N from some older run is there too
+            File stale = new File(file.getPath() + ".9");
+            Files.write(stale.toPath(), List.of("Stale Visitor,30,Male,S1,VIP,false"), StandardCharsets.UTF_8);
+            Ride restarted = newRide(RideStorage.ARRAY);
+            for (Visitor visitor : ride.getRideHistory()) {
+                restarted.addVisitorToHistory(visitor);
+            }
+            restarted.setExportRotation(10_000, 0);
+            restarted.exportRideHistoryIncremental(file.getPath());
+            expect(exportFiles(file).size() == 1 && !stale.exists(), "rotated files left after restart");
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 300; i++) {
+                    restarted.addVisitorToHistory(pool[i]);
+                }
+                restarted.exportRideHistoryIncremental(file.getPath());
+            }
+            restarted.exportRideHistory(full.getPath());
+            files = exportFiles(file);
+            expect(files.size() > 1, "no rotation after restart");
+            expect(csvRows(full).equals(csvRows(files)), "rotated export after restart differs");
+        } finally {
+            deleteFiles(directory);
+            directory.delete();
+        }
+    }
+
+    private static Ride newRide(RideStorage storage) {
+        Ride ride = new Ride("Check Coaster", "Roller Coaster", 64, true, RideBenchmark.benchOperator(), 6, storage);
+        ride.setEventSink(RideEventSink.NO_OP);
+        return ride;
+    }
+
+    private static List<Comparator<Visitor>> builtInComparators() {
+        return Arrays.asList(new VisitorComparator(), new VisitorComparator.ByTicketTypeAndAge(),
+                             new VisitorComparator.BySeasonPassAndName());
+    }
+
+    /**
+     * The rotated files of an incremental export in the order they were written, then the current file
+     */
+    private static List<File> exportFiles(File file) {
+        List<File> files = new ArrayList<>();
+        for (int n = 1; ; n++) {
+            File rotated = new File(file.getPath() + "." + n);
+            if (!rotated.isFile()) break;
+            files.add(rotated);
+        }
+        files.add(file);
+        return files;
+    }
+
+    // Data rows of CSV exports, without the header and comment lines
+    private static List<String> csvRows(File file) throws IOException {
+        return csvRows(List.of(file));
+    }
+
+    private static List<String> csvRows(List<File> files) throws IOException {
+        List<String> rows = new ArrayList<>();
+        for (File file : files) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.startsWith("#")) rows.add(line);
+            }
+        }
+        return rows;
+    }
+
+    private static void deleteFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    private static String describe(Visitor visitor) {
+        return visitor.getVisitorId() + "/" + visitor.getName() + "/" + visitor.getAge() + "/" + visitor.getGender()
+               + "/" + visitor.getTicketType() + "/" + visitor.hasSeasonPass();
+    }
+
+    private static void expectSameRows(Iterable<Visitor> expected, Iterable<Visitor> actual, String what) {
+        Iterator<Visitor> left = expected.iterator();
+        Iterator<Visitor> right = actual.iterator();
+        int row = 0;
+        while (left.hasNext() && right.hasNext()) {
+            String want = describe(left.next());
+            String got = describe(right.next());
+            expect(want.equals(got), what + " row " + row + ": expected " + want + ", got " + got);
+            row++;
+        }
+        expect(!left.hasNext() && !right.hasNext(), what + " has a different number of rows, first "
+               + (left.hasNext() ? "missing" : "extra") + " at " + row);
+    }
+
+    private static void expectSameOrder(Visitor[] expected, Visitor[] actual, Comparator<Visitor> comparator) {
+        expect(expected.length == actual.length, "sorted " + actual.length + " of " + expected.length + " entries");
+        for (int i = 0; i < expected.length; i++) {
+            expect(expected[i] == actual[i], "sorted order differs at " + i + " for "
+                   + comparator.getClass().getSimpleName());
+        }
+    }
+
+    private static void expectThrows(Class<? extends RuntimeException> type, Runnable action, String what) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            expect(type.isInstance(e), what + " threw " + e + " instead of " + type.getSimpleName());
+            return;
+        }
+        throw new IllegalStateException(what + " was accepted");
+    }
+
+    private static void expect(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Typed event emitted by a Ride to its RideEventSink
+ * Carries raw values only; any text is produced by the sink that consumes it
+ */
+public class RideEvent {
+    /**
+     * Kinds of events a ride can emit
+     */
+    public enum Type {
+        // Queue events
+        QUEUE_ADDED,
+        QUEUE_ADD_REJECTED,
+        QUEUE_ADD_FAILED,
+        QUEUE_REMOVED,
+        QUEUE_REMOVE_REJECTED,
+        QUEUE_REMOVE_NOT_FOUND,
+
+        // History events
+        HISTORY_ADDED,
+        HISTORY_ADD_REJECTED,
+        HISTORY_CHECK_REJECTED,
+        HISTORY_SORTED,
+        HISTORY_SORT_SKIPPED,
+
+        // Cycle events
+        CYCLE_ATTEMPTED,
+        CYCLE_REJECTED_NO_OPERATOR,
+        CYCLE_REJECTED_EMPTY_QUEUE,
+        CYCLE_REJECTED_NOT_OPERATIONAL,
+        CYCLE_STARTED,
+        RIDER_BOARDED,
+        CYCLE_COMPLETED,
+        CYCLES_BATCH_COMPLETED,
+
+        // Export events
+        EXPORT_STARTED,
+        EXPORT_COMPLETED,
+        EXPORT_FAILED,
+        EXPORT_FILE_CLOSED,
+        EXPORT_CLOSE_FAILED,
+        EXPORT_FINISHED,
+
+        // Import events
+        IMPORT_STARTED,
+        IMPORT_READING,
+        IMPORT_LINE_INSUFFICIENT_FIELDS,
+        IMPORT_LINE_INVALID_AGE,
+        IMPORT_LINE_FAILED,
+        IMPORT_COMPLETED,
+        IMPORT_FAILED,
+        IMPORT_FILE_CLOSED,
+        IMPORT_CLOSE_FAILED,
+        IMPORT_FINISHED
+    }
+
+    private final Type type;
+    private final String rideName;
+    private final Visitor visitor;
+    private final int count;
+    private final int skipped;
+    private final int lineNumber;
+    private final int queueSize;
+    private final int historySize;
+    private final String detail;
+    private final Throwable error;
+    private final long bytes;
+    private final long elapsedNanos;
+
+    /**
+     * Creates an event; fields that do not apply to the type are left as 0 or null
+     * @param type The kind of event
+     * @param rideName Name of the ride that emitted the event
+     * @param visitor Visitor the event is about, if any
+     * @param count Main count for the event (riders taken, visitors exported/imported, cycle number,
+     *              fields found on a short import line)
+     * @param skipped Number of skipped lines for import events
+     * @param lineNumber File line number for import line events
+     * @param queueSize Queue size at the time of the event
+     * @param historySize History size at the time of the event
+     * @param detail File name or the raw text that could not be parsed
+     * @param error Exception that caused a failure event
+     */
+    public RideEvent(Type type, String rideName, Visitor visitor, int count, int skipped, int lineNumber,
+                     int queueSize, int historySize, String detail, Throwable error) {
+        this(type, rideName, visitor, count, skipped, lineNumber, queueSize, historySize, detail, error, 0, 0);
+    }
+
+    /**
+     * Creates an event that also reports a data size and duration, e.g. export throughput
+     * @param bytes Number of bytes processed
+     * @param elapsedNanos Time taken in nanoseconds
+     */
+    public RideEvent(Type type, String rideName, Visitor visitor, int count, int skipped, int lineNumber,
+                     int queueSize, int historySize, String detail, Throwable error,
+                     long bytes, long elapsedNanos) {
+        this.type = type;
+        this.rideName = rideName;
+        this.visitor = visitor;
+        this.count = count;
+        this.skipped = skipped;
+        this.lineNumber = lineNumber;
+        this.queueSize = queueSize;
+        this.historySize = historySize;
+        this.detail = detail;
+        this.error = error;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public Type getType() { return type; }
+    public String getRideName() { return rideName; }
+    public Visitor getVisitor() { return visitor; }
+    public int getCount() { return count; }
+    public int getSkipped() { return skipped; }
+    public int getLineNumber() { return lineNumber; }
+    public int getQueueSize() { return queueSize; }
+    public int getHistorySize() { return historySize; }
+    public String getDetail() { return detail; }
+    public Throwable getError() { return error; }
+    public long getBytes() { return bytes; }
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    @Override
+    public String toString() {
+        return "RideEvent [Type: " + type + ", Ride: " + rideName + "]";
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Receiver for the typed events a Ride emits
+ * Rides check isEnabled before building an event, so a disabled type costs
+ * no allocation and no string concatenation on the hot path
+ */
+public interface RideEventSink {
+
+    /**
+     * Sink that discards every event
+     */
+    RideEventSink NO_OP = new NoOp();
+
+    /**
+     * Checks whether events of a type should be emitted at all
+     * @param type The event type about to be emitted
+     * @return true if the sink wants the event
+     */
+    boolean isEnabled(RideEvent.Type type);
+
+    /**
+     * Receives an event whose type is enabled
+     * @param event The event emitted by a ride
+     */
+    void onEvent(RideEvent event);
+
+    /**
+     * Sink that discards every event
+     */
+    class NoOp implements RideEventSink {
+        @Override
+        public boolean isEnabled(RideEvent.Type type) {
+            return false;
+        }
+
+        @Override
+        public void onEvent(RideEvent event) {
+        }
+    }
+
+    /**
+     * Sink that prints events to System.out as readable console messages
+     * This is the default sink of a Ride
+     */
+    class Console implements RideEventSink {
+        @Override
+        public boolean isEnabled(RideEvent.Type type) {
+            return type != RideEvent.Type.CYCLES_BATCH_COMPLETED;
+        }
+
+        @Override
+        public void onEvent(RideEvent event) {
+            String ride = event.getRideName();
+            Visitor visitor = event.getVisitor();
+            String file = event.getDetail();
+            Throwable error = event.getError();
+            switch (event.getType()) {
+                case QUEUE_ADDED:
+                    System.out.println("Success: Visitor " + visitor.getName() + " added to queue for ride: " + ride);
+                    break;
+                case QUEUE_ADD_REJECTED:
+                    System.out.println("Error: Cannot add null visitor to queue for ride: " + ride);
+                    break;
+                case QUEUE_ADD_FAILED:
+                    System.out.println("Error: Failed to add visitor to queue for ride: " + ride);
+                    break;
+                case QUEUE_REMOVED:
+                    System.out.println("Success: Visitor " + visitor.getName() + " removed from queue for ride: " + ride);
+                    break;
+                case QUEUE_REMOVE_REJECTED:
+                    System.out.println("Error: Cannot remove visitor from empty queue for ride: " + ride);
+                    break;
+                case QUEUE_REMOVE_NOT_FOUND:
+                    System.out.println("Error: Visitor " + event.getDetail() + " is not in the queue for ride: " + ride);
+                    break;
+                case HISTORY_ADDED:
+                    System.out.println("Success: Visitor " + visitor.getName() + " added to ride history for: " + ride);
+                    break;
+                case HISTORY_ADD_REJECTED:
+                    System.out.println("Error: Cannot add null visitor to ride history for ride: " + ride);
+                    break;
+                case HISTORY_CHECK_REJECTED:
+                    System.out.println("Error: Cannot check null visitor in ride history for: " + ride);
+                    break;
+                case HISTORY_SORTED:
+                    System.out.println("Success: Ride history sorted for: " + ride);
+                    break;
+                case HISTORY_SORT_SKIPPED:
+                    System.out.println("Info: Cannot sort empty ride history for: " + ride);
+                    break;
+                case CYCLE_ATTEMPTED:
+                    System.out.println("\nATTEMPTING TO RUN RIDE CYCLE: " + ride);
+                    break;
+                case CYCLE_REJECTED_NO_OPERATOR:
+                    System.out.println("ERROR: Cannot run ride - No operator assigned to: " + ride);
+                    break;
+                case CYCLE_REJECTED_EMPTY_QUEUE:
+                    System.out.println("ERROR: Cannot run ride - No visitors in queue for: " + ride);
+                    break;
+                case CYCLE_REJECTED_NOT_OPERATIONAL:
+                    System.out.println("ERROR: Cannot run ride - " + ride + " is not operational");
+                    break;
+                case CYCLE_STARTED:
+                    System.out.println("STARTING RIDE CYCLE - Taking " + event.getCount() + " visitors");
+                    break;
+                case RIDER_BOARDED:
+                    System.out.println("SUCCESS: " + visitor.getName() + " has taken the ride!");
+                    break;
+                case CYCLE_COMPLETED:
+                    System.out.println("RIDE CYCLE COMPLETED SUCCESSFULLY!");
+                    System.out.println("Cycle Number: " + event.getCount());
+                    System.out.println("Remaining in queue: " + event.getQueueSize());
+                    System.out.println("Total in ride history: " + event.getHistorySize());
+                    System.out.println("==========================================\n");
+                    break;
+                case EXPORT_STARTED:
+                    System.out.println("ATTEMPTING TO EXPORT RIDE HISTORY TO FILE: " + file);
+                    System.out.println("Ride: " + ride);
+                    System.out.println("Number of visitors to export: " + event.getCount());
+                    if (event.getCount() == 0) {
+                        System.out.println("WARNING: No ride history to export. File will be empty.");
+                    }
+                    break;
+                case EXPORT_COMPLETED:
+                    System.out.println("SUCCESS: Exported " + event.getCount() + " visitors to file: " + file);
+                    System.out.println("File location: " + new File(file).getAbsolutePath());
+                    if (event.getElapsedNanos() > 0) {
+                        System.out.printf("Throughput: %.0f rows/s, %.2f MB/s%n",
+                                event.getCount() * 1e9 / event.getElapsedNanos(),
+                                event.getBytes() * 1e3 / event.getElapsedNanos());
+                    }
+                    break;
+                case EXPORT_FAILED:
+                    if (error instanceof FileNotFoundException) {
+                        System.out.println("ERROR: File not found or cannot be created: " + file);
+                    } else if (error instanceof SecurityException) {
+                        System.out.println("ERROR: Security exception - No permission to write to file: " + file);
+                    } else if (error instanceof IOException) {
+                        System.out.println("ERROR: IO Exception occurred during export!");
+                    } else {
+                        System.out.println("ERROR: Unexpected error during export!");
+                    }
+                    System.out.println("Error details: " + error.getMessage());
+                    break;
+                case EXPORT_FILE_CLOSED:
+                    System.out.println("File writer closed successfully.");
+                    break;
+                case EXPORT_CLOSE_FAILED:
+                    System.out.println("WARNING: Error closing file writer: " + error.getMessage());
+                    break;
+                case EXPORT_FINISHED:
+                    System.out.println("Export process completed.\n");
+                    break;
+                case IMPORT_STARTED:
+                    System.out.println("\nATTEMPTING TO IMPORT RIDE HISTORY FROM FILE: " + file);
+                    System.out.println("Ride: " + ride);
+                    System.out.println("Current history size before import: " + event.getHistorySize());
+                    break;
+                case IMPORT_READING:
+                    System.out.println("Starting file import process...");
+                    break;
+                case IMPORT_LINE_INSUFFICIENT_FIELDS:
+                    System.out.println("WARNING: Line " + event.getLineNumber() +
+                                       " has insufficient data. Expected 6 fields, found " + event.getCount());
+                    break;
+                case IMPORT_LINE_INVALID_AGE:
+                    System.out.println("ERROR: Invalid age format on line " + event.getLineNumber() + ": " + event.getDetail());
+                    break;
+                case IMPORT_LINE_FAILED:
+                    if (error != null) {
+                        System.out.println("ERROR: Failed to parse line " + event.getLineNumber() + ": " + error.getMessage());
+                    } else {
+                        System.out.println("ERROR: Failed to parse CSV line " + event.getLineNumber());
+                    }
+                    break;
+                case IMPORT_COMPLETED:
+                    System.out.println("SUCCESS: File import completed!");
+                    System.out.println("Imported visitors: " + event.getCount());
+                    System.out.println("Skipped lines: " + event.getSkipped());
+                    System.out.println("Total lines processed: " + event.getLineNumber());
+                    System.out.println("Final history size: " + event.getHistorySize());
+                    break;
+                case IMPORT_FAILED:
+                    if (error instanceof FileNotFoundException) {
+                        System.out.println("ERROR: File not found: " + file);
+                        System.out.println("Please check if the file exists at: " + new File(file).getAbsolutePath());
+                    } else if (error instanceof SecurityException) {
+                        System.out.println("ERROR: Security exception - No permission to read file: " + file);
+                        System.out.println("Error details: " + error.getMessage());
+                    } else if (error instanceof IOException) {
+                        System.out.println("ERROR: IO Exception occurred during import!");
+                        System.out.println("Error details: " + error.getMessage());
+                    } else {
+                        System.out.println("ERROR: Unexpected error during import!");
+                        System.out.println("Error type: " + error.getClass().getName());
+                        System.out.println("Error message: " + error.getMessage());
+                    }
+                    break;
+                case IMPORT_FILE_CLOSED:
+                    System.out.println("File reader closed successfully.");
+                    break;
+                case IMPORT_CLOSE_FAILED:
+                    System.out.println("WARNING: Error closing file reader: " + error.getMessage());
+                    break;
+                case IMPORT_FINISHED:
+                    System.out.println("Import process completed.\n");
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Sink that hands events to a background thread through a bounded ring buffer
+     * The emitting thread never blocks, takes a lock or formats text: it claims
+     * a slot by compare-and-set on the tail index and publishes the event with
+     * the slot's sequence number. When the buffer is full the event is dropped
+     * and counted instead
+     */
+    class Async implements RideEventSink, AutoCloseable {
+        private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+        private final RideEventSink delegate;
+        // Slot i holds a published event when its sequence is position + 1,
+        // and is free for position when its sequence equals position
+        private final RideEvent[] slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        // Next position to claim; every claimed position is published soon after
+        private final AtomicLong tail;
+        // Position after the last delivered event, written by the worker only
+        private volatile long head;
+        private final LongAdder dropped;
+        private final Thread worker;
+        private volatile boolean running;
+        // Set while the worker is parked, so producers know to wake it
+        private volatile boolean sleeping;
+        // Flushing threads wait on this monitor; the worker notifies it as head moves
+        private final Object flushed;
+        private volatile int flushWaiters;
+
+        /**
+         * Creates an async sink and starts its delivery thread
+         * @param delegate The sink that receives events on the background thread
+         * @param capacity Number of events the ring buffer can hold, rounded up to a power of two
+         */
+        public Async(RideEventSink delegate, int capacity) {
+            if (capacity < 1 || capacity > 1 << 30) {
+                throw new IllegalArgumentException("capacity must be between 1 and 2^30, got " + capacity);
+            }
+            int size = Integer.highestOneBit(capacity);
+            if (size < capacity) size <<= 1;
+            this.delegate = delegate;
+            this.slots = new RideEvent[size];
+            this.sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                sequences.set(i, i);
+            }
+            this.mask = size - 1;
+            this.tail = new AtomicLong();
+            this.dropped = new LongAdder();
+            this.flushed = new Object();
+            this.running = true;
+            this.worker = new Thread(this::deliverLoop, "ride-event-sink");
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+
+        @Override
+        public boolean isEnabled(RideEvent.Type type) {
+            return delegate.isEnabled(type);
+        }
+
+        @Override
+        public void onEvent(RideEvent event) {
+            if (!running) {
+                dropped.increment();
+                return;
+            }
+            long position = tail.get();
+            while (true) {
+                int slot = (int) position & mask;
+                long available = sequences.get(slot) - position;
+                if (available == 0) {
+                    if (tail.compareAndSet(position, position + 1)) break;
+                    position = tail.get();
+                } else if (available < 0) {
+                    // The slot still holds the event from one lap ago: the buffer is full
+                    dropped.increment();
+                    return;
+                } else {
+                    position = tail.get();
+                }
+            }
+            int slot = (int) position & mask;
+            slots[slot] = event;
+            sequences.set(slot, position + 1);
+            if (sleeping) LockSupport.unpark(worker);
+        }
+
+        /**
+         * Gets the number of events dropped because the buffer was full or the sink was closed
+         * @return Count of dropped events
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        /**
+         * Waits until every event accepted before the call has been handed to the delegate
+         * Events from onEvent calls still running when flush starts are included
+         * if they have claimed a slot
+         * @param timeout How long to wait at most
+         * @param unit Unit of the timeout
+         * @return true if those events were delivered, false on timeout, interrupt
+         *         or if the delivery thread has stopped
+         */
+        public boolean flush(long timeout, TimeUnit unit) {
+            long target = tail.get();
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (flushed) {
+                flushWaiters++;
+                try {
+                    while (head < target) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || !worker.isAlive()) return false;
+                        LockSupport.unpark(worker);
+                        TimeUnit.NANOSECONDS.timedWait(flushed, remaining);
+                    }
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } finally {
+                    flushWaiters--;
+                }
+            }
+        }
+
+        /**
+         * Delivers the remaining events and stops the background thread
+         */
+        @Override
+        public void close() {
+            running = false;
+            LockSupport.unpark(worker);
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void deliverLoop() {
+            long position = head;
+            while (true) {
+                int slot = (int) position & mask;
+                if (sequences.get(slot) == position + 1) {
+                    RideEvent event = slots[slot];
+                    slots[slot] = null;
+                    sequences.set(slot, position + slots.length);
+                    deliver(event);
+                    position++;
+                    head = position;
+                    if (flushWaiters > 0) wakeFlushers();
+                    continue;
+                }
+                // Nothing published at the head: stop once closed, else sleep until a producer wakes us
+                if (!running && tail.get() == position) {
+                    return;
+                }
+                sleeping = true;
+                // Re-check after announcing the sleep, so a producer that missed the flag is seen here
+                if (sequences.get(slot) != position + 1 && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+
+        private void wakeFlushers() {
+            synchronized (flushed) {
+                flushed.notifyAll();
+            }
+        }
+
+        private void deliver(RideEvent event) {
+            try {
+                delegate.onEvent(event);
+            } catch (RuntimeException e) {
+                // A failing delegate must not stop delivery of later events
+            }
+        }
+    }
+}
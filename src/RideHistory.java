@@ -0,0 +1,336 @@
+import java.util.*;
+import java.util.function.LongConsumer;
+
+/**
+ * Ride history store for a single ride
+ * Keeps visitors in the order they took the ride and maintains a hash index
+ * keyed on visitorId, so membership checks and per-visitor ride counts
+ * do not have to walk the whole history
+ */
+public class RideHistory implements Iterable<Visitor> {
+    // Visitors in ride order
+    private final List<Visitor> visitors;
+    // Number of rides taken, keyed on visitorId at the time of the ride
+    private final Map<String, Integer> ridesByVisitorId;
+    // Set when the list keeps its own visitorId counts off the heap; the map is then unused
+    private final OffHeapVisitorList offHeapVisitors;
+    // Sorted views kept up to date on every add, and the add counter that orders their ties
+    private final List<SortedHistoryView> views;
+    private long addedCount;
+    // Sorts and clears so far; rows before either no longer match their old positions
+    private long rewriteCount;
+    // Boarding time and wait of every ride, in boarding order whatever the list order
+    private final BoardingLog boardingLog;
+
+    /**
+     * Creates an empty ride history backed by a chunked array
+     */
+    public RideHistory() {
+        this(RideStorage.ARRAY);
+    }
+
+    /**
+     * Creates an empty ride history using the given collection layout
+     * @param storage The layout used for the ordered list of visitors
+     */
+    public RideHistory(RideStorage storage) {
+        this.visitors = storage.newHistoryList();
+        this.ridesByVisitorId = new HashMap<>();
+        this.offHeapVisitors = (visitors instanceof OffHeapVisitorList) ? (OffHeapVisitorList) visitors : null;
+        this.views = new ArrayList<>();
+        this.boardingLog = new BoardingLog();
+    }
+
+    /**
+     * Appends a visitor to the end of the history and updates the index
+     * If a sorted view's comparator throws on the visitor, the exception is
+     * passed on and the history, index and views are left as they were
+     * @param visitor The visitor who has taken the ride
+     * @return true if the visitor was added, false for a null visitor
+     */
+    public boolean add(Visitor visitor) {
+        if (visitor == null) return false;
+        append(visitor);
+        boardingLog.addUntimed();
+        return true;
+    }
+
+    /**
+     * Appends a visitor who boarded from the waiting queue, logging the boarding
+     * time and the wait since the visitor joined the queue
+     * @param visitor The visitor who has taken the ride
+     * @param boardedAtNanos System.nanoTime() at boarding
+     * @param waitNanos Time the boarding queue entry waited, or -1 if not known
+     * @return true if the visitor was added, false for a null visitor
+     */
+    public boolean add(Visitor visitor, long boardedAtNanos, long waitNanos) {
+        if (visitor == null) return false;
+        append(visitor);
+        boardingLog.addTimed(boardedAtNanos, Math.max(0, waitNanos));
+        return true;
+    }
+
+    /**
+     * Moves up to count visitors from the head of a queue to the end of the history
+     * @param queue The waiting queue to take visitors from
+     * @param count Maximum number of visitors to move
+     * @return Number of visitors actually moved
+     */
+    public int drainFrom(Queue<Visitor> queue, int count) {
+        return drainFrom(queue, count, System.nanoTime(), null);
+    }
+
+    /**
+     * Moves up to count visitors from the head of a queue to the end of the history,
+     * logging them as boarded at the given time and telling a listener each one's wait
+     * Waits are known when the queue is a TimedQueue
+     * @param boardedAtNanos System.nanoTime() at boarding
+     * @param onBoarded Receives the queue wait of every moved visitor in nanoseconds,
+     *                  or -1 if it is not known; may be null
+     */
+    public int drainFrom(Queue<Visitor> queue, int count, long boardedAtNanos, LongConsumer onBoarded) {
+        TimedQueue timed = (queue instanceof TimedQueue) ? (TimedQueue) queue : null;
+        int moved = 0;
+        Visitor visitor;
+        while (moved < count && (visitor = queue.poll()) != null) {
+            long wait = (timed != null) ? boardedAtNanos - timed.lastPolledQueuedAtNanos() : -1;
+            append(visitor);
+            boardingLog.addTimed(boardedAtNanos, Math.max(0, wait));
+            if (onBoarded != null) onBoarded.accept(wait);
+            moved++;
+        }
+        return moved;
+    }
+
+    private void append(Visitor visitor) {
+        // Views first: if a view comparator throws, nothing has been added anywhere
+        addToViews(visitor);
+        visitors.add(visitor);
+        if (offHeapVisitors == null) {
+            ridesByVisitorId.merge(visitor.getVisitorId(), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Gets the boarding time and queue wait of every ride, in the order the rides were taken
+     * The log keeps that order when the history is sorted
+     * @return The live boarding log
+     */
+    public BoardingLog getBoardingLog() {
+        return boardingLog;
+    }
+
+    /**
+     * Checks if a visitor with the same visitorId has taken the ride
+     * @param visitor The visitor to look up
+     * @return true if the visitorId is in the history, false otherwise
+     */
+    public boolean contains(Visitor visitor) {
+        return visitor != null && contains(visitor.getVisitorId());
+    }
+
+    /**
+     * Checks if a visitorId is in the history
+     * @param visitorId The visitor ID to look up
+     * @return true if the visitorId is in the history, false otherwise
+     */
+    public boolean contains(String visitorId) {
+        if (offHeapVisitors != null) return offHeapVisitors.countRides(visitorId) > 0;
+        return ridesByVisitorId.containsKey(visitorId);
+    }
+
+    /**
+     * Gets how many times a visitor has taken the ride
+     * @param visitorId The visitor ID to look up
+     * @return Number of rides recorded for the visitorId, 0 if none
+     */
+    public int countRides(String visitorId) {
+        if (offHeapVisitors != null) return offHeapVisitors.countRides(visitorId);
+        return ridesByVisitorId.getOrDefault(visitorId, 0);
+    }
+
+    /**
+     * Gets the number of distinct visitorIds in the history
+     * @return Count of distinct visitors
+     */
+    public int distinctVisitors() {
+        if (offHeapVisitors != null) return offHeapVisitors.distinctVisitorIds();
+        return ridesByVisitorId.size();
+    }
+
+    /**
+     * Gets the number of rides recorded in the history
+     * @return Size of the history
+     */
+    public int size() {
+        return visitors.size();
+    }
+
+    public boolean isEmpty() {
+        return visitors.isEmpty();
+    }
+
+    /**
+     * Sorts the history in place
+     * The index is keyed on visitorId, so it is unaffected by the new order
+     * @param comparator The comparator to use for sorting
+     */
+    public void sort(Comparator<Visitor> comparator) {
+        sort(comparator, false);
+    }
+
+    /**
+     * Sorts the history in place, optionally in parallel
+     * Both modes give the same stable order
+     * @param comparator The comparator to use for sorting
+     * @param parallel true to sort on the common fork-join pool
+     */
+    public void sort(Comparator<Visitor> comparator, boolean parallel) {
+        rewriteCount++;
+        if (offHeapVisitors != null) {
+            offHeapVisitors.sort(comparator, parallel);
+            return;
+        }
+        if (!parallel && (visitors instanceof RandomAccess || !RideHistorySorter.isSpecialized(comparator))) {
+            visitors.sort(comparator);
+            return;
+        }
+        // Sort a snapshot with the packed-key or parallel engine and write it back in order
+        Visitor[] sorted = visitors.toArray(new Visitor[0]);
+        RideHistorySorter.sort(sorted, comparator, parallel);
+        ListIterator<Visitor> iterator = visitors.listIterator();
+        for (Visitor visitor : sorted) {
+            iterator.next();
+            iterator.set(visitor);
+        }
+    }
+
+    /**
+     * Gets a range of the history in its current order
+     * @param offset Position of the first visitor to return
+     * @param limit Maximum number of visitors to return
+     * @return Up to limit visitors, empty if offset is past the end
+     */
+    public List<Visitor> page(int offset, int limit) {
+        int end = (int) Math.min(visitors.size(), (long) offset + limit);
+        List<Visitor> page = new ArrayList<>(Math.max(0, end - offset));
+        if (offset >= end) return page;
+        if (visitors instanceof RandomAccess) {
+            for (int i = offset; i < end; i++) {
+                page.add(visitors.get(i));
+            }
+        } else {
+            ListIterator<Visitor> iterator = visitors.listIterator(offset);
+            for (int i = offset; i < end; i++) {
+                page.add(iterator.next());
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Gets how many times the history has been sorted or cleared
+     * While it is unchanged, the history has only grown at the end, so a copy of
+     * its first rows taken earlier is still a prefix of it
+     * @return The rewrite count
+     */
+    public long getRewriteCount() {
+        return rewriteCount;
+    }
+
+    // Copies the rows from a position to the end, in the current order
+    // An off-heap history is copied as records, without building a Visitor per row
+    List<Visitor> copyOf(int from) {
+        if (offHeapVisitors != null) return offHeapVisitors.copyOf(from);
+        return Arrays.asList(visitors.subList(from, visitors.size()).toArray(new Visitor[0]));
+    }
+
+    /**
+     * Removes every visitor from the history and clears the index and views
+     */
+    public void clear() {
+        rewriteCount++;
+        visitors.clear();
+        ridesByVisitorId.clear();
+        boardingLog.clear();
+        for (SortedHistoryView view : views) {
+            view.clear();
+        }
+    }
+
+    /**
+     * Creates a sorted view filled with the current history and keeps it up to date
+     * Ties are ordered as in the history now, then by the order later visitors are added
+     * @param comparator The order of the view
+     * @return The registered view
+     * @throws UnsupportedOperationException For an off-heap history: a view keeps
+     *         a Visitor object per row on the heap, which that storage exists to avoid
+     */
+    public SortedHistoryView registerView(Comparator<Visitor> comparator) {
+        if (offHeapVisitors != null) {
+            throw new UnsupportedOperationException("Sorted views are not available for off-heap histories");
+        }
+        SortedHistoryView view = new SortedHistoryView(comparator);
+        Visitor[] current = visitors.toArray(new Visitor[0]);
+        // Sequence numbers below addedCount are never handed out again
+        long firstSequence = addedCount;
+        addedCount += current.length;
+        int[] order = RideHistorySorter.sortOrder(current, comparator);
+        Visitor[] sorted = new Visitor[current.length];
+        long[] sequences = new long[current.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = current[order[i]];
+            sequences[i] = firstSequence + order[i];
+        }
+        view.rebuild(sorted, sequences);
+        views.add(view);
+        return view;
+    }
+
+    /**
+     * Stops updating a view
+     * @param view A view returned by registerView
+     * @return true if the view was registered
+     */
+    public boolean unregisterView(SortedHistoryView view) {
+        return views.remove(view);
+    }
+
+    // Inserts into every view or, if a comparator throws, takes it out of the views already updated
+    private void addToViews(Visitor visitor) {
+        if (views.isEmpty()) return;
+        long sequence = addedCount;
+        int inserted = 0;
+        try {
+            for (SortedHistoryView view : views) {
+                view.insert(visitor, sequence);
+                inserted++;
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < inserted; i++) {
+                views.get(i).remove(visitor, sequence);
+            }
+            throw e;
+        }
+        addedCount++;
+    }
+
+    /**
+     * Returns an iterator over the history in ride order
+     * The iterator is read-only so the index cannot drift from the list
+     */
+    @Override
+    public Iterator<Visitor> iterator() {
+        return Collections.unmodifiableList(visitors).iterator();
+    }
+
+    /**
+     * Returns a read-only iterator over the history from a position to the end,
+     * in ride order, without copying the rows
+     * @param from Position of the first visitor to return
+     * @return The iterator
+     */
+    public Iterator<Visitor> iterator(int from) {
+        return Collections.unmodifiableList(visitors).listIterator(from);
+    }
+}
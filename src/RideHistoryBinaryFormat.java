@@ -0,0 +1,384 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Versioned binary columnar file format for ride history
+ * Restoring a history from it needs no text parsing, and the file is a
+ * fraction of the size of the CSV export
+ *
+ * Layout (version 1), all varints are unsigned LEB128:
+ *   magic "RHBF", version byte, flags byte (0)
+ *   ride name string, column layout string (RideHistoryCsvWriter.COLUMNS),
+ *   export time as 8 bytes big-endian epoch millis, row count varint
+ *   gender dictionary and ticket type dictionary: varint size, then strings
+ *   columns in CSV order: names (strings), ages (zigzag varints),
+ *   genders (codes), visitor ids (strings), ticket types (codes),
+ *   season passes (one bit per row, lowest bit first)
+ *   footer: start offset of each of the 6 columns as 8 byte values,
+ *   then a CRC32 of everything before it as 4 bytes
+ * Strings are a varint of byte length + 1 followed by UTF-8 bytes; 0 means null
+ * Dictionary codes are the entry index + 1; 0 means null
+ */
+public class RideHistoryBinaryFormat {
+    public static final int VERSION = 1;
+    private static final byte[] MAGIC = {'R', 'H', 'B', 'F'};
+    private static final int COLUMN_COUNT = 6;
+    private static final int FOOTER_SIZE = COLUMN_COUNT * 8 + 4;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private RideHistoryBinaryFormat() {
+    }
+
+    /**
+     * Writes a ride history to a channel
+     * @param channel File opened for writing at position 0
+     * @param rideName Name of the ride, stored in the header
+     * @param history The visitors to write, in order
+     * @return Row count, size and timing of the export
+     * @throws IOException If writing fails
+     */
+    public static ExportSummary write(FileChannel channel, String rideName, RideHistory history) throws IOException {
+        return write(channel, rideName, history, history.size());
+    }
+
+    /**
+     * Writes any sequence of visitors to a channel in the ride history layout
+     * @param visitors The visitors to write, in order
+     * @param rows Number of visitors in the sequence
+     */
+    public static ExportSummary write(FileChannel channel, String rideName, Iterable<Visitor> visitors, int rows)
+            throws IOException {
+        long start = System.nanoTime();
+        Iterable<Visitor> history = visitors;
+        Map<String, Integer> genders = new HashMap<>();
+        Map<String, Integer> tickets = new HashMap<>();
+        List<String> genderValues = new ArrayList<>();
+        List<String> ticketValues = new ArrayList<>();
+        for (Visitor visitor : history) {
+            addToDictionary(visitor.getGender(), genders, genderValues);
+            addToDictionary(visitor.getTicketType(), tickets, ticketValues);
+        }
+
+        Output out = new Output(channel);
+        out.writeBytes(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(0);
+        out.writeString(rideName);
+        out.writeString(RideHistoryCsvWriter.COLUMNS);
+        out.writeLong(System.currentTimeMillis());
+        out.writeVarint(rows);
+        writeDictionary(out, genderValues);
+        writeDictionary(out, ticketValues);
+
+        long[] columnStart = new long[COLUMN_COUNT];
+        columnStart[0] = out.position();
+        for (Visitor visitor : history) {
+            out.writeString(visitor.getName());
+        }
+        columnStart[1] = out.position();
+        for (Visitor visitor : history) {
+            int age = visitor.getAge();
+            out.writeVarint((age << 1) ^ (age >> 31));
+        }
+        columnStart[2] = out.position();
+        for (Visitor visitor : history) {
+            out.writeVarint(code(visitor.getGender(), genders));
+        }
+        columnStart[3] = out.position();
+        for (Visitor visitor : history) {
+            out.writeString(visitor.getVisitorId());
+        }
+        columnStart[4] = out.position();
+        for (Visitor visitor : history) {
+            out.writeVarint(code(visitor.getTicketType(), tickets));
+        }
+        columnStart[5] = out.position();
+        int bits = 0;
+        int row = 0;
+        for (Visitor visitor : history) {
+            if (visitor.hasSeasonPass()) bits |= 1 << (row & 7);
+            row++;
+            if ((row & 7) == 0) {
+                out.writeByte(bits);
+                bits = 0;
+            }
+        }
+        if ((row & 7) != 0) out.writeByte(bits);
+        if (row != rows) {
+            throw new IOException("Ride history changed while it was being written");
+        }
+
+        for (long offset : columnStart) {
+            out.writeLong(offset);
+        }
+        out.writeChecksum();
+        long fileBytes = out.position();
+        return new ExportSummary(rows, fileBytes, fileBytes, System.nanoTime() - start, false);
+    }
+
+    /**
+     * Reads a whole file written by write and hands every visitor to a sink
+     * @param channel File opened for reading at position 0
+     * @param sink Receives each visitor in stored order
+     * @return Summary with one imported visitor per row and no skipped lines
+     * @throws IOException If reading fails or the file is not a valid version 1 file
+     */
+    public static ImportSummary read(FileChannel channel, Consumer<Visitor> sink) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Binary ride history file is too large: " + size + " bytes");
+        }
+        byte[] data = new byte[(int) size];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Binary ride history file ended early");
+            }
+        }
+        return decode(data, sink);
+    }
+
+    private static ImportSummary decode(byte[] data, Consumer<Visitor> sink) throws IOException {
+        if (data.length < MAGIC.length + 2 + FOOTER_SIZE) {
+            throw new IOException("Not a ride history binary file: too short");
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) {
+                throw new IOException("Not a ride history binary file: bad magic number");
+            }
+        }
+        int version = data[MAGIC.length] & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported ride history binary version: " + version);
+        }
+        int footer = data.length - FOOTER_SIZE;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length - 4);
+        if ((int) crc.getValue() != new Input(data, data.length - 4).readInt()) {
+            throw new IOException("Ride history binary file is corrupt: checksum mismatch");
+        }
+
+        try {
+            Input header = new Input(data, MAGIC.length + 2);
+            header.readString(); // ride name
+            String columns = header.readString();
+            if (!RideHistoryCsvWriter.COLUMNS.equals(columns)) {
+                throw new IOException("Unexpected column layout in binary file: " + columns);
+            }
+            header.readLong(); // export time
+            int rows = header.readVarint();
+            String[] genders = readDictionary(header, VisitorDictionary.GENDERS);
+            String[] tickets = readDictionary(header, VisitorDictionary.TICKET_TYPES);
+
+            Input footerInput = new Input(data, footer);
+            Input names = new Input(data, footerInput.readOffset(footer));
+            Input ages = new Input(data, footerInput.readOffset(footer));
+            Input genderCodes = new Input(data, footerInput.readOffset(footer));
+            Input visitorIds = new Input(data, footerInput.readOffset(footer));
+            Input ticketCodes = new Input(data, footerInput.readOffset(footer));
+            int passes = footerInput.readOffset(footer);
+            if (passes + (rows + 7) / 8 > footer) {
+                throw new IOException("Ride history binary file is corrupt: season pass column overruns footer");
+            }
+
+            ImportSummary summary = new ImportSummary();
+            for (int row = 0; row < rows; row++) {
+                String name = names.readString();
+                int zigzag = ages.readVarint();
+                int age = (zigzag >>> 1) ^ -(zigzag & 1);
+                String gender = lookup(genders, genderCodes.readVarint());
+                String visitorId = visitorIds.readString();
+                String ticketType = lookup(tickets, ticketCodes.readVarint());
+                boolean hasSeasonPass = (data[passes + (row >>> 3)] & (1 << (row & 7))) != 0;
+                sink.accept(new Visitor(name, age, gender, visitorId, ticketType, hasSeasonPass));
+                summary.recordImported();
+            }
+            summary.addLines(rows);
+            return summary;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Ride history binary file is corrupt: a column runs past the end", e);
+        }
+    }
+
+    private static void addToDictionary(String value, Map<String, Integer> codes, List<String> values) {
+        if (value != null && !codes.containsKey(value)) {
+            values.add(value);
+            codes.put(value, values.size());
+        }
+    }
+
+    private static int code(String value, Map<String, Integer> codes) {
+        return (value == null) ? 0 : codes.get(value);
+    }
+
+    private static void writeDictionary(Output out, List<String> values) throws IOException {
+        out.writeVarint(values.size());
+        for (String value : values) {
+            out.writeString(value);
+        }
+    }
+
+    private static String[] readDictionary(Input in, VisitorDictionary shared) {
+        String[] values = new String[in.readVarint()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = shared.intern(in.readString());
+        }
+        return values;
+    }
+
+    private static String lookup(String[] dictionary, int code) throws IOException {
+        if (code == 0) return null;
+        if (code > dictionary.length) {
+            throw new IOException("Ride history binary file is corrupt: unknown dictionary code " + code);
+        }
+        return dictionary[code - 1];
+    }
+
+    /**
+     * Buffered channel writer that keeps a running CRC32 and byte position
+     */
+    private static final class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final byte[] array;
+        private final CRC32 crc;
+        private long flushed;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            this.array = buffer.array();
+            this.crc = new CRC32();
+        }
+
+        long position() {
+            return flushed + buffer.position();
+        }
+
+        void writeByte(int value) throws IOException {
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) value);
+        }
+
+        void writeBytes(byte[] bytes) throws IOException {
+            if (buffer.remaining() < bytes.length) flush();
+            if (bytes.length > buffer.capacity()) {
+                crc.update(bytes);
+                flushed += bytes.length;
+                ByteBuffer large = ByteBuffer.wrap(bytes);
+                while (large.hasRemaining()) channel.write(large);
+                return;
+            }
+            buffer.put(bytes);
+        }
+
+        void writeVarint(int value) throws IOException {
+            if (buffer.remaining() < 5) flush();
+            while ((value & ~0x7F) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeLong(long value) throws IOException {
+            if (buffer.remaining() < 8) flush();
+            buffer.putLong(value);
+        }
+
+        void writeString(String value) throws IOException {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1);
+            writeBytes(bytes);
+        }
+
+        // The checksum covers everything written so far and is written last
+        void writeChecksum() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            flush();
+        }
+
+        void flush() throws IOException {
+            crc.update(array, 0, buffer.position());
+            buffer.flip();
+            flushed += buffer.limit();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Cursor over the bytes of one column
+     */
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0 && shift < 35);
+            return value;
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        int readInt() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | (data[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        // Column offsets must point inside the data, before the footer
+        int readOffset(int limit) throws IOException {
+            long offset = readLong();
+            if (offset < 0 || offset > limit) {
+                throw new IOException("Ride history binary file is corrupt: bad column offset " + offset);
+            }
+            return (int) offset;
+        }
+
+        String readString() {
+            int length = readVarint();
+            if (length == 0) return null;
+            length--;
+            if (length < 0 || length > data.length - position) {
+                throw new ArrayIndexOutOfBoundsException(position);
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
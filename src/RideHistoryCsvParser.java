@@ -0,0 +1,352 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.function.Consumer;
+
+/**
+ * Streaming parser for ride history CSV files written by exportRideHistory
+ * Scans the raw bytes of each line once: numeric and boolean fields are read
+ * straight from the bytes, gender and ticket type are looked up in the shared
+ * VisitorDictionary, and only name and visitorId become new Strings
+ * Skip and repair rules match the original line parser:
+ * blank and '#' lines are ignored, lines with fewer than 6 fields or a bad age
+ * are skipped, an empty name becomes "Unknown Visitor", an empty visitorId
+ * becomes IMP followed by the line number, and ages outside 0-150 become 25
+ * Lines end at \n, \r or \r\n; text is decoded with the platform charset like
+ * FileReader, which must be ASCII-compatible (UTF-8, ISO-8859-1, ...)
+ */
+public class RideHistoryCsvParser {
+    private static final int FIELD_COUNT = 6;
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final int WINDOW_SIZE = 64 * 1024;
+    private static final byte COMMA = ',';
+    private static final byte SEMICOLON = ';';
+
+    /**
+     * Told about every visitor whose visitorId was generated from its line number
+     * Lets a caller that parsed with relative line numbers fix the id afterwards
+     */
+    interface GeneratedIdListener {
+        void onGeneratedId(Visitor visitor, int lineNumber);
+    }
+
+    private final ImportSummary summary;
+    private final Charset charset;
+    private GeneratedIdListener generatedIdListener;
+    // Field bounds of the line being parsed, before trimming
+    private final int[] fieldStart;
+    private final int[] fieldEnd;
+    // Lines of a direct buffer being parsed, copied a window at a time
+    private byte[] window;
+
+    /**
+     * Creates a parser that records its results into a summary
+     * @param summary Receives counts and skipped-line details
+     */
+    public RideHistoryCsvParser(ImportSummary summary) {
+        this.summary = summary;
+        this.charset = Charset.defaultCharset();
+        this.fieldStart = new int[FIELD_COUNT];
+        this.fieldEnd = new int[FIELD_COUNT];
+    }
+
+    void setGeneratedIdListener(GeneratedIdListener listener) {
+        this.generatedIdListener = listener;
+    }
+
+    /**
+     * Streams a whole file through the parser
+     * @param filename The CSV file to read
+     * @param sink Receives each parsed visitor in file order
+     * @return Summary of the import
+     * @throws IOException If the file cannot be opened or read
+     */
+    public static ImportSummary importFile(String filename, Consumer<Visitor> sink) throws IOException {
+        ImportSummary summary = new ImportSummary();
+        RideHistoryCsvParser parser = new RideHistoryCsvParser(summary);
+        try (FileInputStream input = new FileInputStream(filename);
+             FileChannel channel = input.getChannel()) {
+            parser.parse(channel, sink);
+        }
+        return summary;
+    }
+
+    /**
+     * Reads a channel to its end in large chunks, parsing every complete line
+     * A line split across two reads is carried over to the next read
+     * @param channel The open file to read from its current position
+     * @param sink Receives each parsed visitor in file order
+     * @throws IOException If reading fails
+     */
+    public void parse(FileChannel channel, Consumer<Visitor> sink) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        int lineNumber = 1;
+        boolean endOfFile = false;
+        while (!endOfFile) {
+            endOfFile = channel.read(buffer) < 0;
+            int limit = buffer.position();
+            int end = endOfFile ? limit : lastCompleteLineEnd(buffer.array(), limit);
+            if (end < 0) {
+                // A single line is larger than the buffer; grow and keep reading
+                if (!buffer.hasRemaining()) {
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                continue;
+            }
+            lineNumber += parseLines(buffer.array(), 0, end, lineNumber, sink);
+            buffer.limit(limit);
+            buffer.position(end);
+            buffer.compact();
+        }
+    }
+
+    /**
+     * Finds the end of the last line that is certainly complete in data[0, limit)
+     * A trailing \r is held back in case the next read starts with its \n
+     * @return Index just past the last complete line, or -1 if there is none
+     */
+    private static int lastCompleteLineEnd(byte[] data, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            byte b = data[i];
+            if (b == '\n') return i + 1;
+            if (b == '\r' && i < limit - 1) return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses every line in data[from, to)
+     * A final line without a terminator is parsed as well
+     * @param data Bytes of the file
+     * @param from Index of the first byte of the first line
+     * @param to Index just past the last byte to parse
+     * @param firstLineNumber File line number of the first line in the range
+     * @param sink Receives each parsed visitor in order
+     * @return Number of lines in the range
+     */
+    public int parseLines(byte[] data, int from, int to, int firstLineNumber, Consumer<Visitor> sink) {
+        int lineNumber = firstLineNumber;
+        int lineStart = from;
+        int i = from;
+        while (i < to) {
+            byte b = data[i];
+            if (b == '\n' || b == '\r') {
+                parseLine(data, lineStart, i, lineNumber, sink);
+                lineNumber++;
+                i++;
+                if (b == '\r' && i < to && data[i] == '\n') i++;
+                lineStart = i;
+            } else {
+                i++;
+            }
+        }
+        if (lineStart < to) {
+            parseLine(data, lineStart, to, lineNumber, sink);
+            lineNumber++;
+        }
+        int lines = lineNumber - firstLineNumber;
+        summary.addLines(lines);
+        return lines;
+    }
+
+    /**
+     * Parses every line between two absolute indexes of a buffer, such as a
+     * memory-mapped part of a file, without copying the whole range
+     * A heap buffer is parsed in its backing array; any other buffer is read
+     * a window of complete lines at a time into one reused array
+     * The buffer's position and limit are not used or changed
+     * @param data Bytes of the file
+     * @param from Index of the first byte of the first line
+     * @param to Index just past the last byte to parse
+     * @param firstLineNumber File line number of the first line in the range
+     * @param sink Receives each parsed visitor in order
+     * @return Number of lines in the range
+     */
+    public int parseLines(ByteBuffer data, int from, int to, int firstLineNumber, Consumer<Visitor> sink) {
+        if (data.hasArray()) {
+            int offset = data.arrayOffset();
+            return parseLines(data.array(), offset + from, offset + to, firstLineNumber, sink);
+        }
+        if (window == null) window = new byte[WINDOW_SIZE];
+        int lineNumber = firstLineNumber;
+        int position = from;
+        while (position < to) {
+            int length = Math.min(window.length, to - position);
+            data.get(position, window, 0, length);
+            int end = (position + length == to) ? length : lastCompleteLineEnd(window, length);
+            if (end < 0) {
+                // A single line is larger than the window
+                window = new byte[window.length * 2];
+                continue;
+            }
+            lineNumber += parseLines(window, 0, end, lineNumber, sink);
+            position += end;
+        }
+        return lineNumber - firstLineNumber;
+    }
+
+    /**
+     * Parses one line without its terminator
+     */
+    private void parseLine(byte[] data, int start, int end, int lineNumber, Consumer<Visitor> sink) {
+        // Blank and comment lines are ignored, not skipped
+        int first = skipSpace(data, start, end);
+        if (first == end || data[first] == '#') return;
+
+        try {
+            // Locate the first six fields and count the rest like String.split(","),
+            // which drops trailing empty fields
+            int fields = 0;
+            int nonEmptyFields = 0;
+            int fieldBegin = start;
+            for (int i = start; i <= end; i++) {
+                if (i == end || data[i] == COMMA) {
+                    if (fields < FIELD_COUNT) {
+                        fieldStart[fields] = fieldBegin;
+                        fieldEnd[fields] = i;
+                    }
+                    fields++;
+                    if (i > fieldBegin) nonEmptyFields = fields;
+                    fieldBegin = i + 1;
+                }
+            }
+            int partsFound = (fields == 1) ? 1 : nonEmptyFields;
+            if (partsFound < FIELD_COUNT) {
+                summary.recordError(lineNumber, ImportSummary.Reason.INSUFFICIENT_FIELDS, partsFound, null);
+                return;
+            }
+
+            int age;
+            try {
+                age = parseInt(data, fieldStart[1], fieldEnd[1]);
+            } catch (NumberFormatException e) {
+                summary.recordError(lineNumber, ImportSummary.Reason.INVALID_AGE, partsFound,
+                                    decode(data, fieldStart[1], fieldEnd[1]));
+                return;
+            }
+
+            String name = text(data, fieldStart[0], fieldEnd[0]);
+            String gender = text(data, fieldStart[2], fieldEnd[2], VisitorDictionary.GENDERS);
+            String visitorId = text(data, fieldStart[3], fieldEnd[3]);
+            String ticketType = text(data, fieldStart[4], fieldEnd[4], VisitorDictionary.TICKET_TYPES);
+            boolean hasSeasonPass = isTrue(data, fieldStart[5], fieldEnd[5]);
+
+            if (name.isEmpty()) {
+                name = "Unknown Visitor";
+            }
+            boolean generatedId = visitorId.isEmpty();
+            if (generatedId) {
+                visitorId = "IMP" + lineNumber;
+            }
+            if (age < 0 || age > 150) {
+                age = 25;
+            }
+
+            Visitor visitor = new Visitor(name, age, gender, visitorId, ticketType, hasSeasonPass);
+            if (generatedId && generatedIdListener != null) {
+                generatedIdListener.onGeneratedId(visitor, lineNumber);
+            }
+            sink.accept(visitor);
+            summary.recordImported();
+        } catch (RuntimeException e) {
+            summary.recordError(lineNumber, ImportSummary.Reason.PARSE_FAILED, 0, e.getMessage());
+        }
+    }
+
+    // Same whitespace as String.trim(): every byte up to and including space
+    private static int skipSpace(byte[] data, int start, int end) {
+        while (start < end && (data[start] & 0xFF) <= ' ') start++;
+        return start;
+    }
+
+    private static int trimEnd(byte[] data, int start, int end) {
+        while (end > start && (data[end - 1] & 0xFF) <= ' ') end--;
+        return end;
+    }
+
+    /**
+     * Reads a trimmed decimal int straight from the bytes, like Integer.parseInt
+     */
+    private int parseInt(byte[] data, int start, int end) {
+        start = skipSpace(data, start, end);
+        end = trimEnd(data, start, end);
+        if (start == end) throw new NumberFormatException();
+        boolean negative = false;
+        int i = start;
+        byte sign = data[i];
+        if (sign == '-' || sign == '+') {
+            negative = sign == '-';
+            i++;
+            if (i == end) throw new NumberFormatException();
+        }
+        // Accumulate negatively so Integer.MIN_VALUE does not overflow
+        long limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9) {
+                // Non-ASCII digits are rare; let Integer.parseInt decide
+                return Integer.parseInt(decode(data, start, end));
+            }
+            value = value * 10 - digit;
+            if (value < limit) throw new NumberFormatException();
+        }
+        return (int) (negative ? value : -value);
+    }
+
+    /**
+     * Case-insensitive "true" check on the trimmed field, like Boolean.parseBoolean
+     */
+    private static boolean isTrue(byte[] data, int start, int end) {
+        start = skipSpace(data, start, end);
+        end = trimEnd(data, start, end);
+        if (end - start != 4) return false;
+        return (data[start] | 0x20) == 't'
+            && (data[start + 1] | 0x20) == 'r'
+            && (data[start + 2] | 0x20) == 'u'
+            && (data[start + 3] | 0x20) == 'e';
+    }
+
+    /**
+     * Trims a text field, decodes it and turns ';' back into ','
+     */
+    private String text(byte[] data, int start, int end) {
+        start = skipSpace(data, start, end);
+        end = trimEnd(data, start, end);
+        if (start == end) return "";
+        boolean escaped = false;
+        for (int i = start; i < end; i++) {
+            if (data[i] == SEMICOLON) {
+                escaped = true;
+                break;
+            }
+        }
+        String value = decode(data, start, end);
+        return escaped ? value.replace(';', ',') : value;
+    }
+
+    /**
+     * Like text, but a value already in the dictionary is returned without
+     * decoding or allocating anything
+     */
+    private String text(byte[] data, int start, int end, VisitorDictionary dictionary) {
+        start = skipSpace(data, start, end);
+        end = trimEnd(data, start, end);
+        if (start == end) return "";
+        for (int i = start; i < end; i++) {
+            if (data[i] == SEMICOLON) {
+                return dictionary.intern(decode(data, start, end).replace(';', ','));
+            }
+        }
+        return dictionary.intern(data, start, end, charset);
+    }
+
+    private String decode(byte[] data, int start, int end) {
+        return new String(data, start, end - start, charset);
+    }
+}
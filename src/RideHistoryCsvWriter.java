@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export engine for ride history CSV files
+ * Rows are appended field by field into one reusable byte buffer that is
+ * written to a FileChannel when full, so there is no String.format, no
+ * per-row String and no per-field escaped copy for plain ASCII text
+ * Output is the same as the original PrintWriter export: commas inside
+ * fields become ';', null fields are empty, and text uses the platform charset
+ */
+public class RideHistoryCsvWriter implements AutoCloseable {
+    public static final String COLUMNS = "Name,Age,Gender,VisitorID,TicketType,HasSeasonPass";
+    public static final String FORMAT_LINE = "# Format: " + COLUMNS;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+
+    private final FileChannel channel;
+    private final OutputStream gzipStream;
+    private final Charset charset;
+    private final int maxBytesPerChar;
+    private final byte[] lineSeparator;
+    private final long startNanos;
+    private ByteBuffer buffer;
+    private int rowCount;
+    private long csvBytes;
+
+    /**
+     * Creates a writer on an open channel; the writer closes it
+     * @param channel File opened for writing, positioned where output should start
+     * @param gzip true to gzip-compress the output
+     * @throws IOException If the gzip header cannot be written
+     */
+    public RideHistoryCsvWriter(FileChannel channel, boolean gzip) throws IOException {
+        this.startNanos = System.nanoTime();
+        this.channel = channel;
+        this.gzipStream = gzip ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE) : null;
+        this.charset = Charset.defaultCharset();
+        this.maxBytesPerChar = (int) Math.ceil(charset.newEncoder().maxBytesPerChar());
+        this.lineSeparator = System.lineSeparator().getBytes(charset);
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Writes the three comment lines that start every export
+     * @param rideName Name of the ride being exported
+     * @throws IOException If writing fails
+     */
+    public void writeHeader(String rideName) throws IOException {
+        writeLine("# Ride History Export for: " + rideName);
+        writeLine("# Export Date: " + new Date());
+        writeLine(FORMAT_LINE);
+    }
+
+    /**
+     * Writes a line of text as-is, e.g. a comment
+     * @param text The line without its terminator
+     * @throws IOException If writing fails
+     */
+    public void writeLine(String text) throws IOException {
+        byte[] bytes = text.getBytes(charset);
+        ensureRoom(bytes.length + lineSeparator.length);
+        buffer.put(bytes);
+        buffer.put(lineSeparator);
+    }
+
+    /**
+     * Appends one visitor as a CSV row
+     * @param visitor The visitor to write
+     * @throws IOException If writing fails
+     */
+    public void writeVisitor(Visitor visitor) throws IOException {
+        String name = visitor.getName();
+        String gender = visitor.getGender();
+        String visitorId = visitor.getVisitorId();
+        String ticketType = visitor.getTicketType();
+        int textLength = length(name) + length(gender) + length(visitorId) + length(ticketType);
+        // 11 bytes for the age, 5 separators, "false" and the line separator
+        ensureRoom(textLength * maxBytesPerChar + 21 + lineSeparator.length);
+
+        putText(name);
+        buffer.put((byte) ',');
+        putInt(visitor.getAge());
+        buffer.put((byte) ',');
+        putText(gender);
+        buffer.put((byte) ',');
+        putText(visitorId);
+        buffer.put((byte) ',');
+        putText(ticketType);
+        buffer.put((byte) ',');
+        buffer.put(visitor.hasSeasonPass() ? TRUE : FALSE);
+        buffer.put(lineSeparator);
+        rowCount++;
+    }
+
+    /**
+     * Writes out everything buffered and completes the gzip stream if any
+     * @return Row count, sizes and timing of the export
+     * @throws IOException If writing fails
+     */
+    public ExportSummary finish() throws IOException {
+        flush();
+        if (gzipStream != null) {
+            ((GZIPOutputStream) gzipStream).finish();
+            gzipStream.flush();
+        }
+        long fileBytes = (gzipStream != null) ? channel.position() : csvBytes;
+        return new ExportSummary(rowCount, csvBytes, fileBytes, System.nanoTime() - startNanos, gzipStream != null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (gzipStream != null) {
+            gzipStream.close();
+        } else {
+            channel.close();
+        }
+    }
+
+    private static int length(String value) {
+        return (value != null) ? value.length() : 0;
+    }
+
+    /**
+     * Appends a text field, turning ',' into ';' and writing null as empty
+     * ASCII characters are copied directly; the rest of the field is encoded
+     * with the charset from the first non-ASCII character on
+     */
+    private void putText(String value) {
+        if (value == null) return;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                buffer.put(value.substring(i).replace(',', ';').getBytes(charset));
+                return;
+            }
+            buffer.put(c == ',' ? (byte) ';' : (byte) c);
+        }
+    }
+
+    private void putInt(int value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            putDigits(-(long) value);
+        } else {
+            putDigits(value);
+        }
+    }
+
+    private void putDigits(long value) {
+        if (value >= 10) putDigits(value / 10);
+        buffer.put((byte) ('0' + (value % 10)));
+    }
+
+    private void ensureRoom(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        flush();
+        if (buffer.capacity() < bytes) {
+            buffer = ByteBuffer.allocate(bytes);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        csvBytes += buffer.remaining();
+        if (gzipStream != null) {
+            gzipStream.write(buffer.array(), 0, buffer.limit());
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,398 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sort engine for ride histories
+ * For the built-in comparators (VisitorComparator and its nested
+ * ByTicketTypeAndAge and BySeasonPassAndName) every visitor is turned into one
+ * packed long: the sort fields in comparator order, then the visitor's original
+ * position. Names and ticket types become their rank among the distinct values
+ * in case-insensitive order, so no String is compared per element. The packed
+ * keys are radix sorted; since the position is part of the key, equal visitors
+ * keep their original order, exactly like the stable List.sort
+ * Other comparators, visitors with a null sort field and keys that need more
+ * than 63 bits fall back to a comparison sort
+ * In parallel mode the keys go through Arrays.parallelSort and comparison
+ * sorts run as a fork-join merge sort of positions; the result is the same
+ * in both modes
+ * Storage that keeps no Visitor objects, like OffHeapVisitorList, sorts its
+ * rows by position through the package-private RowComparator entry points
+ */
+public final class RideHistorySorter {
+    private static final int RADIX_BITS = 16;
+    private static final int RADIX_THRESHOLD = 1 << 14;
+
+    private RideHistorySorter() {
+    }
+
+    /**
+     * Sorts visitors in place; same result as Arrays.sort with the comparator
+     * @param visitors The visitors to sort
+     * @param comparator The order to sort in
+     */
+    public static void sort(Visitor[] visitors, Comparator<? super Visitor> comparator) {
+        sort(visitors, comparator, false);
+    }
+
+    /**
+     * Sorts visitors in place, optionally on the common fork-join pool
+     * Both modes give the same result as Arrays.sort with the comparator
+     * @param visitors The visitors to sort
+     * @param comparator The order to sort in
+     * @param parallel true to sort in parallel
+     */
+    public static void sort(Visitor[] visitors, Comparator<? super Visitor> comparator, boolean parallel) {
+        long[] keys = packedKeys(visitors, comparator);
+        if (keys == null) {
+            if (parallel) {
+                // Arrays.parallelSort on objects can order equal elements
+                // differently from Arrays.sort, so sort positions instead
+                int[] order = sortOrder(visitors, comparator, true);
+                Visitor[] original = visitors.clone();
+                for (int i = 0; i < order.length; i++) {
+                    visitors[i] = original[order[i]];
+                }
+            } else {
+                Arrays.sort(visitors, comparator);
+            }
+            return;
+        }
+        sortKeys(keys, parallel);
+        Visitor[] original = visitors.clone();
+        int indexMask = indexMask(visitors.length);
+        for (int i = 0; i < keys.length; i++) {
+            visitors[i] = original[(int) (keys[i] & indexMask)];
+        }
+    }
+
+    /**
+     * Computes the stable sort order of visitors without moving them
+     * @param visitors The visitors to sort
+     * @param comparator The order to sort in
+     * @return order[i] is the position in visitors of the i-th visitor in sorted order
+     */
+    public static int[] sortOrder(Visitor[] visitors, Comparator<? super Visitor> comparator) {
+        return sortOrder(visitors, comparator, false);
+    }
+
+    /**
+     * Computes the stable sort order of visitors, optionally on the common fork-join pool
+     * @param visitors The visitors to sort
+     * @param comparator The order to sort in
+     * @param parallel true to sort in parallel
+     * @return order[i] is the position in visitors of the i-th visitor in sorted order
+     */
+    public static int[] sortOrder(Visitor[] visitors, Comparator<? super Visitor> comparator, boolean parallel) {
+        long[] keys = packedKeys(visitors, comparator);
+        if (keys == null) {
+            return sortOrder(visitors.length,
+                             (left, right) -> comparator.compare(visitors[left], visitors[right]), parallel);
+        }
+        sortKeys(keys, parallel);
+        int[] order = new int[visitors.length];
+        int indexMask = indexMask(visitors.length);
+        for (int i = 0; i < keys.length; i++) {
+            order[i] = (int) (keys[i] & indexMask);
+        }
+        return order;
+    }
+
+    /**
+     * Computes the stable sort order of rows that are compared by position
+     * @param rows Number of rows
+     * @param comparator Compares two rows by their positions
+     * @param parallel true to sort in parallel
+     * @return order[i] is the position of the i-th row in sorted order
+     */
+    static int[] sortOrder(int rows, RowComparator comparator, boolean parallel) {
+        int[] order = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            order[i] = i;
+        }
+        mergeSort(order, comparator, parallel);
+        return order;
+    }
+
+    /**
+     * Computes the stable sort order of rows by one non-negative key per row,
+     * e.g. several fields packed into a long
+     * @param keys Key per row; overwritten by the call
+     * @param parallel true to sort in parallel
+     * @return order[i] is the position of the i-th row in sorted order, or
+     *         null if a key and a position do not fit in 63 bits together
+     */
+    static int[] sortOrder(long[] keys, boolean parallel) {
+        int n = keys.length;
+        int indexBits = bitsFor(Math.max(n - 1, 0));
+        long max = 0;
+        for (long key : keys) {
+            max = Math.max(max, key);
+        }
+        if (bitsFor(max) + indexBits > 63) return null;
+        for (int i = 0; i < n; i++) {
+            keys[i] = (keys[i] << indexBits) | i;
+        }
+        sortKeys(keys, parallel);
+        int[] order = new int[n];
+        int indexMask = (int) ((1L << indexBits) - 1);
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) (keys[i] & indexMask);
+        }
+        return order;
+    }
+
+    /**
+     * Compares two rows of some storage by their positions
+     */
+    interface RowComparator {
+        int compare(int left, int right);
+    }
+
+    /**
+     * Checks if a comparator has a packed-key sort path
+     * @param comparator The comparator to check
+     * @return true for the built-in visitor comparators
+     */
+    public static boolean isSpecialized(Comparator<?> comparator) {
+        if (comparator == null) return false;
+        Class<?> type = comparator.getClass();
+        return type == VisitorComparator.class
+            || type == VisitorComparator.ByTicketTypeAndAge.class
+            || type == VisitorComparator.BySeasonPassAndName.class;
+    }
+
+    /**
+     * Builds (sort fields | original position) keys for a built-in comparator
+     * @return The keys, or null if the visitors must be sorted with the comparator
+     */
+    private static long[] packedKeys(Visitor[] visitors, Comparator<? super Visitor> comparator) {
+        int n = visitors.length;
+        if (n < 2 || !isSpecialized(comparator)) return null;
+        int indexBits = bitsFor(n - 1);
+        Class<?> type = comparator.getClass();
+
+        if (type == VisitorComparator.BySeasonPassAndName.class) {
+            // Pass holders first, then name
+            int[] nameRanks = caseInsensitiveRanks(visitors, false);
+            if (nameRanks == null) return null;
+            int nameBits = bitsFor(maxOf(nameRanks));
+            if (1 + nameBits + indexBits > 63) return null;
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) {
+                long pass = visitors[i].hasSeasonPass() ? 0 : 1;
+                keys[i] = (((pass << nameBits) | nameRanks[i]) << indexBits) | i;
+            }
+            return keys;
+        }
+
+        int minAge = Integer.MAX_VALUE;
+        int maxAge = Integer.MIN_VALUE;
+        for (Visitor visitor : visitors) {
+            minAge = Math.min(minAge, visitor.getAge());
+            maxAge = Math.max(maxAge, visitor.getAge());
+        }
+        int ageBits = bitsFor((long) maxAge - minAge);
+
+        boolean byTicket = type == VisitorComparator.ByTicketTypeAndAge.class;
+        int[] ranks = caseInsensitiveRanks(visitors, byTicket);
+        if (ranks == null) return null;
+        int rankBits = bitsFor(maxOf(ranks));
+        if (ageBits + rankBits + indexBits > 63) return null;
+
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            long key;
+            if (byTicket) {
+                // Ticket type, then age from oldest to youngest
+                long age = (long) maxAge - visitors[i].getAge();
+                key = ((long) ranks[i] << ageBits) | age;
+            } else {
+                // Age from youngest to oldest, then name
+                long age = (long) visitors[i].getAge() - minAge;
+                key = (age << rankBits) | ranks[i];
+            }
+            keys[i] = (key << indexBits) | i;
+        }
+        return keys;
+    }
+
+    /**
+     * Ranks names or ticket types so that comparing ranks is the same as
+     * compareToIgnoreCase; values equal ignoring case share a rank
+     * @return Rank per visitor, or null if some value is null
+     */
+    private static int[] caseInsensitiveRanks(Visitor[] visitors, boolean ticketType) {
+        int n = visitors.length;
+        String[] values = new String[n];
+        Map<String, Integer> ranks = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            String value = ticketType ? visitors[i].getTicketType() : visitors[i].getName();
+            if (value == null) return null;
+            values[i] = value;
+            ranks.putIfAbsent(value, 0);
+        }
+
+        String[] distinct = ranks.keySet().toArray(new String[0]);
+        Arrays.sort(distinct, String.CASE_INSENSITIVE_ORDER);
+        int rank = 0;
+        for (int i = 0; i < distinct.length; i++) {
+            if (i > 0 && distinct[i - 1].compareToIgnoreCase(distinct[i]) != 0) rank++;
+            ranks.put(distinct[i], rank);
+        }
+
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = ranks.get(values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Sorts non-negative keys; they are all distinct, so any correct sort gives
+     * the same order
+     */
+    static void sortKeys(long[] keys, boolean parallel) {
+        if (parallel) {
+            Arrays.parallelSort(keys);
+            return;
+        }
+        if (keys.length < RADIX_THRESHOLD) {
+            Arrays.sort(keys);
+            return;
+        }
+        long max = 0;
+        for (long key : keys) {
+            max = Math.max(max, key);
+        }
+        int bits = bitsFor(max);
+        long[] from = keys;
+        long[] to = new long[keys.length];
+        int[] counts = new int[1 << RADIX_BITS];
+        int mask = (1 << RADIX_BITS) - 1;
+        for (int shift = 0; shift < bits; shift += RADIX_BITS) {
+            Arrays.fill(counts, 0);
+            for (long key : from) {
+                counts[(int) (key >>> shift) & mask]++;
+            }
+            int total = 0;
+            for (int d = 0; d < counts.length; d++) {
+                int count = counts[d];
+                counts[d] = total;
+                total += count;
+            }
+            for (long key : from) {
+                to[counts[(int) (key >>> shift) & mask]++] = key;
+            }
+            long[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != keys) {
+            System.arraycopy(from, 0, keys, 0, keys.length);
+        }
+    }
+
+    private static void mergeSort(int[] order, RowComparator comparator, boolean parallel) {
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(
+                    new MergeSortTask(order, new int[order.length], 0, order.length, comparator));
+        } else {
+            mergeSort(order, new int[order.length], 0, order.length, comparator);
+        }
+    }
+
+    /**
+     * Stable bottom-up merge sort of order[from, to) by the rows the positions point to
+     * @param buffer Scratch space at least as long as order
+     */
+    private static void mergeSort(int[] order, int[] buffer, int from, int to, RowComparator comparator) {
+        int[] source = order;
+        int[] target = buffer;
+        for (int width = 1; width < to - from; width *= 2) {
+            for (int low = from; low < to; low += 2 * width) {
+                int middle = Math.min(low + width, to);
+                int high = Math.min(low + 2 * width, to);
+                merge(source, target, low, middle, high, comparator);
+            }
+            int[] swap = source;
+            source = target;
+            target = swap;
+        }
+        if (source != order) {
+            System.arraycopy(source, from, order, from, to - from);
+        }
+    }
+
+    /**
+     * Merges the sorted runs from[low, middle) and from[middle, high) into to[low, high)
+     * Ties take the left run first, which keeps the sort stable
+     */
+    private static void merge(int[] from, int[] to, int low, int middle, int high, RowComparator comparator) {
+        int left = low;
+        int right = middle;
+        for (int k = low; k < high; k++) {
+            if (left < middle && (right >= high
+                    || comparator.compare(from[left], from[right]) <= 0)) {
+                to[k] = from[left++];
+            } else {
+                to[k] = from[right++];
+            }
+        }
+    }
+
+    /**
+     * Fork-join merge sort of positions: halves are sorted in parallel and merged
+     */
+    @SuppressWarnings("serial")
+    private static final class MergeSortTask extends RecursiveAction {
+        private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+        private final int[] order;
+        private final int[] buffer;
+        private final int from;
+        private final int to;
+        private final RowComparator comparator;
+
+        MergeSortTask(int[] order, int[] buffer, int from, int to, RowComparator comparator) {
+            this.order = order;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.comparator = comparator;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                mergeSort(order, buffer, from, to, comparator);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new MergeSortTask(order, buffer, from, middle, comparator),
+                      new MergeSortTask(order, buffer, middle, to, comparator));
+            merge(order, buffer, from, middle, to, comparator);
+            System.arraycopy(buffer, from, order, from, to - from);
+        }
+    }
+
+    private static int maxOf(int[] values) {
+        int max = 0;
+        for (int value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static int indexMask(int n) {
+        return (int) ((1L << bitsFor(n - 1)) - 1);
+    }
+
+    // Number of bits needed to hold values 0..max
+    private static int bitsFor(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+}
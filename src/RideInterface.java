@@ -38,6 +38,7 @@ public interface RideInterface {
     
     /**
      * Checks if a visitor is in the ride history
+     * Visitors are matched on their visitorId
      * @param visitor The visitor to check
      * @return true if visitor is in history, false otherwise
      */
@@ -64,6 +65,20 @@ public interface RideInterface {
      */
     void runOneCycle();
     
+    /**
+     * Runs the ride for up to n cycles without printing each cycle
+     * Stops early once the queue is empty
+     * @param n Maximum number of cycles to run
+     * @return Summary of the cycles that were run
+     */
+    CycleResult runCycles(int n);
+    
+    /**
+     * Runs the ride until every visitor in the queue has taken it
+     * @return Summary of the cycles that were run
+     */
+    CycleResult runUntilEmpty();
+    
     // File Operations Methods (for Parts 6-7)
     
     /**
@@ -0,0 +1,869 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal that lets a Ride be rebuilt after a crash
+ * Queue admissions and removals, history additions and boardings are appended
+ * to an in-memory buffer as they happen; a background thread writes the buffer
+ * to the current segment file and forces it to disk once per commit interval,
+ * so one fsync covers every change made in that interval (group commit) and
+ * the ride never waits for the disk. Whatever was appended in the last commit
+ * interval before a crash can be lost; sync() waits until everything so far is durable
+ *
+ * Every snapshotEvery records the journal starts a new segment and writes a
+ * snapshot in the background, in the RideHistoryBinaryFormat layout. Snapshots
+ * are incremental: the ride thread copies only the history rows added since
+ * the previous snapshot, plus the queue and cycle count, so the copy costs
+ * O(new rows + queue) however long the history is. Each snapshot points back to
+ * the one before, and the chain ends at a full snapshot, which is taken first
+ * and whenever the history has been rewritten: sortRideHistory copies the whole
+ * sorted history once, on the caller's thread, without waiting for the disk.
+ * Segments and snapshots outside the newest chain are deleted once it is written
+ *
+ * Recovery loads the newest snapshot whose chain reads back completely and
+ * replays the records after it. A sort is journaled as a record too: one by a
+ * built-in VisitorComparator is sorted again on replay, while a sort by any
+ * other comparator keeps the earlier order if the crash came before its full
+ * snapshot was written. Imported rows are journaled like any other history add
+ *
+ * Files in the directory, numbered by the record sequence they start at:
+ *   journal-N.log: records of [payload length int][CRC32 of payload int][payload]
+ *   snapshot-N.history: history rows added since the previous snapshot, or all of them
+ *   snapshot-N.queue: the whole queue (deleted once a newer snapshot is written)
+ *   snapshot-N.meta: magic "RJSM", version byte, sequence long, sequence of the
+ *   previous snapshot long (-1 for a full one), history rows in total int, cycle
+ *   count int, CRC32 of the preceding bytes; written last, so only complete
+ *   snapshots have one
+ * Replay stops at the first torn or corrupt record
+ *
+ * Only ride state is journaled: the ride passed to open must be set up with the
+ * same storage, lanes and maxRider as before. A recovered LaneQueue starts its
+ * lane schedule afresh, as every cycle does. Changes made directly through
+ * getWaitingQueue() or getRideHistory() are not journaled, and ConcurrentRide
+ * is not supported because its gates admit visitors without a common lock
+ */
+public class RideJournal implements AutoCloseable {
+    private static final int VERSION = 2;
+    private static final byte[] META_MAGIC = {'R', 'J', 'S', 'M'};
+    private static final int META_SIZE = META_MAGIC.length + 1 + 8 + 8 + 4 + 4 + 4;
+    private static final String[] SNAPSHOT_SUFFIXES = {".meta", ".meta.tmp", ".history", ".queue"};
+    private static final int RECORD_HEADER = 8;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // A buffer this full is written without waiting for the commit interval
+    private static final int EAGER_WRITE_BYTES = 1024 * 1024;
+
+    private static final byte QUEUE_ADD = 1;
+    private static final byte QUEUE_REMOVE = 2;
+    private static final byte HISTORY_ADD = 3;
+    private static final byte BOARD = 4;
+    private static final byte SORT = 5;
+
+    private final File directory;
+    private long commitIntervalMillis;
+    private long snapshotEvery;
+
+    // Everything below is guarded by lock, apart from the files owned by the background threads
+    private final Object lock;
+    private final CRC32 recordCrc;
+    private final ArrayDeque<Work> work;
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    // Records appended since the journal was created, counting those restored by recovery
+    private long sequence;
+    private long snapshotSequence;
+    // What the last capture covered, so the next copies only newer history rows; -1 before the first
+    private long capturedSequence;
+    private int capturedRows;
+    private long capturedRewrites;
+    // Sequence of the newest snapshot written completely, and whether one is being written
+    private long writtenSnapshotSequence;
+    private boolean snapshotting;
+    private long durableSequence;
+    private boolean writeRequested;
+    private boolean closing;
+    private IOException failure;
+    private Ride ride;
+    private Thread writer;
+    private Thread snapshotter;
+    private final ArrayDeque<Capture> captures;
+
+    // Owned by the writer thread
+    private FileChannel segment;
+
+    /**
+     * Creates a journal kept in a directory, with a 10 ms commit interval and
+     * a snapshot every 1,000,000 records
+     * @param directory Directory for segments and snapshots; created on open if missing
+     */
+    public RideJournal(File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory must not be null");
+        }
+        this.directory = directory;
+        this.commitIntervalMillis = 10;
+        this.snapshotEvery = 1_000_000;
+        this.lock = new Object();
+        this.recordCrc = new CRC32();
+        this.work = new ArrayDeque<>();
+        this.captures = new ArrayDeque<>();
+    }
+
+    /**
+     * Sets how often appended records are written and forced to disk
+     * Longer intervals mean fewer fsyncs and more changes lost in a crash
+     * @param commitIntervalMillis Time between commits
+     */
+    public void setCommitIntervalMillis(long commitIntervalMillis) {
+        if (commitIntervalMillis <= 0) {
+            throw new IllegalArgumentException("commitIntervalMillis must be positive");
+        }
+        synchronized (lock) {
+            this.commitIntervalMillis = commitIntervalMillis;
+        }
+    }
+
+    /**
+     * Sets how many records are written between snapshots, which bounds replay on recovery
+     * Each snapshot copies the queue and the history rows added since the last one,
+     * and adds two files to the snapshot chain
+     * @param snapshotEvery Records between snapshots
+     */
+    public void setSnapshotEvery(long snapshotEvery) {
+        if (snapshotEvery <= 0) {
+            throw new IllegalArgumentException("snapshotEvery must be positive");
+        }
+        synchronized (lock) {
+            this.snapshotEvery = snapshotEvery;
+        }
+    }
+
+    /**
+     * Restores a ride from the directory and starts journaling its changes
+     * The ride's events are silenced during recovery and its metrics are reset afterwards
+     * @param ride A ride with an empty queue and history, set up like the journaled one
+     * @return Number of records replayed after the snapshot
+     * @throws IOException If the directory cannot be read or the new segment cannot be created
+     */
+    public long open(Ride ride) throws IOException {
+        if (ride == null) {
+            throw new IllegalArgumentException("ride must not be null");
+        }
+        if (ride instanceof ConcurrentRide) {
+            throw new IllegalArgumentException("Journaling is not available on a concurrent ride");
+        }
+        if (!ride.getWaitingQueue().isEmpty() || !ride.getRideHistory().isEmpty()) {
+            throw new IllegalArgumentException("Recover into a ride with an empty queue and history");
+        }
+        synchronized (lock) {
+            if (this.ride != null || closing) {
+                throw new IllegalStateException("The journal is already open");
+            }
+        }
+        Files.createDirectories(directory.toPath());
+
+        long base;
+        long replayed;
+        int snapshotRows;
+        long snapshotRewrites;
+        RideEventSink sink = ride.getEventSink();
+        ride.setEventSink(RideEventSink.NO_OP);
+        try {
+            base = loadSnapshot(ride);
+            // What the snapshot chain holds; a sort during replay makes the next snapshot a full one
+            snapshotRows = ride.getRideHistory().size();
+            snapshotRewrites = ride.getRideHistory().getRewriteCount();
+            replayed = replay(ride, base);
+        } finally {
+            ride.setEventSink(sink);
+        }
+        ride.getMetrics().reset();
+
+        long end = base + replayed;
+        // Segments after a torn record would otherwise be replayed after the new one
+        for (long start : list("journal-", ".log").keySet()) {
+            if (start >= end) Files.delete(segmentPath(start));
+        }
+        // Snapshots outside the loaded chain are damaged, unfinished or replaced
+        deleteSnapshotsOutside(base > 0 ? chainOf(base) : new HashSet<>(), base);
+        segment = FileChannel.open(segmentPath(end), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        synchronized (lock) {
+            sequence = end;
+            snapshotSequence = base;
+            writtenSnapshotSequence = base;
+            capturedSequence = base > 0 ? base : -1;
+            capturedRows = snapshotRows;
+            capturedRewrites = snapshotRewrites;
+            durableSequence = end;
+            pending = ByteBuffer.allocate(BUFFER_SIZE);
+            this.ride = ride;
+            writer = new Thread(this::writeLoop, "ride-journal-" + ride.getRideName());
+            writer.setDaemon(true);
+            snapshotter = new Thread(this::snapshotLoop, "ride-journal-snapshot-" + ride.getRideName());
+            snapshotter.setDaemon(true);
+        }
+        writer.start();
+        snapshotter.start();
+        ride.setJournal(this);
+        // Replayed records are compacted right away so the next recovery starts from here
+        if (replayed > 0) checkpoint();
+        return replayed;
+    }
+
+    /**
+     * Starts a snapshot of the ride's state, written in the background
+     * Copies the queue and the history rows added since the previous snapshot
+     */
+    public void checkpoint() {
+        synchronized (lock) {
+            if (ride != null && !closing) capture();
+        }
+    }
+
+    /**
+     * Waits until every record appended so far has been forced to disk
+     * @throws IOException If writing the journal failed
+     */
+    public void sync() throws IOException {
+        synchronized (lock) {
+            long target = sequence;
+            writeRequested = true;
+            lock.notifyAll();
+            try {
+                while (durableSequence < target && failure == null && writer != null && writer.isAlive()) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the ride journal");
+            }
+            if (failure != null) {
+                throw new IOException("Ride journal write failed", failure);
+            }
+        }
+    }
+
+    /**
+     * Writes everything appended so far, finishes any snapshot in progress and
+     * detaches the journal from its ride
+     * @throws IOException If writing the journal failed
+     */
+    @Override
+    public void close() throws IOException {
+        Thread writerThread;
+        Thread snapshotThread;
+        Ride journaled;
+        synchronized (lock) {
+            if (ride == null || closing) return;
+            closing = true;
+            lock.notifyAll();
+            writerThread = writer;
+            snapshotThread = snapshotter;
+            journaled = ride;
+        }
+        journaled.setJournal(null);
+        try {
+            writerThread.join();
+            snapshotThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the ride journal");
+        } finally {
+            segment.close();
+        }
+        synchronized (lock) {
+            if (failure != null) {
+                throw new IOException("Ride journal write failed", failure);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of records appended, counting those restored by recovery
+     * @return The record sequence
+     */
+    public long getSequence() {
+        synchronized (lock) {
+            return sequence;
+        }
+    }
+
+    /**
+     * Gets the number of records known to be on disk
+     * @return The durable record sequence
+     */
+    public long getDurableSequence() {
+        synchronized (lock) {
+            return durableSequence;
+        }
+    }
+
+    // Records appended by the ride, after each change has been made
+
+    void queueAdded(Visitor visitor) {
+        appendVisitor(QUEUE_ADD, visitor);
+    }
+
+    // Removals from the head are journaled by visitorId too, as the head of a
+    // LaneQueue depends on the lane schedule, which a snapshot does not keep
+    void queueRemoved(String visitorId) {
+        byte[] id = bytes(visitorId);
+        int length = 1 + stringLength(id);
+        synchronized (lock) {
+            ByteBuffer out = beginRecord(length);
+            out.put(QUEUE_REMOVE);
+            putString(out, id);
+            endRecord(length);
+        }
+    }
+
+    void historyAdded(Visitor visitor) {
+        appendVisitor(HISTORY_ADD, visitor);
+    }
+
+    // The sorted order goes into a full snapshot straight away; the record lets a
+    // built-in comparator's sort be redone if that snapshot is not written before a crash
+    void historySorted(Comparator<Visitor> comparator) {
+        byte[] name = RideHistorySorter.isSpecialized(comparator) ? bytes(comparator.getClass().getName()) : null;
+        int length = 1 + stringLength(name);
+        synchronized (lock) {
+            ByteBuffer out = beginRecord(length);
+            out.put(SORT);
+            putString(out, name);
+            endRecord(length);
+            if (ride != null && !closing) capture();
+        }
+    }
+
+    void boarded(int visitors, int cycles) {
+        synchronized (lock) {
+            ByteBuffer out = beginRecord(9);
+            out.put(BOARD);
+            out.putInt(visitors);
+            out.putInt(cycles);
+            endRecord(9);
+        }
+    }
+
+    private void appendVisitor(byte type, Visitor visitor) {
+        byte[] name = bytes(visitor.getName());
+        byte[] gender = bytes(visitor.getGender());
+        byte[] id = bytes(visitor.getVisitorId());
+        byte[] ticket = bytes(visitor.getTicketType());
+        int length = 1 + stringLength(name) + 4 + stringLength(gender) + stringLength(id)
+                     + stringLength(ticket) + 1;
+        synchronized (lock) {
+            ByteBuffer out = beginRecord(length);
+            out.put(type);
+            putString(out, name);
+            out.putInt(visitor.getAge());
+            putString(out, gender);
+            putString(out, id);
+            putString(out, ticket);
+            out.put((byte) (visitor.hasSeasonPass() ? 1 : 0));
+            endRecord(length);
+        }
+    }
+
+    // Called with lock held: makes room and writes the length, leaving space for the checksum
+    private ByteBuffer beginRecord(int length) {
+        // Nothing is written after a failure, so stop buffering
+        if (failure != null) pending.clear();
+        if (pending.remaining() < RECORD_HEADER + length) {
+            int capacity = Math.max(pending.capacity() * 2, pending.position() + RECORD_HEADER + length);
+            pending = ByteBuffer.allocate(capacity).put(pending.flip());
+        }
+        pending.putInt(length);
+        pending.putInt(0);
+        return pending;
+    }
+
+    // Called with lock held: fills in the checksum and hands work to the background threads
+    private void endRecord(int length) {
+        int start = pending.position() - length;
+        recordCrc.reset();
+        recordCrc.update(pending.array(), start, length);
+        pending.putInt(start - 4, (int) recordCrc.getValue());
+        sequence++;
+        if (pending.position() >= EAGER_WRITE_BYTES) lock.notifyAll();
+        // A snapshot still being written delays the next, so copies cannot pile up
+        if (sequence - snapshotSequence >= snapshotEvery && captures.isEmpty() && !snapshotting) capture();
+    }
+
+    // Called with lock held: the new segment starts right after the copied state
+    // Copies only the history rows added since the last capture, unless the history was rewritten
+    private void capture() {
+        // Already captured at this sequence, e.g. by the record that triggered a sort's capture
+        if (sequence == capturedSequence) return;
+        RideHistory history = ride.getRideHistory();
+        boolean full = capturedSequence < 0 || history.getRewriteCount() != capturedRewrites
+                       || history.size() < capturedRows;
+        if (full) {
+            // A full snapshot makes any not yet started ones redundant
+            captures.clear();
+        }
+        queueWrite();
+        work.add(Work.rotate(sequence));
+        captures.add(new Capture(sequence, full ? -1 : capturedSequence, ride.getNumOfCycles(),
+                                 ride.getWaitingQueue().toArray(new Visitor[0]),
+                                 history.copyOf(full ? 0 : capturedRows), history.size(), ride.getRideName()));
+        capturedSequence = sequence;
+        capturedRows = history.size();
+        capturedRewrites = history.getRewriteCount();
+        snapshotSequence = sequence;
+        lock.notifyAll();
+    }
+
+    // Called with lock held
+    private void queueWrite() {
+        if (pending.position() == 0) return;
+        work.add(Work.write(pending, sequence));
+        pending = spare != null ? spare : ByteBuffer.allocate(BUFFER_SIZE);
+        spare = null;
+    }
+
+    /**
+     * Writer thread: every commit interval, writes what was appended and forces it to disk
+     */
+    private void writeLoop() {
+        List<Work> batch = new ArrayList<>();
+        while (true) {
+            boolean stop;
+            synchronized (lock) {
+                long deadline = System.nanoTime() + commitIntervalMillis * 1_000_000;
+                try {
+                    while (!closing && !writeRequested && work.isEmpty() && pending.position() < EAGER_WRITE_BYTES) {
+                        long waitMillis = (deadline - System.nanoTime()) / 1_000_000;
+                        if (waitMillis <= 0) break;
+                        lock.wait(waitMillis);
+                    }
+                } catch (InterruptedException e) {
+                    closing = true;
+                }
+                queueWrite();
+                writeRequested = false;
+                batch.addAll(work);
+                work.clear();
+                stop = closing;
+            }
+
+            long durable = -1;
+            IOException error = null;
+            try {
+                for (Work item : batch) {
+                    if (item.batch != null) {
+                        ByteBuffer data = item.batch.flip();
+                        while (data.hasRemaining()) segment.write(data);
+                        durable = item.endSequence;
+                    } else {
+                        segment.force(false);
+                        segment.close();
+                        segment = FileChannel.open(segmentPath(item.endSequence), StandardOpenOption.CREATE,
+                                                   StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                    }
+                }
+                if (durable >= 0) segment.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            synchronized (lock) {
+                if (error != null && failure == null) failure = error;
+                if (error == null && durable >= 0) durableSequence = durable;
+                for (Work item : batch) {
+                    if (item.batch != null && item.batch.capacity() == BUFFER_SIZE) spare = item.batch.clear();
+                }
+                lock.notifyAll();
+            }
+            batch.clear();
+            if (stop || error != null) return;
+        }
+    }
+
+    /**
+     * Snapshot thread: writes captured state, then deletes what it replaces
+     */
+    private void snapshotLoop() {
+        while (true) {
+            Capture capture;
+            synchronized (lock) {
+                try {
+                    while (captures.isEmpty() && !closing) {
+                        lock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+                capture = captures.poll();
+                if (capture == null) return;
+                snapshotting = true;
+            }
+            try {
+                writeSnapshot(capture);
+                synchronized (lock) {
+                    writtenSnapshotSequence = Math.max(writtenSnapshotSequence, capture.sequence);
+                    snapshotting = false;
+                    lock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    if (failure == null) failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    private void writeSnapshot(Capture capture) throws IOException {
+        long at = capture.sequence;
+        writeVisitors(snapshotPath(at, ".history"), capture.rideName, capture.history);
+        writeVisitors(snapshotPath(at, ".queue"), capture.rideName, Arrays.asList(capture.queue));
+
+        ByteBuffer meta = ByteBuffer.allocate(META_SIZE);
+        meta.put(META_MAGIC).put((byte) VERSION).putLong(at).putLong(capture.previous)
+            .putInt(capture.historyRows).putInt(capture.cycles);
+        CRC32 crc = new CRC32();
+        crc.update(meta.array(), 0, meta.position());
+        meta.putInt((int) crc.getValue()).flip();
+        Path temporary = snapshotPath(at, ".meta.tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (meta.hasRemaining()) channel.write(meta);
+            channel.force(true);
+        }
+        Files.move(temporary, snapshotPath(at, ".meta"), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+
+        // The snapshot's chain now covers everything before it
+        Set<Long> chain = chainOf(at);
+        if (chain.isEmpty()) throw new IOException("Snapshot " + at + " does not link back to a full snapshot");
+        for (long start : list("journal-", ".log").keySet()) {
+            if (start < at) Files.deleteIfExists(segmentPath(start));
+        }
+        for (String suffix : SNAPSHOT_SUFFIXES) {
+            for (long older : list("snapshot-", suffix).keySet()) {
+                if (older < at && !chain.contains(older)) deleteSnapshot(older);
+            }
+        }
+        // Earlier links only need their history rows
+        for (long link : chain) {
+            if (link != at) Files.deleteIfExists(snapshotPath(link, ".queue"));
+        }
+    }
+
+    // Deletes every snapshot file not in chain, and the queues of chain members other than newest
+    private void deleteSnapshotsOutside(Set<Long> chain, long newest) throws IOException {
+        for (String suffix : SNAPSHOT_SUFFIXES) {
+            for (long at : list("snapshot-", suffix).keySet()) {
+                if (!chain.contains(at)) deleteSnapshot(at);
+            }
+        }
+        for (long link : chain) {
+            Files.deleteIfExists(snapshotPath(link, ".meta.tmp"));
+            if (link != newest) Files.deleteIfExists(snapshotPath(link, ".queue"));
+        }
+    }
+
+    // Sequences of a snapshot and the ones it builds on, back to the full one; empty if any link is bad
+    private Set<Long> chainOf(long at) {
+        Set<Long> chain = new HashSet<>();
+        long link = at;
+        while (link >= 0) {
+            Meta meta = readMeta(link);
+            if (meta == null) return new HashSet<>();
+            chain.add(link);
+            link = meta.previous;
+        }
+        return chain;
+    }
+
+    private static void writeVisitors(Path path, String rideName, List<Visitor> visitors) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            RideHistoryBinaryFormat.write(channel, rideName, visitors, visitors.size());
+            channel.force(true);
+        }
+    }
+
+    private void deleteSnapshot(long at) throws IOException {
+        Files.deleteIfExists(snapshotPath(at, ".meta"));
+        Files.deleteIfExists(snapshotPath(at, ".meta.tmp"));
+        Files.deleteIfExists(snapshotPath(at, ".history"));
+        Files.deleteIfExists(snapshotPath(at, ".queue"));
+    }
+
+    /**
+     * Loads the newest snapshot whose whole chain reads back completely
+     * @return The sequence the snapshot was taken at, or 0 if there is none
+     */
+    private long loadSnapshot(Ride ride) {
+        TreeMap<Long, Path> metas = list("snapshot-", ".meta");
+        for (Long at : metas.descendingKeySet()) {
+            try {
+                // Links from the full snapshot forward
+                List<Meta> chain = new ArrayList<>();
+                for (Meta link = readMeta(at); link != null; link = link.previous < 0 ? null : readMeta(link.previous)) {
+                    chain.add(0, link);
+                }
+                if (chain.isEmpty() || chain.get(0).previous >= 0) continue;
+
+                // Every file is read in full before the ride is touched
+                List<Visitor> history = new ArrayList<>();
+                for (Meta link : chain) {
+                    history.addAll(readVisitors(snapshotPath(link.sequence, ".history")));
+                    if (history.size() != link.historyRows) throw new IOException("Snapshot chain does not add up");
+                }
+                List<Visitor> queue = readVisitors(snapshotPath(at, ".queue"));
+                for (Visitor visitor : history) {
+                    ride.getRideHistory().add(visitor);
+                }
+                for (Visitor visitor : queue) {
+                    ride.getWaitingQueue().offer(visitor);
+                }
+                ride.restoreCycles(chain.get(chain.size() - 1).cycles);
+                return at;
+            } catch (IOException e) {
+                // Incomplete or damaged: fall back to the one before
+            }
+        }
+        return 0;
+    }
+
+    // Reads and checks a snapshot's meta file; null if it is missing or damaged
+    private Meta readMeta(long at) {
+        try {
+            ByteBuffer meta = ByteBuffer.wrap(Files.readAllBytes(snapshotPath(at, ".meta")));
+            if (meta.remaining() != META_SIZE) return null;
+            CRC32 crc = new CRC32();
+            crc.update(meta.array(), 0, META_SIZE - 4);
+            byte[] magic = new byte[META_MAGIC.length];
+            meta.get(magic);
+            if (!Arrays.equals(magic, META_MAGIC) || meta.get() != VERSION || meta.getLong() != at) return null;
+            long previous = meta.getLong();
+            int historyRows = meta.getInt();
+            int cycles = meta.getInt();
+            if (meta.getInt() != (int) crc.getValue() || previous >= at || historyRows < 0) return null;
+            return new Meta(at, previous, historyRows, cycles);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<Visitor> readVisitors(Path path) throws IOException {
+        List<Visitor> visitors = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            RideHistoryBinaryFormat.read(channel, visitors::add);
+        }
+        return visitors;
+    }
+
+    /**
+     * Replays segments that follow on from a sequence without a gap
+     * @return Number of records applied
+     */
+    private long replay(Ride ride, long from) throws IOException {
+        long next = from;
+        for (Map.Entry<Long, Path> entry : list("journal-", ".log").entrySet()) {
+            if (entry.getKey() < from) continue;
+            if (entry.getKey() != next) break;
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(entry.getValue()));
+            CRC32 crc = new CRC32();
+            while (data.remaining() >= RECORD_HEADER) {
+                int length = data.getInt();
+                int checksum = data.getInt();
+                if (length <= 0 || length > data.remaining()) break;
+                crc.reset();
+                crc.update(data.array(), data.position(), length);
+                if ((int) crc.getValue() != checksum) break;
+                ByteBuffer record = data.slice().limit(length);
+                data.position(data.position() + length);
+                if (!apply(ride, record)) break;
+                next++;
+            }
+            // A torn record ends the replay, whatever follows it
+            if (data.hasRemaining()) break;
+        }
+        return next - from;
+    }
+
+    private static boolean apply(Ride ride, ByteBuffer record) {
+        switch (record.get()) {
+            case QUEUE_ADD:
+                ride.getWaitingQueue().offer(readVisitor(record));
+                return true;
+            case QUEUE_REMOVE:
+                ride.removeVisitorFromQueue(readString(record));
+                return true;
+            case HISTORY_ADD:
+                ride.getRideHistory().add(readVisitor(record));
+                return true;
+            case BOARD:
+                ride.replayBoarding(record.getInt(), record.getInt());
+                return true;
+            case SORT:
+                Comparator<Visitor> comparator = builtInComparator(readString(record));
+                // Any other comparator's order is lost with its snapshot; the rows are all still there
+                if (comparator != null) ride.getRideHistory().sort(comparator);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static Comparator<Visitor> builtInComparator(String className) {
+        if (VisitorComparator.class.getName().equals(className)) {
+            return new VisitorComparator();
+        }
+        if (VisitorComparator.ByTicketTypeAndAge.class.getName().equals(className)) {
+            return new VisitorComparator.ByTicketTypeAndAge();
+        }
+        if (VisitorComparator.BySeasonPassAndName.class.getName().equals(className)) {
+            return new VisitorComparator.BySeasonPassAndName();
+        }
+        return null;
+    }
+
+    private static Visitor readVisitor(ByteBuffer record) {
+        String name = readString(record);
+        int age = record.getInt();
+        String gender = readString(record);
+        String visitorId = readString(record);
+        String ticketType = readString(record);
+        boolean hasSeasonPass = record.get() != 0;
+        return new Visitor(name, age, gender, visitorId, ticketType, hasSeasonPass, false);
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringLength(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    // Strings are a byte length, -1 for null, followed by UTF-8 bytes
+    private static void putString(ByteBuffer out, byte[] value) {
+        if (value == null) {
+            out.putInt(-1);
+            return;
+        }
+        out.putInt(value.length);
+        out.put(value);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) return null;
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    private Path segmentPath(long start) {
+        return new File(directory, String.format("journal-%020d.log", start)).toPath();
+    }
+
+    private Path snapshotPath(long at, String suffix) {
+        return new File(directory, String.format("snapshot-%020d", at) + suffix).toPath();
+    }
+
+    // Files named prefix + 20-digit sequence + suffix, by sequence
+    private TreeMap<Long, Path> list(String prefix, String suffix) {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        String[] names = directory.list();
+        if (names == null) return files;
+        for (String name : names) {
+            if (name.length() != prefix.length() + 20 + suffix.length()
+                    || !name.startsWith(prefix) || !name.endsWith(suffix)) continue;
+            try {
+                files.put(Long.parseLong(name.substring(prefix.length(), prefix.length() + 20)),
+                          new File(directory, name).toPath());
+            } catch (NumberFormatException e) {
+                // Not one of ours
+            }
+        }
+        return files;
+    }
+
+    /**
+     * A buffer of records to write, or a switch to a new segment
+     */
+    private static final class Work {
+        final ByteBuffer batch;
+        final long endSequence;
+
+        private Work(ByteBuffer batch, long endSequence) {
+            this.batch = batch;
+            this.endSequence = endSequence;
+        }
+
+        static Work write(ByteBuffer batch, long endSequence) {
+            return new Work(batch, endSequence);
+        }
+
+        static Work rotate(long newSegmentStart) {
+            return new Work(null, newSegmentStart);
+        }
+    }
+
+    /**
+     * Ride state copied for a snapshot
+     */
+    private static final class Capture {
+        final long sequence;
+        final long previous;
+        final int cycles;
+        final Visitor[] queue;
+        // Rows added since the previous snapshot, or all rows if previous is -1
+        final List<Visitor> history;
+        final int historyRows;
+        final String rideName;
+
+        Capture(long sequence, long previous, int cycles, Visitor[] queue, List<Visitor> history, int historyRows,
+                String rideName) {
+            this.sequence = sequence;
+            this.previous = previous;
+            this.cycles = cycles;
+            this.queue = queue;
+            this.history = history;
+            this.historyRows = historyRows;
+            this.rideName = rideName;
+        }
+    }
+
+    /**
+     * Contents of a snapshot's meta file
+     */
+    private static final class Meta {
+        final long sequence;
+        final long previous;
+        final int historyRows;
+        final int cycles;
+
+        Meta(long sequence, long previous, int historyRows, int cycles) {
+            this.sequence = sequence;
+            this.previous = previous;
+            this.historyRows = historyRows;
+            this.cycles = cycles;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operational counters and queue wait times of one ride
+ * Counters are striped LongAdders, so gates admitting visitors on several
+ * threads do not contend on one cache line; waits go into a LatencyHistogram,
+ * which records without allocating. Reading is done through snapshot, which
+ * copies the current values into an immutable Snapshot
+ */
+public class RideMetrics {
+    private final LongAdder admissions;
+    private final LongAdder admissionsRejected;
+    private final LongAdder removals;
+    private final LongAdder boardings;
+    private final LongAdder cycles;
+    private final LongAdder cyclesNoOperator;
+    private final LongAdder cyclesEmptyQueue;
+    private final LongAdder cyclesNotOperational;
+    private final LatencyHistogram waitNanos;
+
+    /**
+     * Creates metrics with every counter at 0
+     */
+    public RideMetrics() {
+        this.admissions = new LongAdder();
+        this.admissionsRejected = new LongAdder();
+        this.removals = new LongAdder();
+        this.boardings = new LongAdder();
+        this.cycles = new LongAdder();
+        this.cyclesNoOperator = new LongAdder();
+        this.cyclesEmptyQueue = new LongAdder();
+        this.cyclesNotOperational = new LongAdder();
+        this.waitNanos = new LatencyHistogram();
+    }
+
+    void recordAdmission() {
+        admissions.increment();
+    }
+
+    void recordAdmissionRejected() {
+        admissionsRejected.increment();
+    }
+
+    void recordRemoval() {
+        removals.increment();
+    }
+
+    void recordCycles(int count) {
+        cycles.add(count);
+    }
+
+    /**
+     * Counts a boarding and its wait from joining the queue
+     * The wait is measured by the caller for the queue entry that boarded, as
+     * the same visitor may have joined more than once
+     * @param wait Nanoseconds from joining the queue to boarding, or -1 if not known
+     */
+    void recordBoarding(long wait) {
+        boardings.increment();
+        if (wait >= 0) waitNanos.record(wait);
+    }
+
+    void recordRejectedCycle(CycleResult.StopReason reason) {
+        switch (reason) {
+            case NO_OPERATOR:
+                cyclesNoOperator.increment();
+                break;
+            case QUEUE_EMPTY:
+                cyclesEmptyQueue.increment();
+                break;
+            case NOT_OPERATIONAL:
+                cyclesNotOperational.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Gets the live wait-time histogram, in nanoseconds from joining the queue to boarding
+     * @return The histogram
+     */
+    public LatencyHistogram getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * Copies the current values
+     * @param rideName Name of the ride the metrics belong to
+     * @param queueDepth Current number of visitors waiting
+     * @param historySize Current number of visitors in the history
+     * @return An immutable snapshot
+     */
+    public Snapshot snapshot(String rideName, int queueDepth, int historySize) {
+        return new Snapshot(rideName, System.currentTimeMillis(), admissions.sum(), admissionsRejected.sum(),
+                            removals.sum(), boardings.sum(), cycles.sum(), cyclesNoOperator.sum(),
+                            cyclesEmptyQueue.sum(), cyclesNotOperational.sum(), queueDepth, historySize,
+                            waitNanos.count(), waitNanos.mean(), waitNanos.percentile(50),
+                            waitNanos.percentile(90), waitNanos.percentile(99), waitNanos.percentile(99.9),
+                            waitNanos.max());
+    }
+
+    /**
+     * Sets every counter back to 0 and empties the histogram
+     */
+    public void reset() {
+        admissions.reset();
+        admissionsRejected.reset();
+        removals.reset();
+        boardings.reset();
+        cycles.reset();
+        cyclesNoOperator.reset();
+        cyclesEmptyQueue.reset();
+        cyclesNotOperational.reset();
+        waitNanos.reset();
+    }
+
+    /**
+     * Values of a ride's metrics at one moment
+     */
+    public static class Snapshot {
+        private final String rideName;
+        private final long timestampMillis;
+        private final Map<String, Number> values;
+
+        Snapshot(String rideName, long timestampMillis, long admissions, long admissionsRejected, long removals,
+                 long boardings, long cycles, long cyclesNoOperator, long cyclesEmptyQueue,
+                 long cyclesNotOperational, int queueDepth, int historySize, long waits, double waitMeanNanos,
+                 long waitP50Nanos, long waitP90Nanos, long waitP99Nanos, long waitP999Nanos, long waitMaxNanos) {
+            this.rideName = rideName;
+            this.timestampMillis = timestampMillis;
+            Map<String, Number> map = new LinkedHashMap<>();
+            map.put("admissions", admissions);
+            map.put("admissions_rejected", admissionsRejected);
+            map.put("removals", removals);
+            map.put("boardings", boardings);
+            map.put("cycles", cycles);
+            map.put("cycles_rejected_no_operator", cyclesNoOperator);
+            map.put("cycles_rejected_empty_queue", cyclesEmptyQueue);
+            map.put("cycles_rejected_not_operational", cyclesNotOperational);
+            map.put("queue_depth", queueDepth);
+            map.put("history_size", historySize);
+            map.put("wait_count", waits);
+            map.put("wait_mean_nanos", waitMeanNanos);
+            map.put("wait_p50_nanos", waitP50Nanos);
+            map.put("wait_p90_nanos", waitP90Nanos);
+            map.put("wait_p99_nanos", waitP99Nanos);
+            map.put("wait_p999_nanos", waitP999Nanos);
+            map.put("wait_max_nanos", waitMaxNanos);
+            this.values = Collections.unmodifiableMap(map);
+        }
+
+        public String getRideName() { return rideName; }
+        public long getTimestampMillis() { return timestampMillis; }
+
+        /**
+         * Gets every value by name, in a fixed order
+         * @return Unmodifiable map of metric name to value
+         */
+        public Map<String, Number> getValues() { return values; }
+
+        /**
+         * Gets one value by name
+         * @param name A key of getValues, e.g. "boardings"
+         * @return The value as a long, or 0 if there is no such metric
+         */
+        public long get(String name) {
+            Number value = values.get(name);
+            return value == null ? 0 : value.longValue();
+        }
+
+        /**
+         * Formats the snapshot as one "ride_name.metric value" line per metric,
+         * with spaces in the ride name replaced by underscores
+         * @return The lines, each ending in a newline
+         */
+        public String toLines() {
+            String prefix = rideName.replace(' ', '_') + ".";
+            StringBuilder lines = new StringBuilder();
+            for (Map.Entry<String, Number> entry : values.entrySet()) {
+                lines.append(prefix).append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+            return lines.toString();
+        }
+
+        @Override
+        public String toString() {
+            return "RideMetrics [Ride: " + rideName + ", " + values + "]";
+        }
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Repeatable micro-benchmarks of the Ride operations, measured against a saved baseline
+ * Each benchmark is warmed up, then timed over several iterations; every
+ * iteration repeats an untimed prepare step and a timed invocation, so state
+ * such as an unsorted history is rebuilt outside the measurement. Allocation
+ * per operation is read from the JVM's per-thread allocation counter
+ * Run with e.g.
+ *   java -Xmx4g RideMicroBenchmarks [--filter sort] [--sizes 1000,100000]
+ *        [--save baseline.tsv] [--baseline baseline.tsv]
+ * --save writes the results, --baseline prints the change against an earlier save
+ * and marks anything more than 10% slower (beyond the measurement error) or
+ * allocating more than 10% extra
+ */
+public class RideMicroBenchmarks {
+    private static final int[] DEFAULT_SIZES = {1_000, 10_000, 100_000};
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 300_000_000L;
+    private static final double REGRESSION_THRESHOLD = 0.10;
+
+    // Results are folded in here so the JIT cannot drop the work that produced them
+    static volatile long blackhole;
+
+    /**
+     * One benchmark at one size
+     */
+    abstract static class Benchmark {
+        final String name;
+        final int size;
+
+        Benchmark(String name, int size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        /**
+         * Untimed work before every invocation
+         */
+        void prepare() throws IOException {
+        }
+
+        /**
+         * The timed work
+         * @return Number of operations performed
+         */
+        abstract long invoke() throws IOException;
+
+        /**
+         * Untimed clean-up after the benchmark
+         */
+        void tearDown() {
+        }
+    }
+
+    /**
+     * Mean time and allocation of one benchmark
+     */
+    static final class Result {
+        final String name;
+        final int size;
+        final double nanosPerOp;
+        final double errorNanosPerOp;
+        final double bytesPerOp;
+
+        Result(String name, int size, double nanosPerOp, double errorNanosPerOp, double bytesPerOp) {
+            this.name = name;
+            this.size = size;
+            this.nanosPerOp = nanosPerOp;
+            this.errorNanosPerOp = errorNanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        String key() {
+            return name + "\t" + size;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String filter = null;
+        String savePath = null;
+        String baselinePath = null;
+        int[] sizes = DEFAULT_SIZES;
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if (value == null) {
+                System.out.println("Error: Missing value for " + option);
+                return;
+            }
+            switch (option) {
+                case "--filter": filter = value; break;
+                case "--save": savePath = value; break;
+                case "--baseline": baselinePath = value; break;
+                case "--sizes": sizes = parseSizes(value); break;
+                default:
+                    System.out.println("Error: Unknown option " + option);
+                    return;
+            }
+            i++;
+        }
+
+        // Imports build visitors through the public constructors, which log by default
+        Person.setConstructorLogging(false);
+        Map<String, Result> baseline = baselinePath != null ? readResults(new File(baselinePath)) : null;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        if (allocations != null) allocations.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.printf("%-44s %9s %14s %12s %12s%n", "Benchmark", "Size", "ns/op", "error", "B/op");
+        List<Result> results = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks(sizes)) {
+            if (filter != null && !benchmark.name.contains(filter)) continue;
+            Result result;
+            try {
+                result = measure(benchmark, allocations);
+            } finally {
+                benchmark.tearDown();
+            }
+            results.add(result);
+            System.out.printf("%-44s %9d %14.1f %12.1f %12s%s%n", result.name, result.size, result.nanosPerOp,
+                    result.errorNanosPerOp, allocations == null ? "n/a" : String.format("%.1f", result.bytesPerOp),
+                    baseline == null ? "" : compare(result, baseline.get(result.key())));
+        }
+        if (savePath != null) {
+            writeResults(new File(savePath), results);
+            System.out.println("Saved " + results.size() + " results to " + savePath);
+        }
+    }
+
+    /**
+     * Every benchmark in the suite, for each history size
+     */
+    static List<Benchmark> benchmarks(int[] sizes) {
+        List<Benchmark> all = new ArrayList<>();
+        for (int size : sizes) {
+            for (RideStorage storage : new RideStorage[] {RideStorage.LINKED_LIST, RideStorage.ARRAY,
+                                                          RideStorage.CONCURRENT, RideStorage.INDEXED}) {
+                all.add(addToQueue(storage, size));
+            }
+            all.add(runOneCycle(size));
+            all.add(checkHistory(size));
+            all.add(sortHistory("sortRideHistory.VisitorComparator", new VisitorComparator(), size));
+            all.add(sortHistory("sortRideHistory.ByTicketTypeAndAge", new VisitorComparator.ByTicketTypeAndAge(), size));
+            all.add(sortHistory("sortRideHistory.BySeasonPassAndName", new VisitorComparator.BySeasonPassAndName(), size));
+            all.add(sortHistory("sortRideHistory.reversedVisitorComparator", new VisitorComparator().reversed(), size));
+            all.add(exportHistory(false, size));
+            all.add(exportHistory(true, size));
+            all.add(importHistory(false, size));
+            all.add(importHistory(true, size));
+        }
+        return all;
+    }
+
+    private static Benchmark addToQueue(RideStorage storage, int size) {
+        Visitor[] visitors = RideBenchmark.createVisitorPool(size);
+        return new Benchmark("addVisitorToQueue." + storage, size) {
+            private Ride ride;
+
+            @Override
+            void prepare() {
+                ride = quietRide(storage);
+            }
+
+            @Override
+            long invoke() {
+                for (Visitor visitor : visitors) {
+                    ride.addVisitorToQueue(visitor);
+                }
+                blackhole += ride.getWaitingQueue().size();
+                return visitors.length;
+            }
+        };
+    }
+
+    private static Benchmark runOneCycle(int size) {
+        Visitor[] visitors = RideBenchmark.createVisitorPool(size);
+        return new Benchmark("runOneCycle", size) {
+            private Ride ride;
+
+            @Override
+            void prepare() {
+                ride = quietRide(RideStorage.ARRAY);
+                for (Visitor visitor : visitors) {
+                    ride.addVisitorToQueue(visitor);
+                }
+            }
+
+            @Override
+            long invoke() {
+                long cycles = 0;
+                while (!ride.getWaitingQueue().isEmpty()) {
+                    ride.runOneCycle();
+                    cycles++;
+                }
+                blackhole += ride.numberOfVisitors();
+                return cycles;
+            }
+        };
+    }
+
+    private static Benchmark checkHistory(int size) {
+        Visitor[] history = RideBenchmark.createHistory(size);
+        Visitor[] absent = new Visitor[size];
+        for (int i = 0; i < size; i++) {
+            absent[i] = new Visitor("Missing Visitor", 30, "Male", "M" + i, "Standard", false, false);
+        }
+        Ride ride = quietRide(RideStorage.ARRAY);
+        for (Visitor visitor : history) {
+            ride.addVisitorToHistory(visitor);
+        }
+        return new Benchmark("checkVisitorFromHistory", size) {
+            @Override
+            long invoke() {
+                long found = 0;
+                for (int i = 0; i < history.length; i++) {
+                    // Every other lookup misses
+                    Visitor visitor = (i & 1) == 0 ? history[i] : absent[i];
+                    if (ride.checkVisitorFromHistory(visitor)) found++;
+                }
+                blackhole += found;
+                return history.length;
+            }
+        };
+    }
+
+    private static Benchmark sortHistory(String name, Comparator<Visitor> comparator, int size) {
+        Visitor[] history = RideBenchmark.createHistory(size);
+        return new Benchmark(name, size) {
+            private Ride ride;
+
+            @Override
+            void prepare() {
+                ride = quietRide(RideStorage.ARRAY);
+                for (Visitor visitor : history) {
+                    ride.addVisitorToHistory(visitor);
+                }
+            }
+
+            @Override
+            long invoke() {
+                ride.sortRideHistory(comparator);
+                blackhole += ride.getRideHistory().page(0, 1).get(0).getAge();
+                return 1;
+            }
+        };
+    }
+
+    private static Benchmark exportHistory(boolean binary, int size) {
+        Visitor[] history = RideBenchmark.createHistory(size);
+        Ride ride = quietRide(RideStorage.ARRAY);
+        for (Visitor visitor : history) {
+            ride.addVisitorToHistory(visitor);
+        }
+        return new Benchmark(binary ? "exportRideHistoryBinary" : "exportRideHistory", size) {
+            private final File file = tempFile(binary ? ".rhb" : ".csv");
+
+            @Override
+            long invoke() {
+                if (binary) ride.exportRideHistoryBinary(file.getPath());
+                else ride.exportRideHistory(file.getPath());
+                blackhole += file.length();
+                return 1;
+            }
+
+            @Override
+            void tearDown() {
+                file.delete();
+            }
+        };
+    }
+
+    private static Benchmark importHistory(boolean binary, int size) {
+        Visitor[] history = RideBenchmark.createHistory(size);
+        Ride source = quietRide(RideStorage.ARRAY);
+        for (Visitor visitor : history) {
+            source.addVisitorToHistory(visitor);
+        }
+        File file = tempFile(binary ? ".rhb" : ".csv");
+        if (binary) source.exportRideHistoryBinary(file.getPath());
+        else source.exportRideHistory(file.getPath());
+        return new Benchmark(binary ? "importRideHistoryBinary" : "importRideHistory", size) {
+            private Ride ride;
+
+            @Override
+            void prepare() {
+                ride = quietRide(RideStorage.ARRAY);
+            }
+
+            @Override
+            long invoke() {
+                if (binary) ride.importRideHistoryBinary(file.getPath());
+                else ride.importRideHistory(file.getPath());
+                blackhole += ride.numberOfVisitors();
+                return 1;
+            }
+
+            @Override
+            void tearDown() {
+                file.delete();
+            }
+        };
+    }
+
+    /**
+     * Runs warm-up and measured iterations of one benchmark
+     */
+    static Result measure(Benchmark benchmark, com.sun.management.ThreadMXBean allocations) throws IOException {
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(benchmark, allocations, threadId);
+        }
+        double[] nanosPerOp = new double[MEASURED_ITERATIONS];
+        double bytes = 0;
+        long ops = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long[] iteration = runIteration(benchmark, allocations, threadId);
+            nanosPerOp[i] = (double) iteration[0] / iteration[1];
+            ops += iteration[1];
+            bytes += iteration[2];
+        }
+        double mean = 0;
+        for (double value : nanosPerOp) mean += value;
+        mean /= nanosPerOp.length;
+        double variance = 0;
+        for (double value : nanosPerOp) variance += (value - mean) * (value - mean);
+        double error = Math.sqrt(variance / (nanosPerOp.length - 1));
+        return new Result(benchmark.name, benchmark.size, mean, error, bytes / ops);
+    }
+
+    /**
+     * Invokes a benchmark until the iteration time is used up
+     * @return Timed nanoseconds, operations and allocated bytes of the iteration
+     */
+    private static long[] runIteration(Benchmark benchmark, com.sun.management.ThreadMXBean allocations,
+                                       long threadId) throws IOException {
+        long timed = 0;
+        long ops = 0;
+        long bytes = 0;
+        while (timed < ITERATION_NANOS) {
+            benchmark.prepare();
+            long allocatedBefore = allocations != null ? allocations.getThreadAllocatedBytes(threadId) : 0;
+            long start = System.nanoTime();
+            ops += benchmark.invoke();
+            timed += System.nanoTime() - start;
+            if (allocations != null) bytes += allocations.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+        return new long[] {timed, ops, bytes};
+    }
+
+    private static String compare(Result result, Result previous) {
+        if (previous == null) return "  (new)";
+        double timeChange = result.nanosPerOp / previous.nanosPerOp - 1;
+        double allocationChange = previous.bytesPerOp == 0 ? (result.bytesPerOp == 0 ? 0 : 1)
+                                                           : result.bytesPerOp / previous.bytesPerOp - 1;
+        // A slowdown only counts when it is also larger than the two runs' error
+        boolean slower = timeChange > REGRESSION_THRESHOLD
+                && result.nanosPerOp - previous.nanosPerOp > result.errorNanosPerOp + previous.errorNanosPerOp;
+        boolean regression = slower || allocationChange > REGRESSION_THRESHOLD;
+        return String.format("  time %+.1f%%, alloc %+.1f%%%s", timeChange * 100, allocationChange * 100,
+                             regression ? "  REGRESSION" : "");
+    }
+
+    private static void writeResults(File file, List<Result> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+            writer.println("# benchmark\tsize\tns/op\terror\tB/op");
+            for (Result result : results) {
+                writer.println(result.key() + "\t" + result.nanosPerOp + "\t" + result.errorNanosPerOp
+                               + "\t" + result.bytesPerOp);
+            }
+        }
+    }
+
+    private static Map<String, Result> readResults(File file) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\t");
+            if (parts.length < 5) continue;
+            Result result = new Result(parts[0], Integer.parseInt(parts[1]), Double.parseDouble(parts[2]),
+                                       Double.parseDouble(parts[3]), Double.parseDouble(parts[4]));
+            results.put(result.key(), result);
+        }
+        return results;
+    }
+
+    private static int[] parseSizes(String value) {
+        String[] parts = value.split(",");
+        int[] sizes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = Integer.parseInt(parts[i].trim());
+        }
+        return sizes;
+    }
+
+    private static Ride quietRide(RideStorage storage) {
+        Ride ride = new Ride("Micro Coaster", "Roller Coaster", 64, true, RideBenchmark.benchOperator(), 8, storage);
+        ride.setEventSink(RideEventSink.NO_OP);
+        return ride;
+    }
+
+    private static File tempFile(String suffix) {
+        try {
+            File file = File.createTempFile("ride-micro", suffix);
+            file.deleteOnExit();
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.*;
+
+/**
+ * Collection layouts available for a ride's waiting queue and history
+ * Selected per Ride through its constructor
+ */
+public enum RideStorage {
+    /**
+     * Node-per-visitor java.util.LinkedList for both the queue and the history
+     */
+    LINKED_LIST {
+        @Override
+        public TimedQueue newQueue() {
+            return new TimedLinkedQueue();
+        }
+
+        @Override
+        public List<Visitor> newHistoryList() {
+            return new LinkedList<>();
+        }
+    },
+
+    /**
+     * Ring-buffer queue and a chunked append-only array history
+     * Avoids a node object per visitor and keeps iteration sequential in memory
+     */
+    ARRAY {
+        @Override
+        public TimedQueue newQueue() {
+            return new TimedArrayQueue();
+        }
+
+        @Override
+        public List<Visitor> newHistoryList() {
+            return new ChunkedVisitorList();
+        }
+    },
+
+    /**
+     * Lock-free queue for concurrent admission and a chunked array history
+     * The history is not thread-safe on its own; ConcurrentRide guards it
+     */
+    CONCURRENT {
+        @Override
+        public TimedQueue newQueue() {
+            return new ConcurrentVisitorQueue();
+        }
+
+        @Override
+        public List<Visitor> newHistoryList() {
+            return new ChunkedVisitorList();
+        }
+    },
+
+    /**
+     * Queue indexed by visitorId, so a visitor can leave or change place in
+     * line and look up their position without a scan, and a chunked array history
+     */
+    INDEXED {
+        @Override
+        public TimedQueue newQueue() {
+            return new IndexedVisitorQueue();
+        }
+
+        @Override
+        public List<Visitor> newHistoryList() {
+            return new ChunkedVisitorList();
+        }
+    },
+
+    /**
+     * Ring-buffer queue and a history of fixed-size records in
+     * direct memory, for histories too large to keep as Visitor objects
+     */
+    OFF_HEAP {
+        @Override
+        public TimedQueue newQueue() {
+            return new TimedArrayQueue();
+        }
+
+        @Override
+        public List<Visitor> newHistoryList() {
+            return new OffHeapVisitorList();
+        }
+    };
+
+    /**
+     * Creates an empty waiting queue using this layout
+     * @return A new FIFO queue that keeps the time each entry joined
+     */
+    public abstract TimedQueue newQueue();
+
+    /**
+     * Creates an empty backing list for ride history using this layout
+     * @return A new list to append ridden visitors to
+     */
+    public abstract List<Visitor> newHistoryList();
+}
@@ -0,0 +1,105 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of a ParkSimulation run, for the whole park and for each ride
+ */
+public class SimulationReport {
+    /**
+     * What happened on one ride during the run
+     */
+    public static class RideStats {
+        private final String rideName;
+        private final long arrivals;
+        private final long boarded;
+        private final long cycles;
+        private final int maxQueueLength;
+        private final int remainingInQueue;
+        private final int breakdowns;
+        private final long downtimeMillis;
+
+        public RideStats(String rideName, long arrivals, long boarded, long cycles, int maxQueueLength,
+                         int remainingInQueue, int breakdowns, long downtimeMillis) {
+            this.rideName = rideName;
+            this.arrivals = arrivals;
+            this.boarded = boarded;
+            this.cycles = cycles;
+            this.maxQueueLength = maxQueueLength;
+            this.remainingInQueue = remainingInQueue;
+            this.breakdowns = breakdowns;
+            this.downtimeMillis = downtimeMillis;
+        }
+
+        public String getRideName() { return rideName; }
+        public long getArrivals() { return arrivals; }
+        public long getBoarded() { return boarded; }
+        public long getCycles() { return cycles; }
+        public int getMaxQueueLength() { return maxQueueLength; }
+        public int getRemainingInQueue() { return remainingInQueue; }
+        public int getBreakdowns() { return breakdowns; }
+        public long getDowntimeMillis() { return downtimeMillis; }
+
+        @Override
+        public String toString() {
+            return "RideStats [Ride: " + rideName +
+                   ", Arrivals: " + arrivals +
+                   ", Boarded: " + boarded +
+                   ", Cycles: " + cycles +
+                   ", Max queue: " + maxQueueLength +
+                   ", Still queued: " + remainingInQueue +
+                   ", Breakdowns: " + breakdowns +
+                   ", Downtime: " + downtimeMillis / 60_000 + " min]";
+        }
+    }
+
+    private final long simulatedMillis;
+    private final long eventsProcessed;
+    private final long arrivals;
+    private final long rejectedArrivals;
+    private final long boarded;
+    private final long remainingInQueue;
+    private final long elapsedNanos;
+    private final List<RideStats> rides;
+
+    public SimulationReport(long simulatedMillis, long eventsProcessed, long arrivals, long rejectedArrivals,
+                            long boarded, long remainingInQueue, long elapsedNanos, List<RideStats> rides) {
+        this.simulatedMillis = simulatedMillis;
+        this.eventsProcessed = eventsProcessed;
+        this.arrivals = arrivals;
+        this.rejectedArrivals = rejectedArrivals;
+        this.boarded = boarded;
+        this.remainingInQueue = remainingInQueue;
+        this.elapsedNanos = elapsedNanos;
+        this.rides = Collections.unmodifiableList(rides);
+    }
+
+    public long getSimulatedMillis() { return simulatedMillis; }
+    public long getEventsProcessed() { return eventsProcessed; }
+    public long getArrivals() { return arrivals; }
+    public long getRejectedArrivals() { return rejectedArrivals; }
+    public long getBoarded() { return boarded; }
+    public long getRemainingInQueue() { return remainingInQueue; }
+    public long getElapsedNanos() { return elapsedNanos; }
+    public List<RideStats> getRides() { return rides; }
+
+    /**
+     * Gets the simulation speed in events handled per second of wall-clock time
+     * @return Events per second, or 0 if no time was measured
+     */
+    public double getEventsPerSecond() {
+        return elapsedNanos == 0 ? 0 : eventsProcessed * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulationReport [" +
+               "Simulated: " + simulatedMillis / 60_000 + " min" +
+               ", Rides: " + rides.size() +
+               ", Arrivals: " + arrivals +
+               ", Rejected: " + rejectedArrivals +
+               ", Boarded: " + boarded +
+               ", Still queued: " + remainingInQueue +
+               ", Events: " + eventsProcessed +
+               ", Wall time: " + elapsedNanos / 1_000_000 + " ms]";
+    }
+}
@@ -0,0 +1,260 @@
+import java.util.*;
+
+/**
+ * Sorted view of a ride history that is kept up to date as visitors are added
+ * Backed by an order-statistic treap keyed by the comparator, with ties kept
+ * in the order visitors were added, so the view always matches a stable sort
+ * of the history while the history itself keeps its ride order
+ * Adding a visitor costs O(log n); reading the k entries at any offset costs
+ * O(log n + k)
+ * Visitors must not change their sort fields while they are in the history
+ * Safe to read while another thread adds to the ride
+ */
+public class SortedHistoryView implements Iterable<Visitor> {
+    private final Comparator<Visitor> comparator;
+    private final Random priorities;
+    private Node root;
+
+    /**
+     * Treap node; priority is a max-heap, size counts the subtree
+     */
+    private static final class Node {
+        final Visitor visitor;
+        final long sequence;
+        final int priority;
+        int size;
+        Node left;
+        Node right;
+
+        Node(Visitor visitor, long sequence, int priority) {
+            this.visitor = visitor;
+            this.sequence = sequence;
+            this.priority = priority;
+            this.size = 1;
+        }
+    }
+
+    /**
+     * Creates an empty view; register it through Ride.registerSortedView
+     * @param comparator The order of the view
+     */
+    SortedHistoryView(Comparator<Visitor> comparator) {
+        this.comparator = comparator;
+        this.priorities = new Random();
+    }
+
+    /**
+     * Gets the order of this view
+     * @return The comparator the view was registered with
+     */
+    public Comparator<Visitor> getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Gets the number of visitors in the view
+     * @return Size of the view, equal to the history size
+     */
+    public synchronized int size() {
+        return size(root);
+    }
+
+    /**
+     * Gets the visitor at a position in sorted order
+     * @param index Position from 0
+     * @return The visitor at that position
+     */
+    public synchronized Visitor get(int index) {
+        Objects.checkIndex(index, size(root));
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.visitor;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Gets a page of the view in sorted order
+     * @param offset Position of the first visitor to return
+     * @param limit Maximum number of visitors to return
+     * @return Up to limit visitors, empty if offset is past the end
+     */
+    public synchronized List<Visitor> page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        List<Visitor> page = new ArrayList<>(Math.min(limit, Math.max(0, size(root) - offset)));
+        Deque<Node> path = pathTo(offset);
+        while (page.size() < limit && !path.isEmpty()) {
+            Node node = path.pop();
+            page.add(node.visitor);
+            pushLeftSpine(path, node.right);
+        }
+        return page;
+    }
+
+    /**
+     * Returns a snapshot iterator over the whole view in sorted order
+     */
+    @Override
+    public Iterator<Visitor> iterator() {
+        return page(0, Integer.MAX_VALUE).iterator();
+    }
+
+    /**
+     * Adds a visitor; called by RideHistory for every visitor it appends
+     * The view is unchanged if the comparator throws, as every comparison is
+     * made on the way down, before any link changes
+     * @param sequence Number that grows with every add, used to order ties
+     */
+    synchronized void insert(Visitor visitor, long sequence) {
+        root = insert(root, new Node(visitor, sequence, priorities.nextInt()));
+    }
+
+    /**
+     * Takes out a visitor added with insert, when the append fails in a later view
+     * @param sequence The sequence number it was inserted with
+     */
+    synchronized void remove(Visitor visitor, long sequence) {
+        root = remove(root, new Node(visitor, sequence, 0));
+    }
+
+    /**
+     * Replaces the content with visitors already in view order, in O(n)
+     * @param sorted Visitors sorted by the comparator, ties in sequence order
+     * @param sequences Sequence number of each visitor
+     */
+    synchronized void rebuild(Visitor[] sorted, long[] sequences) {
+        // Cartesian-tree construction: the right spine of the tree built so far is on the stack
+        Deque<Node> spine = new ArrayDeque<>();
+        for (int i = 0; i < sorted.length; i++) {
+            Node node = new Node(sorted[i], sequences[i], priorities.nextInt());
+            Node last = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                last = spine.pop();
+                updateSize(last);
+            }
+            node.left = last;
+            if (!spine.isEmpty()) {
+                spine.peek().right = node;
+            }
+            spine.push(node);
+        }
+        Node top = null;
+        while (!spine.isEmpty()) {
+            top = spine.pop();
+            updateSize(top);
+        }
+        root = top;
+    }
+
+    synchronized void clear() {
+        root = null;
+    }
+
+    private Node insert(Node node, Node added) {
+        if (node == null) return added;
+        if (compare(added, node) < 0) {
+            node.left = insert(node.left, added);
+            if (node.left.priority > node.priority) node = rotateRight(node);
+        } else {
+            node.right = insert(node.right, added);
+            if (node.right.priority > node.priority) node = rotateLeft(node);
+        }
+        updateSize(node);
+        return node;
+    }
+
+    private Node remove(Node node, Node removed) {
+        if (node == null) return null;
+        int result = compare(removed, node);
+        if (result < 0) {
+            node.left = remove(node.left, removed);
+        } else if (result > 0) {
+            node.right = remove(node.right, removed);
+        } else {
+            return merge(node.left, node.right);
+        }
+        updateSize(node);
+        return node;
+    }
+
+    // Joins two treaps where every key on the left sorts before every key on the right
+    private static Node merge(Node left, Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            updateSize(left);
+            return left;
+        }
+        right.left = merge(left, right.left);
+        updateSize(right);
+        return right;
+    }
+
+    private int compare(Node a, Node b) {
+        int result = comparator.compare(a.visitor, b.visitor);
+        return (result != 0) ? result : Long.compare(a.sequence, b.sequence);
+    }
+
+    /**
+     * Builds the in-order traversal stack positioned at a rank
+     */
+    private Deque<Node> pathTo(int rank) {
+        Deque<Node> path = new ArrayDeque<>();
+        Node node = root;
+        while (node != null) {
+            int leftSize = size(node.left);
+            if (rank < leftSize) {
+                path.push(node);
+                node = node.left;
+            } else if (rank == leftSize) {
+                path.push(node);
+                break;
+            } else {
+                rank -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return path;
+    }
+
+    private static void pushLeftSpine(Deque<Node> path, Node node) {
+        while (node != null) {
+            path.push(node);
+            node = node.left;
+        }
+    }
+
+    private static Node rotateRight(Node node) {
+        Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        updateSize(node);
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        updateSize(node);
+        return right;
+    }
+
+    private static void updateSize(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private static int size(Node node) {
+        return (node == null) ? 0 : node.size;
+    }
+}
@@ -0,0 +1,143 @@
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * FIFO ring-buffer waiting queue with each entry's join time in a parallel
+ * long ring, so timing adds no object per entry
+ * Used where an ArrayDeque would be: the ARRAY and OFF_HEAP layouts and the
+ * fast-pass lanes. Offer and poll are O(1) amortized; removing an entry from
+ * the middle shifts the entries behind it, as in ArrayDeque
+ */
+public class TimedArrayQueue extends AbstractQueue<Visitor> implements TimedQueue {
+    private static final int MIN_CAPACITY = 16;
+
+    // Entry i is at slot (head + i) & (capacity - 1); the capacity is a power of two
+    private Visitor[] visitors;
+    private long[] queuedAt;
+    private int head;
+    private int size;
+    private long lastPolledQueuedAt;
+
+    /**
+     * Creates an empty queue
+     */
+    public TimedArrayQueue() {
+        this.visitors = new Visitor[MIN_CAPACITY];
+        this.queuedAt = new long[MIN_CAPACITY];
+    }
+
+    @Override
+    public boolean offer(Visitor visitor, long queuedAtNanos) {
+        if (visitor == null) throw new NullPointerException();
+        if (size == visitors.length) grow();
+        int slot = slot(size);
+        visitors[slot] = visitor;
+        queuedAt[slot] = queuedAtNanos;
+        size++;
+        return true;
+    }
+
+    @Override
+    public Visitor poll() {
+        if (size == 0) return null;
+        Visitor visitor = visitors[head];
+        lastPolledQueuedAt = queuedAt[head];
+        visitors[head] = null;
+        head = (head + 1) & (visitors.length - 1);
+        size--;
+        return visitor;
+    }
+
+    @Override
+    public Visitor peek() {
+        return size == 0 ? null : visitors[head];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(visitors, null);
+        head = 0;
+        size = 0;
+    }
+
+    @Override
+    public long lastPolledQueuedAtNanos() {
+        return lastPolledQueuedAt;
+    }
+
+    @Override
+    public long waitingNanos(String visitorId, long nowNanos) {
+        for (int i = 0; i < size; i++) {
+            int slot = slot(i);
+            if (Objects.equals(visitors[slot].getVisitorId(), visitorId)) return nowNanos - queuedAt[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * Returns visitors in queue order; remove is supported
+     */
+    @Override
+    public Iterator<Visitor> iterator() {
+        return new Iterator<Visitor>() {
+            private int next;
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public Visitor next() {
+                if (next >= size) throw new NoSuchElementException();
+                last = next++;
+                return visitors[slot(last)];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) throw new IllegalStateException();
+                removeAt(last);
+                next = last;
+                last = -1;
+            }
+        };
+    }
+
+    private void removeAt(int index) {
+        for (int i = index; i < size - 1; i++) {
+            int to = slot(i);
+            int from = slot(i + 1);
+            visitors[to] = visitors[from];
+            queuedAt[to] = queuedAt[from];
+        }
+        visitors[slot(size - 1)] = null;
+        size--;
+    }
+
+    private int slot(int index) {
+        return (head + index) & (visitors.length - 1);
+    }
+
+    private void grow() {
+        int capacity = visitors.length * 2;
+        Visitor[] grownVisitors = new Visitor[capacity];
+        long[] grownQueuedAt = new long[capacity];
+        for (int i = 0; i < size; i++) {
+            grownVisitors[i] = visitors[slot(i)];
+            grownQueuedAt[i] = queuedAt[slot(i)];
+        }
+        visitors = grownVisitors;
+        queuedAt = grownQueuedAt;
+        head = 0;
+    }
+}
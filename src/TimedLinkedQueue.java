@@ -0,0 +1,87 @@
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Objects;
+
+/**
+ * Node-per-visitor waiting queue on java.util.LinkedList, for the
+ * LINKED_LIST layout; each node holds the visitor and the time they joined
+ */
+public class TimedLinkedQueue extends AbstractQueue<Visitor> implements TimedQueue {
+    private final LinkedList<Entry> entries;
+    private long lastPolledQueuedAt;
+
+    /**
+     * Creates an empty queue
+     */
+    public TimedLinkedQueue() {
+        this.entries = new LinkedList<>();
+    }
+
+    @Override
+    public boolean offer(Visitor visitor, long queuedAtNanos) {
+        if (visitor == null) throw new NullPointerException();
+        return entries.add(new Entry(visitor, queuedAtNanos));
+    }
+
+    @Override
+    public Visitor poll() {
+        Entry entry = entries.poll();
+        if (entry == null) return null;
+        lastPolledQueuedAt = entry.queuedAtNanos;
+        return entry.visitor;
+    }
+
+    @Override
+    public Visitor peek() {
+        Entry entry = entries.peek();
+        return entry == null ? null : entry.visitor;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public long lastPolledQueuedAtNanos() {
+        return lastPolledQueuedAt;
+    }
+
+    @Override
+    public long waitingNanos(String visitorId, long nowNanos) {
+        for (Entry entry : entries) {
+            if (Objects.equals(entry.visitor.getVisitorId(), visitorId)) return nowNanos - entry.queuedAtNanos;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns visitors in queue order; remove is supported
+     */
+    @Override
+    public Iterator<Visitor> iterator() {
+        Iterator<Entry> iterator = entries.iterator();
+        return new Iterator<Visitor>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Visitor next() {
+                return iterator.next().visitor;
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+        };
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.Queue;
+
+/**
+ * Waiting queue that keeps the time each entry joined next to the entry
+ * The time belongs to the queue entry, not to the Visitor, so one visitor
+ * can wait in several queues, or twice in one queue, each with its own time
+ */
+public interface TimedQueue extends Queue<Visitor> {
+
+    /**
+     * Adds a visitor who joined the queue at the given time
+     * @param visitor The visitor to add
+     * @param queuedAtNanos System.nanoTime() when the visitor joined
+     * @return true if the visitor was added
+     */
+    boolean offer(Visitor visitor, long queuedAtNanos);
+
+    /**
+     * Adds a visitor who joins the queue now
+     */
+    @Override
+    default boolean offer(Visitor visitor) {
+        return offer(visitor, System.nanoTime());
+    }
+
+    /**
+     * Gets when the entry returned by the last poll joined the queue
+     * Only meaningful on the thread that made that poll
+     * @return System.nanoTime() when that entry was offered
+     */
+    long lastPolledQueuedAtNanos();
+
+    /**
+     * Gets how long a visitor has been waiting; if the visitorId is in the
+     * queue more than once, the entry that boards first counts
+     * @param visitorId The visitor ID to look up
+     * @param nowNanos System.nanoTime() to measure to
+     * @return Nanoseconds since the entry joined, or -1 if the visitorId is not waiting
+     */
+    long waitingNanos(String visitorId, long nowNanos);
+
+    /**
+     * A visitor and the time they joined, for queues that keep one node per entry
+     */
+    final class Entry {
+        final Visitor visitor;
+        final long queuedAtNanos;
+
+        Entry(Visitor visitor, long queuedAtNanos) {
+            this.visitor = visitor;
+            this.queuedAtNanos = queuedAtNanos;
+        }
+    }
+}
@@ -17,7 +17,7 @@ public class Visitor extends Person {
         this.visitorId = "V0000";
         this.ticketType = "General";
         this.hasSeasonPass = false;
-        System.out.println("Visitor default constructor called");
+        if (isConstructorLogging()) System.out.println("Visitor default constructor called");
     }
     
     /**
@@ -30,11 +30,21 @@ public class Visitor extends Person {
      * @param hasSeasonPass Whether visitor has a season pass
      */
     public Visitor(String name, int age, String gender, String visitorId, String ticketType, boolean hasSeasonPass) {
-        super(name, age, gender); // Calls parent class parameterized constructor
+        this(name, age, gender, visitorId, ticketType, hasSeasonPass, isConstructorLogging());
+    }
+    
+    /**
+     * Parameterized constructor with explicit trace output
+     * Used when visitors are rebuilt from storage, which should not print
+     * @param logging Whether to print the constructor trace lines
+     */
+    Visitor(String name, int age, String gender, String visitorId, String ticketType, boolean hasSeasonPass,
+            boolean logging) {
+        super(name, age, gender, logging); // Calls parent class parameterized constructor
         this.visitorId = visitorId;
-        this.ticketType = ticketType;
+        this.ticketType = VisitorDictionary.TICKET_TYPES.intern(ticketType);
         this.hasSeasonPass = hasSeasonPass;
-        System.out.println("Visitor parameterized constructor called for: " + name);
+        if (logging) System.out.println("Visitor parameterized constructor called for: " + name);
     }
     
     // Getter and Setter methods for Visitor-specific attributes
@@ -68,7 +78,7 @@ public class Visitor extends Person {
      * @param ticketType The new ticket type to set
      */
     public void setTicketType(String ticketType) {
-        this.ticketType = ticketType;
+        this.ticketType = VisitorDictionary.TICKET_TYPES.intern(ticketType);
     }
     
     /**
@@ -0,0 +1,94 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free channel from one producer thread to one consumer thread
+ * Carries a visitor together with the ride it left and the ride it walks to
+ * Entries live in a power-of-two ring of parallel arrays, so sending allocates
+ * nothing; each side publishes its index with a release write and caches the
+ * other side's index to avoid reading it on every call
+ */
+public class VisitorChannel {
+    /**
+     * Receives entries drained from a channel, in the order they were sent
+     */
+    public interface Receiver {
+        void accept(Visitor visitor, int sourceRide, int targetRide);
+    }
+
+    private final Visitor[] visitors;
+    private final int[] sourceRides;
+    private final int[] targetRides;
+    private final int mask;
+    // Next slot to read; written by the consumer only
+    private final AtomicLong head;
+    // Next slot to write; written by the producer only
+    private final AtomicLong tail;
+    private long cachedHead;
+    private long cachedTail;
+
+    /**
+     * Creates an empty channel
+     * @param capacity Maximum number of entries in flight, rounded up to a power of two
+     */
+    public VisitorChannel(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Channel capacity must be between 1 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.visitors = new Visitor[size];
+        this.sourceRides = new int[size];
+        this.targetRides = new int[size];
+        this.mask = size - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * Sends an entry; called by the producer thread only
+     * @return false if the channel is full
+     */
+    public boolean offer(Visitor visitor, int sourceRide, int targetRide) {
+        long position = tail.get();
+        if (position - cachedHead == visitors.length) {
+            cachedHead = head.get();
+            if (position - cachedHead == visitors.length) return false;
+        }
+        int slot = (int) position & mask;
+        visitors[slot] = visitor;
+        sourceRides[slot] = sourceRide;
+        targetRides[slot] = targetRide;
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    /**
+     * Hands every entry sent so far to a receiver; called by the consumer thread only
+     * @param receiver Receives the entries in send order
+     * @return Number of entries drained
+     */
+    public int drain(Receiver receiver) {
+        long position = head.get();
+        if (position == cachedTail) {
+            cachedTail = tail.get();
+            if (position == cachedTail) return 0;
+        }
+        long end = cachedTail;
+        for (long p = position; p < end; p++) {
+            int slot = (int) p & mask;
+            Visitor visitor = visitors[slot];
+            visitors[slot] = null;
+            receiver.accept(visitor, sourceRides[slot], targetRides[slot]);
+        }
+        head.lazySet(end);
+        return (int) (end - position);
+    }
+
+    /**
+     * Gets the number of entries the channel can hold
+     * @return The ring size
+     */
+    public int capacity() {
+        return visitors.length;
+    }
+}
@@ -0,0 +1,192 @@
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonicalizing dictionary for low-cardinality visitor fields
+ * Every distinct value is kept once and handed out to all visitors that use it,
+ * so millions of history entries share a handful of gender and ticket type
+ * Strings instead of each holding its own copy
+ * The dictionary stops growing at its capacity; later new values are returned
+ * unchanged, so a field that turns out to be unique per visitor cannot fill
+ * the heap through it
+ * Safe for concurrent use
+ */
+public class VisitorDictionary {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // Lets benchmarks compare against plain per-object Strings; declared first so the
+    // shared dictionaries below are seeded with it switched on
+    private static volatile boolean interning = true;
+
+    /**
+     * Shared dictionary for Person gender values
+     */
+    public static final VisitorDictionary GENDERS =
+            new VisitorDictionary(DEFAULT_CAPACITY, "Male", "Female", "Unknown");
+
+    /**
+     * Shared dictionary for Visitor ticket types
+     */
+    public static final VisitorDictionary TICKET_TYPES =
+            new VisitorDictionary(DEFAULT_CAPACITY, "General", "Standard", "Premium", "VIP", "Student");
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, String> values;
+    // Open-addressed table of ASCII values keyed by their bytes, for parsers
+    private volatile Entry[] byteTable;
+    private int byteEntries;
+
+    /**
+     * Entry of the byte table; final fields make it safe to read without locking
+     */
+    private static final class Entry {
+        final byte[] bytes;
+        final int hash;
+        final String value;
+
+        Entry(byte[] bytes, int hash, String value) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Creates a dictionary
+     * @param capacity Maximum number of distinct values kept
+     * @param knownValues Values that are canonical from the start
+     */
+    public VisitorDictionary(int capacity, String... knownValues) {
+        this.capacity = capacity;
+        this.values = new ConcurrentHashMap<>();
+        this.byteTable = new Entry[64];
+        for (String value : knownValues) {
+            intern(value);
+        }
+    }
+
+    /**
+     * Turns canonicalization of every dictionary on or off
+     * Values interned earlier stay shared
+     * @param enabled true to share values (the default)
+     */
+    public static void setInterning(boolean enabled) {
+        interning = enabled;
+    }
+
+    /**
+     * Checks if dictionaries canonicalize values
+     * @return true if interning is on
+     */
+    public static boolean isInterning() {
+        return interning;
+    }
+
+    /**
+     * Gets the canonical instance of a value
+     * @param value The value to look up, may be null
+     * @return The shared equal String, or value itself if it is new and the dictionary is full
+     */
+    public String intern(String value) {
+        if (value == null || !interning) return value;
+        String canonical = values.get(value);
+        if (canonical != null) return canonical;
+        return add(value);
+    }
+
+    /**
+     * Gets the canonical String for some encoded bytes without decoding them
+     * when the value is already known
+     * @param data Buffer holding the value
+     * @param start Index of the first byte
+     * @param end Index just past the last byte
+     * @param charset Charset to decode with when the value is not known; must be ASCII-compatible
+     * @return The canonical String for the bytes
+     */
+    public String intern(byte[] data, int start, int end, Charset charset) {
+        if (!interning) return new String(data, start, end - start, charset);
+        int hash = hash(data, start, end);
+        Entry[] table = byteTable;
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            Entry entry = table[slot];
+            if (entry == null) break;
+            if (entry.hash == hash && matches(entry.bytes, data, start, end)) {
+                return entry.value;
+            }
+        }
+        return intern(new String(data, start, end - start, charset));
+    }
+
+    /**
+     * Gets the number of distinct values held
+     * @return Dictionary size
+     */
+    public int size() {
+        return values.size();
+    }
+
+    private synchronized String add(String value) {
+        String canonical = values.get(value);
+        if (canonical != null) return canonical;
+        if (values.size() >= capacity) return value;
+        values.put(value, value);
+        if (isAscii(value)) {
+            addBytes(value);
+        }
+        return value;
+    }
+
+    // Only called while holding the lock; readers see either the old or the new entry
+    private void addBytes(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        Entry entry = new Entry(bytes, hash(bytes, 0, bytes.length), value);
+        Entry[] table = byteTable;
+        if ((byteEntries + 1) * 2 > table.length) {
+            Entry[] larger = new Entry[table.length * 2];
+            for (Entry existing : table) {
+                if (existing != null) insert(larger, existing);
+            }
+            insert(larger, entry);
+            byteTable = larger;
+        } else {
+            insert(table, entry);
+        }
+        byteEntries++;
+    }
+
+    private static void insert(Entry[] table, Entry entry) {
+        int mask = table.length - 1;
+        int slot = entry.hash & mask;
+        while (table[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private static int hash(byte[] data, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(byte[] key, byte[] data, int start, int end) {
+        if (key.length != end - start) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != data[start + i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Predicate;
+
+/**
+ * Read-only query over a ride's history or waiting queue
+ * Filters are combined with "and"; each filter method returns a new query,
+ * so a query can be kept and refined. Results come from a single pass over
+ * the visitors, without sorting, copying or changing the source
+ * Results keep the source order (ride order, or queue order)
+ */
+public class VisitorQuery implements Iterable<Visitor> {
+    private final Iterable<Visitor> source;
+    private final Predicate<Visitor> filter;
+    private final Lock lock;
+
+    /**
+     * Creates a query that matches every visitor of a source
+     * @param source The history or queue to read
+     * @param lock Held while the source is read, or null if it can be read without one
+     */
+    VisitorQuery(Iterable<Visitor> source, Lock lock) {
+        this(source, null, lock);
+    }
+
+    private VisitorQuery(Iterable<Visitor> source, Predicate<Visitor> filter, Lock lock) {
+        this.source = source;
+        this.filter = filter;
+        this.lock = lock;
+    }
+
+    /**
+     * Keeps only visitors with a ticket type
+     * @param ticketType The exact ticket type to match, may be null
+     * @return A narrower query
+     */
+    public VisitorQuery withTicketType(String ticketType) {
+        return where(visitor -> Objects.equals(visitor.getTicketType(), ticketType));
+    }
+
+    /**
+     * Keeps only visitors with or without a season pass
+     * @param hasSeasonPass The season pass status to match
+     * @return A narrower query
+     */
+    public VisitorQuery withSeasonPass(boolean hasSeasonPass) {
+        return where(visitor -> visitor.hasSeasonPass() == hasSeasonPass);
+    }
+
+    /**
+     * Keeps only visitors matching a condition
+     * @param condition The condition to add
+     * @return A narrower query
+     */
+    public VisitorQuery where(Predicate<Visitor> condition) {
+        Objects.requireNonNull(condition, "condition");
+        return new VisitorQuery(source, (filter == null) ? condition : filter.and(condition), lock);
+    }
+
+    /**
+     * Gets a page of the matching visitors
+     * @param offset Number of matches to skip
+     * @param limit Maximum number of visitors to return
+     * @return Up to limit matches, in source order
+     */
+    public List<Visitor> page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        lock();
+        try {
+            if (filter == null && source instanceof RideHistory) {
+                // Unfiltered history pages jump straight to the offset
+                return ((RideHistory) source).page(offset, limit);
+            }
+            List<Visitor> page = new ArrayList<>();
+            int skipped = 0;
+            for (Visitor visitor : source) {
+                if (page.size() >= limit) break;
+                if (!matches(visitor)) continue;
+                if (skipped < offset) {
+                    skipped++;
+                } else {
+                    page.add(visitor);
+                }
+            }
+            return page;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Gets the first k matching visitors in comparator order, e.g. the
+     * youngest riders with VisitorComparator
+     * Keeps a bounded heap of k entries instead of sorting every match;
+     * equal visitors are returned in source order, as a stable sort would
+     * @param k Maximum number of visitors to return
+     * @param comparator The order to rank visitors by
+     * @return Up to k visitors, sorted by the comparator
+     */
+    public List<Visitor> top(int k, Comparator<Visitor> comparator) {
+        Objects.requireNonNull(comparator, "comparator");
+        if (k <= 0) return new ArrayList<>();
+        Comparator<Ranked> order = (a, b) -> {
+            int result = comparator.compare(a.visitor, b.visitor);
+            return (result != 0) ? result : Long.compare(a.position, b.position);
+        };
+        // Worst of the current top k sits at the head
+        PriorityQueue<Ranked> best = new PriorityQueue<>(Math.min(k, 1024) + 1, order.reversed());
+        lock();
+        try {
+            long position = 0;
+            for (Visitor visitor : source) {
+                if (matches(visitor)) {
+                    Ranked candidate = new Ranked(visitor, position);
+                    if (best.size() < k) {
+                        best.add(candidate);
+                    } else if (order.compare(candidate, best.peek()) < 0) {
+                        best.poll();
+                        best.add(candidate);
+                    }
+                }
+                position++;
+            }
+        } finally {
+            unlock();
+        }
+        Ranked[] ranked = best.toArray(new Ranked[0]);
+        Arrays.sort(ranked, order);
+        List<Visitor> result = new ArrayList<>(ranked.length);
+        for (Ranked entry : ranked) {
+            result.add(entry.visitor);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the matching visitors
+     * @return Number of matches
+     */
+    public int count() {
+        lock();
+        try {
+            int count = 0;
+            for (Visitor visitor : source) {
+                if (matches(visitor)) count++;
+            }
+            return count;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Iterates over the matching visitors in source order
+     * Lazy for plain rides; for a locked source it walks a snapshot of the matches
+     */
+    @Override
+    public Iterator<Visitor> iterator() {
+        if (lock != null) {
+            return page(0, Integer.MAX_VALUE).iterator();
+        }
+        Iterator<Visitor> visitors = source.iterator();
+        return new Iterator<Visitor>() {
+            private Visitor next = advance();
+
+            private Visitor advance() {
+                while (visitors.hasNext()) {
+                    Visitor visitor = visitors.next();
+                    if (matches(visitor)) return visitor;
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Visitor next() {
+                if (next == null) throw new NoSuchElementException();
+                Visitor current = next;
+                next = advance();
+                return current;
+            }
+        };
+    }
+
+    private boolean matches(Visitor visitor) {
+        return visitor != null && (filter == null || filter.test(visitor));
+    }
+
+    private void lock() {
+        if (lock != null) lock.lock();
+    }
+
+    private void unlock() {
+        if (lock != null) lock.unlock();
+    }
+
+    /**
+     * A visitor and its position in the source, for stable ordering of ties
+     */
+    private static final class Ranked {
+        final Visitor visitor;
+        final long position;
+
+        Ranked(Visitor visitor, long position) {
+            this.visitor = visitor;
+            this.position = position;
+        }
+    }
+}